@@ -0,0 +1,289 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Logging handler that hands records to a background writer instead of writing them inline
+ * Records go into a bounded lock-free ring buffer; a single drainer thread formats them and
+ * writes each batch with one file write. When the buffer is full the overflow policy decides
+ * whether a record is dropped, waits for space, or is sampled. Levels can be sampled
+ * independently (keep one record in N); SEVERE records are never sampled or dropped.
+ */
+public class AsyncLogHandler extends Handler {
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    public enum OverflowPolicy {
+        /** Discard the record and count it */
+        DROP,
+        /** Wait until the writer has made room */
+        BLOCK,
+        /** Once the buffer is three quarters full keep one record in ten below WARNING */
+        SAMPLE
+    }
+
+    private final OutputStream out;
+    private final OverflowPolicy overflowPolicy;
+    private final Map<Level, Sampler> samplers = new HashMap<>();
+    private final LogRecord[] slots;
+    // Vyukov-style slot sequences: a slot is free for position p when its sequence equals p
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowSamples = new AtomicLong();
+    private final Thread drainer;
+    private volatile long head;
+    private volatile long written;
+    private volatile boolean drainerParked;
+    private volatile boolean closed;
+    private long reportedDrops;
+
+    private static class Sampler {
+        final long rate;
+        final AtomicLong count = new AtomicLong();
+
+        Sampler(long rate) {
+            this.rate = rate;
+        }
+
+        boolean keep() {
+            return rate <= 1 || count.getAndIncrement() % rate == 0;
+        }
+    }
+
+    /**
+     * Open the log file and start the writer thread
+     * @param fileName Log file, appended to
+     * @param capacity Ring buffer capacity, rounded up to a power of two
+     * @param overflowPolicy What to do with records that do not fit
+     * @param sampleRates Keep one record in N for each level (SEVERE is ignored)
+     * @throws IOException if the log file cannot be opened
+     */
+    public AsyncLogHandler(String fileName, int capacity, OverflowPolicy overflowPolicy,
+                           Map<Level, Integer> sampleRates) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.out = new FileOutputStream(fileName, true);
+        this.overflowPolicy = overflowPolicy;
+        this.slots = new LogRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        for (Map.Entry<Level, Integer> rate : sampleRates.entrySet()) {
+            if (!Level.SEVERE.equals(rate.getKey()) && rate.getValue() > 1) {
+                samplers.put(rate.getKey(), new Sampler(rate.getValue()));
+            }
+        }
+        setFormatter(new SimpleFormatter());
+
+        this.drainer = new Thread(this::drain, "notes-log-writer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Create a handler configured from system properties
+     * notes.log.bufferSize (default 8192), notes.log.overflow (drop, block or sample; default
+     * drop) and notes.log.sample.LEVEL (keep one in N, for example notes.log.sample.INFO=10).
+     * @param fileName Log file, appended to
+     * @return The handler
+     * @throws IOException if the log file cannot be opened
+     */
+    public static AsyncLogHandler fromProperties(String fileName) throws IOException {
+        OverflowPolicy policy = OverflowPolicy.DROP;
+        String overflow = System.getProperty("notes.log.overflow");
+        if (overflow != null) {
+            try {
+                policy = OverflowPolicy.valueOf(overflow.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown notes.log.overflow policy, using drop: " + overflow);
+            }
+        }
+
+        Map<Level, Integer> rates = new HashMap<>();
+        for (Level level : new Level[] {Level.WARNING, Level.INFO, Level.CONFIG, Level.FINE, Level.FINER, Level.FINEST}) {
+            Integer rate = Integer.getInteger("notes.log.sample." + level.getName());
+            if (rate != null) {
+                rates.put(level, rate);
+            }
+        }
+        return new AsyncLogHandler(fileName, Integer.getInteger("notes.log.bufferSize", 8192), policy, rates);
+    }
+
+    /**
+     * Queue a record for the writer thread
+     * The caller is only resolved eagerly for WARNING and above; other records name the logger
+     * as their source so the hot path does not pay for a stack walk.
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        boolean severe = record.getLevel().intValue() >= Level.SEVERE.intValue();
+        Sampler sampler = samplers.get(record.getLevel());
+        if (!severe && sampler != null && !sampler.keep()) {
+            return;
+        }
+        if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+            record.getSourceMethodName();
+        } else {
+            record.setSourceClassName(record.getLoggerName());
+            record.setSourceMethodName(null);
+        }
+
+        if (overflowPolicy == OverflowPolicy.SAMPLE && !severe && record.getLevel().intValue() < Level.WARNING.intValue()
+                && tail.get() - head > (mask + 1) * 3L / 4 && overflowSamples.getAndIncrement() % 10 != 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        while (!offer(record)) {
+            if (!severe && overflowPolicy != OverflowPolicy.BLOCK) {
+                dropped.incrementAndGet();
+                return;
+            }
+            wakeDrainer();
+            LockSupport.parkNanos(50_000);
+            if (closed) {
+                return;
+            }
+        }
+        if (drainerParked) {
+            wakeDrainer();
+        }
+    }
+
+    /**
+     * Wait until every record queued so far has been written
+     */
+    @Override
+    public void flush() {
+        long target = tail.get();
+        while (written < target && drainer.isAlive()) {
+            wakeDrainer();
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Write the remaining records and close the log file
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        wakeDrainer();
+        try {
+            drainer.join(1000);
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            reportError("Failed to close log file", e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    /**
+     * Records discarded because the buffer was full or by overflow sampling
+     * @return drop count
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private boolean offer(LogRecord record) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = record;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    private LogRecord poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        LogRecord record = slots[index];
+        slots[index] = null;
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return record;
+    }
+
+    private void wakeDrainer() {
+        LockSupport.unpark(drainer);
+    }
+
+    private void drain() {
+        StringBuilder batch = new StringBuilder(16 * 1024);
+        while (true) {
+            int count = 0;
+            LogRecord record;
+            while (count < MAX_BATCH && (record = poll()) != null) {
+                try {
+                    batch.append(getFormatter().format(record));
+                } catch (RuntimeException e) {
+                    reportError("Failed to format log record", e, ErrorManager.FORMAT_FAILURE);
+                }
+                count++;
+            }
+
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                batch.append("AsyncLogHandler: ").append(drops - reportedDrops)
+                     .append(" log records dropped").append(System.lineSeparator());
+                reportedDrops = drops;
+            }
+
+            if (batch.length() > 0) {
+                try {
+                    out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    reportError("Failed to write log records", e, ErrorManager.WRITE_FAILURE);
+                }
+                batch.setLength(0);
+            }
+            written = head;
+
+            if (count == 0) {
+                if (closed) {
+                    return;
+                }
+                drainerParked = true;
+                if (sequences.get((int) (head & mask)) != head + 1) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                drainerParked = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds a literal or a regular expression in UTF-8 bytes, without decoding them
+ * Literals are found with Boyer-Moore-Horspool: the pattern is compared from its last byte
+ * and, on a mismatch, skipped ahead by as much as the text byte under its end allows, so most
+ * bytes of the text are never looked at. Case-insensitive matching folds ASCII letters through
+ * a lookup table while comparing, so neither the text nor the pattern is copied. Regular
+ * expressions are compiled once and run over a CharSequence that reads the bytes in place,
+ * one char per byte; non-ASCII characters in the expression are rewritten to their UTF-8
+ * bytes, so they match as a sequence, but only outside character classes. When every match
+ * must start with some plain text, as in "TODO.*urgent", that text is found with the literal
+ * search and the expression is only tried where it occurs, as grep does. As in grep, only
+ * '\n' ends a line: '.' does not match it, ^ and $ match next to it, and case-insensitive
+ * matching only folds ASCII letters.
+ * A matcher keeps the range it searches and its last match, so each thread needs its own:
+ * see copy().
+ */
+public abstract class ByteMatcher {
+    private static final byte[] IDENTITY = new byte[256];
+    private static final byte[] ASCII_LOWER = new byte[256];
+    private static final String METACHARACTERS = "\\^$.[]()*+?{}|";
+    private static final String QUANTIFIERS = "*+?{";
+    // Shorter prefixes match too often to be worth the extra match attempts
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            IDENTITY[i] = (byte) i;
+            ASCII_LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    /**
+     * Matcher for a literal string
+     * @param text The text to find
+     * @param ignoreCase Whether ASCII letters match in either case
+     * @return The matcher
+     */
+    public static ByteMatcher literal(String text, boolean ignoreCase) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("Search text cannot be empty");
+        }
+        return new Literal(text.getBytes(StandardCharsets.UTF_8), ignoreCase ? ASCII_LOWER : IDENTITY);
+    }
+
+    /**
+     * Matcher for a regular expression in java.util.regex syntax
+     * @param regex The expression
+     * @param ignoreCase Whether ASCII letters match in either case
+     * @return The matcher
+     * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+     */
+    public static ByteMatcher regex(String regex, boolean ignoreCase) {
+        if (regex.isEmpty()) {
+            throw new IllegalArgumentException("Search expression cannot be empty");
+        }
+        // Each char of the view is one byte, so non-ASCII literals must be spelled as bytes
+        String bytePattern = new String(regex.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        // UNIX_LINES: otherwise the byte 0x85, common inside UTF-8 sequences such as "Å", is a line end
+        int flags = Pattern.MULTILINE | Pattern.UNIX_LINES | (ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+        Pattern pattern = Pattern.compile(bytePattern, flags);
+        byte[] prefix = literalPrefix(bytePattern);
+        return new Regex(pattern, prefix.length >= MIN_PREFIX_LENGTH
+            ? new Literal(prefix, ignoreCase ? ASCII_LOWER : IDENTITY)
+            : null);
+    }
+
+    /**
+     * Plain characters every match of an expression starts with, or none if that is unclear
+     * Stops at the first metacharacter, and drops the character before a quantifier.
+     */
+    private static byte[] literalPrefix(String bytePattern) {
+        if (bytePattern.indexOf('|') >= 0) {
+            return new byte[0];
+        }
+        int length = 0;
+        while (length < bytePattern.length() && METACHARACTERS.indexOf(bytePattern.charAt(length)) < 0) {
+            length++;
+        }
+        if (length < bytePattern.length() && QUANTIFIERS.indexOf(bytePattern.charAt(length)) >= 0) {
+            length = Math.max(0, length - 1);
+        }
+        return bytePattern.substring(0, length).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Search a new range of bytes; ^ and $ also match at its start and end
+     * @param data Bytes to search, read with absolute gets
+     * @param start Start of the range
+     * @param end End of the range (exclusive)
+     */
+    public abstract void reset(ByteBuffer data, int start, int end);
+
+    /**
+     * Find the next match in the range
+     * @param from Position in the range to search from
+     * @return Start of the first match at or after from, or -1 if there is none
+     */
+    public abstract int find(int from);
+
+    /**
+     * End (exclusive) of the match last returned by find()
+     */
+    public abstract int end();
+
+    /**
+     * A matcher for the same pattern that another thread can use
+     * @return The copy
+     */
+    public abstract ByteMatcher copy();
+
+    private static class Literal extends ByteMatcher {
+        private final byte[] pattern;
+        private final byte[] fold;
+        // How far the pattern can move when the byte under its last position is a given value
+        private final int[] skip = new int[256];
+        private ByteBuffer data;
+        private int limit;
+        private int end = -1;
+
+        Literal(byte[] text, byte[] fold) {
+            this.fold = fold;
+            this.pattern = new byte[text.length];
+            for (int i = 0; i < text.length; i++) {
+                pattern[i] = fold[text[i] & 0xFF];
+            }
+            Arrays.fill(skip, pattern.length);
+            for (int i = 0; i < pattern.length - 1; i++) {
+                skip[pattern[i] & 0xFF] = pattern.length - 1 - i;
+            }
+            if (fold != IDENTITY) {
+                // An upper-case text byte skips as far as its lower-case pattern byte
+                for (int b = 'A'; b <= 'Z'; b++) {
+                    skip[b] = skip[b + ('a' - 'A')];
+                }
+            }
+        }
+
+        private Literal(Literal other) {
+            this.pattern = other.pattern;
+            this.fold = other.fold;
+            System.arraycopy(other.skip, 0, skip, 0, skip.length);
+        }
+
+        @Override
+        public void reset(ByteBuffer data, int start, int end) {
+            this.data = data;
+            this.limit = end;
+        }
+
+        @Override
+        public int find(int from) {
+            int last = pattern.length - 1;
+            byte lastByte = pattern[last];
+            for (int position = from; position <= limit - pattern.length; ) {
+                byte tail = data.get(position + last);
+                if (fold[tail & 0xFF] == lastByte && matchesAt(position, last)) {
+                    end = position + pattern.length;
+                    return position;
+                }
+                position += skip[tail & 0xFF];
+            }
+            return -1;
+        }
+
+        // Compare the bytes before the last one, which the caller already matched
+        private boolean matchesAt(int position, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                if (fold[data.get(position + i) & 0xFF] != pattern[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int end() {
+            return end;
+        }
+
+        @Override
+        public ByteMatcher copy() {
+            return new Literal(this);
+        }
+    }
+
+    private static class Regex extends ByteMatcher {
+        private final Pattern pattern;
+        private final Literal prefix;
+        private final ByteChars view = new ByteChars();
+        private final Matcher matcher;
+        private int start;
+        private int end = -1;
+
+        Regex(Pattern pattern, Literal prefix) {
+            this.pattern = pattern;
+            this.prefix = prefix;
+            // Match attempts at a prefix still see the bytes before it, for ^ and lookbehind
+            this.matcher = pattern.matcher(view).useTransparentBounds(true).useAnchoringBounds(false);
+        }
+
+        @Override
+        public void reset(ByteBuffer data, int start, int end) {
+            this.start = start;
+            view.set(data, start, end - start);
+            matcher.reset(view);
+            if (prefix != null) {
+                prefix.reset(data, start, end);
+            }
+        }
+
+        @Override
+        public int find(int from) {
+            if (from - start > view.length()) {
+                return -1;
+            }
+            if (prefix == null) {
+                if (!matcher.find(from - start)) {
+                    return -1;
+                }
+                end = start + matcher.end();
+                return start + matcher.start();
+            }
+            // Every match starts with the prefix, so only try where Horspool finds it
+            for (int candidate = prefix.find(from); candidate >= 0; candidate = prefix.find(candidate + 1)) {
+                matcher.region(candidate - start, view.length());
+                if (matcher.lookingAt()) {
+                    end = start + matcher.end();
+                    return candidate;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int end() {
+            return end;
+        }
+
+        @Override
+        public ByteMatcher copy() {
+            return new Regex(pattern, prefix != null ? (Literal) prefix.copy() : null);
+        }
+    }
+
+    /**
+     * Bytes seen as chars, one per byte, without copying them
+     */
+    private static class ByteChars implements CharSequence {
+        private ByteBuffer data;
+        private int offset;
+        private int length;
+
+        ByteChars() {
+        }
+
+        ByteChars(ByteBuffer data, int offset, int length) {
+            set(data, offset, length);
+        }
+
+        void set(ByteBuffer data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteChars(data, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            data.get(offset, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
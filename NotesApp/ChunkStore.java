@@ -0,0 +1,550 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Content-addressed store of note body chunks, shared between notes
+ * Bodies are cut where a rolling (gear) hash of the last bytes matches a mask, so a
+ * boundary depends only on nearby content: an edit changes the chunks around it and the
+ * rest of the body cuts the same way as before. Each chunk is stored once, as
+ * &lt;directory&gt;/&lt;first two hex digits&gt;/&lt;sha-256&gt;, and counts the references to
+ * it; the last note to drop a chunk deletes it.
+ * Which chunks each note file uses is kept in a manifest log that is replayed on load and
+ * compacted when it holds more stale records than live ones, like the search index.
+ * Before a note file is written with new chunks, a pending record names them (logPending());
+ * the record that replaceReferences() or abandon() writes next settles it. A pending record
+ * a crash left open keeps its chunks referenced on load, and recover() then sets the file's
+ * references to the chunks the file actually names, so a chunk is never deleted while a
+ * note still uses it. With sync on, chunk files and manifest records are forced to disk
+ * before the note that needs them is written.
+ */
+public class ChunkStore {
+    private static final String ADD_RECORD = "+";
+    private static final String REMOVE_RECORD = "-";
+    private static final String PENDING_RECORD = "P";
+    private static final String ABANDON_RECORD = "A";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+    private static final int MIN_CHUNK_BYTES = 512;
+    private static final int MAX_CHUNK_BYTES = 16 * 1024;
+    // A boundary where the top 11 bits of the hash (which cover the last 64 bytes) are zero:
+    // chunks of about 2 KB past the minimum
+    private static final long BOUNDARY_MASK = -1L << (64 - 11);
+    private static final long[] GEAR = gearTable();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String directory;
+    private final String manifestFile;
+    private final boolean enabled;
+    private final int minBytes;
+    private final boolean sync;
+    private final Map<String, Chunk> chunks = new HashMap<>();
+    private final Map<String, List<ChunkRef>> manifests = new HashMap<>();
+    // Pending records of writes in progress; their chunks are counted by store()
+    private final Map<String, List<ChunkRef>> inFlight = new HashMap<>();
+    // Pending records a crash left open, found by load(); their chunks are counted by load()
+    private final Map<String, List<ChunkRef>> unsettled = new LinkedHashMap<>();
+    private int logRecords;
+    private long logicalBytes;
+    private long physicalBytes;
+    private long chunksWritten;
+    private long chunksReused;
+
+    /**
+     * One chunk of a body: its hash and length
+     */
+    static class ChunkRef {
+        final String hash;
+        final int length;
+
+        ChunkRef(String hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return hash + ":" + length;
+        }
+
+        static ChunkRef parse(String text) throws IOException {
+            int colon = text.indexOf(':');
+            try {
+                if (colon == 64) {
+                    return new ChunkRef(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IOException("Invalid chunk reference: " + text);
+        }
+    }
+
+    private static class Chunk {
+        final int length;
+        // Manifest references plus chunks stored for a note that is still being written
+        int references;
+
+        Chunk(int length) {
+            this.length = length;
+        }
+    }
+
+    public ChunkStore(String directory, boolean enabled, int minBytes, boolean sync) {
+        this.directory = directory;
+        this.manifestFile = directory + "/manifest.log";
+        this.enabled = enabled;
+        this.minBytes = Math.max(MIN_CHUNK_BYTES * 2, minBytes);
+        this.sync = sync;
+    }
+
+    /**
+     * Load the manifest log and count the references to each chunk
+     * @throws IOException if the manifest cannot be read
+     */
+    public synchronized void load() throws IOException {
+        chunks.clear();
+        manifests.clear();
+        inFlight.clear();
+        unsettled.clear();
+        logRecords = 0;
+        logicalBytes = 0;
+        physicalBytes = 0;
+        if (!new File(manifestFile).exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t", 3);
+                if (parts.length >= 2 && !parts[0].equals(PENDING_RECORD)) {
+                    // Any other record for the file settles its pending one
+                    release(unsettled.remove(parts[1]), false);
+                }
+                if (parts[0].equals(ADD_RECORD) && parts.length == 3) {
+                    List<ChunkRef> refs = parseRefs(parts[2]);
+                    acquire(refs);
+                    release(updateManifest(parts[1], refs), false);
+                } else if (parts[0].equals(REMOVE_RECORD) && parts.length >= 2) {
+                    release(updateManifest(parts[1], Collections.emptyList()), false);
+                } else if (parts[0].equals(PENDING_RECORD) && parts.length == 3) {
+                    List<ChunkRef> refs = parseRefs(parts[2]);
+                    acquire(refs);
+                    release(unsettled.put(parts[1], refs), false);
+                }
+                logRecords++;
+            }
+        }
+    }
+
+    /**
+     * Settle the pending records a crash left open, after load()
+     * Each file's references become the chunks the file names now, whether or not its write
+     * got through; chunks that only the unfinished write used are deleted.
+     * @param stored Reads the chunks a note file names (none if it does not exist)
+     * @return Number of files whose pending records were settled
+     */
+    public synchronized int recover(Function<String, List<ChunkRef>> stored) {
+        int settled = 0;
+        for (Map.Entry<String, List<ChunkRef>> pending : new ArrayList<>(unsettled.entrySet())) {
+            String fileName = pending.getKey();
+            List<ChunkRef> refs = stored.apply(fileName);
+            if (refs == null) {
+                // Unreadable for now: keep every chunk it may name until a later start
+                continue;
+            }
+            acquire(refs);
+            unsettled.remove(fileName);
+            List<ChunkRef> previous = updateManifest(fileName, refs);
+            appendRecord(manifestRecord(fileName, refs), sync);
+            release(previous, true);
+            release(pending.getValue(), true);
+            settled++;
+        }
+        return settled;
+    }
+
+    /**
+     * Whether new bodies of the given size are stored as chunks
+     * @param length Body length in bytes
+     * @return true if deduplication is enabled and the body is large enough to split
+     */
+    public boolean shouldChunk(int length) {
+        return enabled && length >= minBytes;
+    }
+
+    /**
+     * Split a body into chunks and store the ones not stored yet
+     * The chunks count as referenced until replaceReferences() or release() is called.
+     * @param body UTF-8 body
+     * @return The body's chunks in order, or null if a chunk could not be written
+     */
+    List<ChunkRef> store(byte[] body) {
+        List<ChunkRef> refs = new ArrayList<>();
+        MessageDigest digest = sha256();
+        int start = 0;
+        while (start < body.length) {
+            int end = boundary(body, start);
+            digest.update(body, start, end - start);
+            refs.add(new ChunkRef(hex(digest.digest()), end - start));
+            start = end;
+        }
+
+        synchronized (this) {
+            int offset = 0;
+            for (int i = 0; i < refs.size(); i++) {
+                ChunkRef ref = refs.get(i);
+                Chunk chunk = chunks.get(ref.hash);
+                if (chunk == null) {
+                    try {
+                        writeChunk(ref.hash, body, offset, ref.length);
+                    } catch (IOException e) {
+                        release(refs.subList(0, i), true);
+                        System.err.println("Failed to store note chunk: " + e.getMessage());
+                        return null;
+                    }
+                    chunk = new Chunk(ref.length);
+                    chunks.put(ref.hash, chunk);
+                    physicalBytes += ref.length;
+                    chunksWritten++;
+                } else {
+                    chunksReused++;
+                }
+                chunk.references++;
+                offset += ref.length;
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Log that a note file is about to be written with chunks from store()
+     * Must be called before the file is written; replaceReferences() or abandon() settles it.
+     * @param fileName File path of the note
+     * @param refs Chunks returned by store() for the body about to be written
+     * @throws IOException if the manifest cannot be written; the note must not be written then
+     */
+    public synchronized void logPending(String fileName, List<ChunkRef> refs) throws IOException {
+        if (refs.isEmpty()) {
+            return;
+        }
+        writeRecord(PENDING_RECORD + "\t" + fileName + "\t" + joinRefs(refs), sync);
+        logRecords++;
+        inFlight.put(fileName, refs);
+    }
+
+    /**
+     * Record the chunks a note file now uses and drop the references of its previous body
+     * @param fileName File path of the note
+     * @param refs Chunks returned by store() for the written body, or an empty list
+     */
+    public synchronized void replaceReferences(String fileName, List<ChunkRef> refs) {
+        boolean pending = inFlight.remove(fileName) != null;
+        List<ChunkRef> previous = updateManifest(fileName, refs);
+        if (!refs.isEmpty() || previous != null || pending) {
+            appendRecord(manifestRecord(fileName, refs), sync);
+        }
+        release(previous, true);
+    }
+
+    /**
+     * Drop the references taken by store() for a body that was not written
+     * @param fileName File path of the note
+     * @param refs Chunks returned by store()
+     */
+    public synchronized void abandon(String fileName, List<ChunkRef> refs) {
+        if (inFlight.remove(fileName) != null) {
+            appendRecord(ABANDON_RECORD + "\t" + fileName, false);
+        }
+        release(refs, true);
+    }
+
+    /**
+     * Read a body from its chunks, each straight into its place in the result
+     * @param refs The body's chunks in order
+     * @param length Total body length
+     * @return The UTF-8 body
+     * @throws IOException if a chunk is missing or has the wrong length
+     */
+    public byte[] read(List<ChunkRef> refs, int length) throws IOException {
+        byte[] body = new byte[length];
+        int offset = 0;
+        for (ChunkRef ref : refs) {
+            if (offset + ref.length > length) {
+                throw new IOException("Chunks are longer than the recorded body length");
+            }
+            try (FileInputStream in = new FileInputStream(chunkFile(ref.hash))) {
+                if (in.readNBytes(body, offset, ref.length) != ref.length || in.read() >= 0) {
+                    throw new IOException("Chunk has the wrong length: " + ref.hash);
+                }
+            } catch (FileNotFoundException e) {
+                throw new IOException("Missing note chunk: " + ref.hash, e);
+            }
+            offset += ref.length;
+        }
+        if (offset != length) {
+            throw new IOException("Chunks are shorter than the recorded body length");
+        }
+        return body;
+    }
+
+    /**
+     * Describe how much body data is referenced and how much is stored
+     * @return Statistics lines
+     */
+    public synchronized String describe() {
+        if (!enabled && chunks.isEmpty()) {
+            return "Chunk Store: off";
+        }
+        return "Chunk Store: " + chunks.size() + " chunks for " + manifests.size() + " notes" +
+               (enabled ? ", bodies from " + minBytes + " bytes chunked" : ", off for new notes") + "\n" +
+               "Chunked Bytes: logical " + logicalBytes + ", physical " + physicalBytes +
+               String.format(" (dedup ratio %.2f)", physicalBytes == 0 ? 0 : (double) logicalBytes / physicalBytes) +
+               ", " + chunksWritten + " chunks written and " + chunksReused + " reused since startup";
+    }
+
+    public synchronized long getLogicalBytes() {
+        return logicalBytes;
+    }
+
+    public synchronized long getPhysicalBytes() {
+        return physicalBytes;
+    }
+
+    /**
+     * End of the chunk starting at the given position
+     */
+    private static int boundary(byte[] body, int start) {
+        int limit = Math.min(body.length, start + MAX_CHUNK_BYTES);
+        int position = start + MIN_CHUNK_BYTES;
+        if (position >= limit) {
+            return limit;
+        }
+        long hash = 0;
+        for (; position < limit; position++) {
+            hash = (hash << 1) + GEAR[body[position] & 0xFF];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return position + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Set or remove (for an empty list) a file's manifest
+     * @return The file's previous chunks, or null
+     */
+    private List<ChunkRef> updateManifest(String fileName, List<ChunkRef> refs) {
+        List<ChunkRef> previous = refs.isEmpty()
+            ? manifests.remove(fileName)
+            : manifests.put(fileName, new ArrayList<>(refs));
+        logicalBytes += bodyLength(refs) - (previous != null ? bodyLength(previous) : 0);
+        return previous;
+    }
+
+    private void acquire(List<ChunkRef> refs) {
+        for (ChunkRef ref : refs) {
+            Chunk chunk = chunks.get(ref.hash);
+            if (chunk == null) {
+                chunk = new Chunk(ref.length);
+                chunks.put(ref.hash, chunk);
+                physicalBytes += ref.length;
+            }
+            chunk.references++;
+        }
+    }
+
+    /**
+     * Drop one reference to each chunk, deleting chunks nothing refers to any more
+     */
+    private void release(List<ChunkRef> refs, boolean deleteFiles) {
+        if (refs == null) {
+            return;
+        }
+        for (ChunkRef ref : refs) {
+            Chunk chunk = chunks.get(ref.hash);
+            if (chunk != null && --chunk.references <= 0) {
+                chunks.remove(ref.hash);
+                physicalBytes -= chunk.length;
+                if (deleteFiles && !chunkFile(ref.hash).delete()) {
+                    System.err.println("Failed to delete unused note chunk: " + ref.hash);
+                }
+            }
+        }
+    }
+
+    private void writeChunk(String hash, byte[] body, int offset, int length) throws IOException {
+        File file = chunkFile(hash);
+        if (file.exists() && file.length() == length) {
+            // Left behind by an earlier run; the name is the content's hash
+            return;
+        }
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create chunk directory: " + parent);
+        }
+        File temp = new File(parent, hash + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(body, offset, length);
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (sync) {
+            syncDirectory(parent);
+            syncDirectory(parent.getParentFile());
+        }
+    }
+
+    private File chunkFile(String hash) {
+        return new File(directory + "/" + hash.substring(0, 2) + "/" + hash);
+    }
+
+    private void appendRecord(String record, boolean force) {
+        try {
+            writeRecord(record, force);
+            logRecords++;
+        } catch (IOException e) {
+            System.err.println("Failed to update chunk manifest: " + e.getMessage());
+            return;
+        }
+
+        if (logRecords > MIN_RECORDS_BEFORE_COMPACTION && logRecords > 2 * manifests.size()) {
+            compact();
+        }
+    }
+
+    private void writeRecord(String record, boolean force) throws IOException {
+        File parent = new File(manifestFile).getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create chunk directory: " + parent);
+        }
+        try (FileOutputStream out = new FileOutputStream(manifestFile, true)) {
+            out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+            if (force) {
+                out.getFD().sync();
+            }
+        }
+    }
+
+    private static String manifestRecord(String fileName, List<ChunkRef> refs) {
+        return refs.isEmpty()
+            ? REMOVE_RECORD + "\t" + fileName
+            : ADD_RECORD + "\t" + fileName + "\t" + joinRefs(refs);
+    }
+
+    private static String joinRefs(List<ChunkRef> refs) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < refs.size(); i++) {
+            text.append(i > 0 ? " " : "").append(refs.get(i));
+        }
+        return text.toString();
+    }
+
+    private static List<ChunkRef> parseRefs(String text) throws IOException {
+        List<ChunkRef> refs = new ArrayList<>();
+        for (String ref : text.split(" ")) {
+            refs.add(ChunkRef.parse(ref));
+        }
+        return refs;
+    }
+
+    /**
+     * Rewrite the manifest log with one record per live note, keeping open pending records
+     * The new log is forced before it replaces the old one, so a crash leaves one of them whole.
+     */
+    private void compact() {
+        File tempFile = new File(manifestFile + ".tmp");
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(tempFile, false);
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, List<ChunkRef>> entry : manifests.entrySet()) {
+                    writer.write(manifestRecord(entry.getKey(), entry.getValue()) + "\n");
+                }
+                for (Map<String, List<ChunkRef>> pending : List.of(unsettled, inFlight)) {
+                    for (Map.Entry<String, List<ChunkRef>> entry : pending.entrySet()) {
+                        writer.write(PENDING_RECORD + "\t" + entry.getKey() + "\t" + joinRefs(entry.getValue()) + "\n");
+                    }
+                }
+                writer.flush();
+                fileOut.getFD().sync();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to compact chunk manifest: " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), Paths.get(manifestFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(tempFile.getAbsoluteFile().getParentFile());
+            logRecords = manifests.size() + unsettled.size() + inFlight.size();
+        } catch (IOException e) {
+            System.err.println("Failed to replace chunk manifest: " + e.getMessage());
+        }
+    }
+
+    // Renames are only durable once the directory itself is forced
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory; their file systems order this themselves
+        }
+    }
+
+    private static long bodyLength(List<ChunkRef> refs) {
+        long length = 0;
+        for (ChunkRef ref : refs) {
+            length += ref.length;
+        }
+        return length;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] text = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            text[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            text[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(text);
+    }
+
+    /**
+     * Random values per byte for the gear hash; the fixed seed keeps boundaries stable across runs
+     */
+    private static long[] gearTable() {
+        Random random = new Random(0x6e6f746573L);
+        long[] table = new long[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = random.nextLong();
+        }
+        return table;
+    }
+}
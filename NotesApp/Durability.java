@@ -0,0 +1,27 @@
+/**
+ * How far a save must get before it is reported as complete
+ */
+public enum Durability {
+    /** Complete as soon as the save is accepted; a crash may lose it */
+    NONE,
+    /** Complete once the data has been handed to the operating system; survives a process crash */
+    FLUSH,
+    /** Complete once the data has been forced to disk; survives a power loss */
+    FSYNC;
+
+    /**
+     * Parse a policy name, falling back to FLUSH for missing or unknown values
+     * @param name Policy name (none, flush or fsync)
+     * @return The policy
+     */
+    public static Durability parse(String name) {
+        if (name != null) {
+            for (Durability durability : values()) {
+                if (durability.name().equalsIgnoreCase(name.trim())) {
+                    return durability;
+                }
+            }
+        }
+        return FLUSH;
+    }
+}
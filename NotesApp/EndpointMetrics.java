@@ -0,0 +1,76 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts and latencies per API endpoint
+ * Latencies go into a LatencyHistogram per endpoint, so recording is a few adds and
+ * percentiles are accurate to within about 3%.
+ */
+public class EndpointMetrics {
+    private final Map<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+
+    private static class Endpoint {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        void record(long nanos, boolean error) {
+            latencies.record(nanos);
+            if (error) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Record one request
+     * @param endpoint Endpoint name
+     * @param nanos Time spent handling the request
+     * @param status HTTP status sent; 5xx counts as an error
+     */
+    public void record(String endpoint, long nanos, int status) {
+        endpoints.computeIfAbsent(endpoint, name -> new Endpoint()).record(nanos, status >= 500);
+    }
+
+    /**
+     * Describe every endpoint as a JSON object
+     * @return JSON object keyed by endpoint name
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            LatencyHistogram.Snapshot latencies = endpoint.latencies.snapshot();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            Json.quote(json, entry.getKey()).append(":{")
+                .append("\"requests\":").append(latencies.getCount())
+                .append(",\"errors\":").append(endpoint.errors.sum())
+                .append(",\"meanMicros\":").append(latencies.getMean() / 1000)
+                .append(",\"p50Micros\":").append(latencies.valueAt(0.50) / 1000)
+                .append(",\"p99Micros\":").append(latencies.valueAt(0.99) / 1000)
+                .append(",\"p999Micros\":").append(latencies.valueAt(0.999) / 1000)
+                .append(",\"maxMicros\":").append(latencies.getMax() / 1000)
+                .append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Describe every endpoint for the console
+     * @return One line per endpoint
+     */
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            LatencyHistogram.Snapshot latencies = endpoint.latencies.snapshot();
+            text.append(String.format("%-8s %8d requests, %d errors, mean %d us, p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                entry.getKey(), latencies.getCount(), endpoint.errors.sum(), latencies.getMean() / 1000,
+                latencies.valueAt(0.50) / 1000, latencies.valueAt(0.99) / 1000, latencies.valueAt(0.999) / 1000,
+                latencies.getMax() / 1000));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Summary of an export: how many notes were written and how fast
+ */
+public class ExportReport {
+    private final String exportPath;
+    private int notesExported;
+    private int notesFailed;
+    private long bytesRead;
+    private long bytesWritten;
+    private long elapsedNanos;
+
+    public ExportReport(String exportPath) {
+        this.exportPath = exportPath;
+    }
+
+    void add(int exported, int failed, long read, long written) {
+        notesExported += exported;
+        notesFailed += failed;
+        bytesRead += read;
+        bytesWritten += written;
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getExportPath() {
+        return exportPath;
+    }
+
+    public int getNotesExported() {
+        return notesExported;
+    }
+
+    public int getNotesFailed() {
+        return notesFailed;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * Rate at which stored note bytes were exported
+     * @return Throughput in MB/s
+     */
+    public double getThroughputMBps() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return (bytesRead / (1024.0 * 1024.0)) / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "Exported " + notesExported + " note(s)" +
+               (notesFailed > 0 ? " (" + notesFailed + " failed)" : "") +
+               " in " + getElapsedMillis() + " ms: " +
+               bytesRead + " bytes read, " + bytesWritten + " bytes written, " +
+               String.format("%.2f MB/s", getThroughputMBps());
+    }
+}
@@ -1,29 +1,102 @@
 import java.io.*;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 /**
  * Handles all file I/O operations for the Notes App
  * Demonstrates FileReader, BufferedReader, FileWriter concepts
+ * Safe to call from many threads: writes to a note hold its striped write lock (sized with
+ * notes.lock.stripes) and storage reads hold the read lock, while the notes index serves
+ * lookups without locking and serializes its own writers.
  */
 public class FileManager {
     private static final String NOTES_DIRECTORY = "notes";
     private static final String NOTES_INDEX_FILE = "notes/notes_index.txt";
+    private static final String NOTES_INDEX_SNAPSHOT = "notes/notes_index.snapshot";
+    private static final String SEARCH_INDEX_FILE = "notes/search_index.txt";
+    private static final String SEGMENTS_DIRECTORY = "notes/segments";
+    private static final String DICTIONARY_DIRECTORY = "notes/dictionaries";
+    private static final String CHUNKS_DIRECTORY = "notes/chunks";
+    // Outside the notes directory's own files, so exports are never taken for notes
+    private static final String EXPORTS_DIRECTORY = "notes/exports";
     private static final String LOG_FILE = "notes/app.log";
     private static final Logger logger = Logger.getLogger(FileManager.class.getName());
+    private static final MeteredNoteStorage storage = new MeteredNoteStorage(createStorage());
+    private static final NotesIndex notesIndex = new NotesIndex(NOTES_INDEX_FILE, NOTES_INDEX_SNAPSHOT,
+        NOTES_DIRECTORY, Integer.getInteger("notes.index.snapshotRecords", 10_000));
+    private static final SearchIndex searchIndex = new SearchIndex(SEARCH_INDEX_FILE,
+        Double.parseDouble(System.getProperty("notes.search.titleBoost", "3")));
+    private static final int SNIPPET_CHARS = Integer.getInteger("notes.search.snippetChars", 160);
+    private static final int SCAN_THREADS = Integer.getInteger("notes.scan.threads", Runtime.getRuntime().availableProcessors());
+    private static final long SCAN_MAP_BYTES = Long.getLong("notes.scan.mapBytes", 256L * 1024);
+    private static final NoteStatistics statistics = new NoteStatistics(storage);
+    private static final NoteOrderIndex orderIndex = new NoteOrderIndex();
+    private static final Object orderIndexBuild = new Object();
+    private static final int STREAM_PAGE_SIZE = 64;
+    private static final long STATISTICS_RECONCILE_MILLIS = Long.getLong("notes.stats.reconcileMillis", 60_000L);
+    private static final int MAX_APPEND_DELTAS = Integer.getInteger("notes.append.maxDeltas", 16);
+    private static final long MAX_APPEND_CHARS = Long.getLong("notes.append.maxChars", 64L * 1024);
+    private static final NoteCache noteCache = new NoteCache(storage,
+        Integer.getInteger("notes.cache.maxEntries", 1000),
+        Long.getLong("notes.cache.maxBytes", 16L * 1024 * 1024));
+    private static final Durability DURABILITY = Durability.parse(System.getProperty("notes.durability"));
+    private static final boolean WRITE_BEHIND = Boolean.getBoolean("notes.writeBehind");
+    private static final int HEADER_READ_BYTES = 512;
+    private static final long LAZY_SOFT_CAP_BYTES = Long.getLong("notes.lazy.softCapBytes", 0L);
+    private static final NoteCompressor compressor = new NoteCompressor(DICTIONARY_DIRECTORY,
+        "deflate".equalsIgnoreCase(System.getProperty("notes.compression", "none")),
+        Integer.getInteger("notes.compression.minBytes", 256),
+        Integer.getInteger("notes.compression.level", Deflater.DEFAULT_COMPRESSION));
+    private static final ChunkStore chunkStore = new ChunkStore(CHUNKS_DIRECTORY,
+        Boolean.getBoolean("notes.dedup"), Integer.getInteger("notes.dedup.minBytes", 4096),
+        DURABILITY == Durability.FSYNC);
+    private static final Pattern UNSAFE_FILE_NAME_CHARS = Pattern.compile("[^a-zA-Z0-9._-]");
+    private static final NoteLocks noteLocks = new NoteLocks(Integer.getInteger("notes.lock.stripes", 64));
+    private static final NoteMetrics metrics = new NoteMetrics(
+        Boolean.parseBoolean(System.getProperty("notes.metrics", "true")));
+    private static volatile WriteBehindQueue writeBehindQueue;
+    private static volatile NoteWatcher noteWatcher;
     
     static {
         setupLogger();
+        setupMetrics();
         createNotesDirectory();
+        loadNotesIndex();
+        loadChunkStore();
+        setupCompression();
+        rebuildNotesIndexIfDamaged();
+        loadSearchIndex();
+        recoverInterruptedWrites();
+        if (Boolean.getBoolean("notes.watch")) {
+            watchChanges(null);
+        }
     }
     
     /**
      * Setup logger for exception logging
+     * Records are written by a background thread unless notes.log.async=false.
      */
     private static void setupLogger() {
         try {
@@ -33,15 +106,50 @@ public class FileManager {
                 notesDir.mkdirs();
             }
             
-            FileHandler fileHandler = new FileHandler(LOG_FILE, true); // true for append mode
-            fileHandler.setFormatter(new SimpleFormatter());
-            logger.addHandler(fileHandler);
+            Handler handler;
+            if (Boolean.parseBoolean(System.getProperty("notes.log.async", "true"))) {
+                handler = AsyncLogHandler.fromProperties(LOG_FILE);
+            } else {
+                handler = new FileHandler(LOG_FILE, true); // true for append mode
+                handler.setFormatter(new SimpleFormatter());
+            }
+            logger.addHandler(handler);
             logger.setUseParentHandlers(false); // Don't log to console
         } catch (IOException e) {
             System.err.println("Failed to setup logger: " + e.getMessage());
         }
     }
     
+    /**
+     * Publish the storage and cache counters next to the operation latencies
+     * The MBean is registered unless notes.metrics.jmx=false, and a snapshot is logged every
+     * notes.metrics.dumpSeconds seconds (0 turns the dump off).
+     */
+    private static void setupMetrics() {
+        metrics.addCounter("BytesRead", storage::getBytesRead);
+        metrics.addCounter("BytesWritten", storage::getBytesWritten);
+        metrics.addCounter("CacheHits", noteCache::getHits);
+        metrics.addCounter("CacheMisses", noteCache::getMisses);
+        metrics.start(logger, Boolean.parseBoolean(System.getProperty("notes.metrics.jmx", "true")),
+            Long.getLong("notes.metrics.dumpSeconds", 60L));
+    }
+    
+    /**
+     * Pick the storage backend from the notes.storage system property
+     * "file" (default) keeps one file per note, "segment" packs notes into segment files.
+     * @return The storage backend
+     */
+    private static NoteStorage createStorage() {
+        if ("segment".equalsIgnoreCase(System.getProperty("notes.storage"))) {
+            try {
+                return new SegmentNoteStorage(SEGMENTS_DIRECTORY);
+            } catch (IOException e) {
+                System.err.println("Failed to open segment storage, using one file per note: " + e.getMessage());
+            }
+        }
+        return new FileNoteStorage(NOTES_DIRECTORY);
+    }
+    
     /**
      * Create notes directory if it doesn't exist
      */
@@ -56,132 +164,1090 @@ public class FileManager {
     }
     
     /**
-     * Save a note to file using FileWriter (demonstrates append vs overwrite)
+     * Load the notes index once at startup
+     */
+    private static void loadNotesIndex() {
+        try {
+            notesIndex.load();
+            logger.info("Notes index loaded: " + notesIndex.size() + " notes");
+        } catch (IOException e) {
+            String errorMsg = "Failed to load notes index: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+        }
+    }
+    
+    /**
+     * Rebuild the notes index from the stored notes when its snapshot could not be read
+     * Runs after the chunk store and compressor are set up, so every stored note can be
+     * decoded. A new snapshot is written once the index holds every note again.
+     */
+    private static void rebuildNotesIndexIfDamaged() {
+        if (!notesIndex.needsRebuild()) {
+            return;
+        }
+        List<String> keys;
+        if (storage.getBackend() instanceof SegmentNoteStorage) {
+            keys = ((SegmentNoteStorage) storage.getBackend()).keys();
+        } else {
+            keys = new ArrayList<>();
+            File[] files = new File(NOTES_DIRECTORY).listFiles();
+            for (File file : files != null ? files : new File[0]) {
+                String fileName = NOTES_DIRECTORY + "/" + file.getName();
+                if (file.isFile() && isNoteFile(fileName)) {
+                    keys.add(fileName);
+                }
+            }
+        }
+        
+        Map<String, String> stored = new LinkedHashMap<>();
+        for (String fileName : keys) {
+            try {
+                stored.putIfAbsent(NoteCodec.decode(storage.read(fileName)).getTitle(), fileName);
+            } catch (IOException e) {
+                logger.warning("Not a readable note, left out of the rebuilt index: " + fileName + " - " + e.getMessage());
+            }
+        }
+        try {
+            int added = notesIndex.rebuild(stored);
+            notesIndex.compact();
+            logger.warning("Notes index rebuilt from " + keys.size() + " stored notes, " + added + " titles restored");
+        } catch (IOException e) {
+            String errorMsg = "Failed to rebuild notes index: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+        }
+    }
+    
+    /**
+     * Load the chunk references and let the codec read and write chunked bodies
+     * With notes.dedup=true, bodies of notes.dedup.minBytes or more are stored as chunks.
+     * Writes a crash interrupted are settled from the chunks their note files name.
+     */
+    private static void loadChunkStore() {
+        try {
+            chunkStore.load();
+            int recovered = chunkStore.recover(FileManager::storedChunkReferences);
+            if (recovered > 0) {
+                logger.info("Settled chunk references of " + recovered + " interrupted note writes");
+            }
+        } catch (IOException e) {
+            String errorMsg = "Failed to load chunk manifest: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+        }
+        NoteCodec.setChunkStore(chunkStore);
+    }
+    
+    /**
+     * Chunks a stored note names
+     * @param fileName File path of the note
+     * @return The chunks (none if the note does not exist), or null if the note cannot be read
+     */
+    private static List<ChunkStore.ChunkRef> storedChunkReferences(String fileName) {
+        try {
+            return storage.exists(fileName)
+                ? NoteCodec.chunkReferences(storage.read(fileName))
+                : Collections.emptyList();
+        } catch (FileNotFoundException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            logger.warning("Failed to read chunk references of " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Let the codec read and write compressed bodies
+     * With notes.compression=deflate and no dictionary yet, one is trained from a sample of
+     * the store once it holds notes.compression.trainAfter notes.
+     */
+    private static void setupCompression() {
+        try {
+            compressor.load();
+        } catch (IOException e) {
+            logger.warning("Failed to load compression dictionaries: " + e.getMessage());
+        }
+        NoteCodec.setCompressor(compressor);
+        
+        if (compressor.isEnabled() && compressor.getActiveDictionary() == null
+            && notesIndex.size() >= Integer.getInteger("notes.compression.trainAfter", 100)) {
+            trainCompressionDictionary(Integer.getInteger("notes.compression.sampleNotes", 500));
+        }
+    }
+    
+    /**
+     * Train a compression dictionary from notes spread evenly over the store
+     * Notes written from now on are compressed with it; stored notes keep the dictionary they
+     * were written with until they are saved again.
+     * @param sampleNotes Maximum number of notes to learn from
+     * @return The new dictionary's id, or null if none was trained
+     */
+    public static String trainCompressionDictionary(int sampleNotes) {
+        flushWrites();
+        List<String> fileNames = notesIndex.fileNames();
+        int step = Math.max(1, fileNames.size() / Math.max(1, sampleNotes));
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < fileNames.size() && samples.size() < sampleNotes; i += step) {
+            Note note = readIfPresent(fileNames.get(i));
+            if (note != null) {
+                samples.add(note.getContent());
+            }
+        }
+        
+        try {
+            String id = compressor.train(samples, Integer.getInteger("notes.compression.dictionaryBytes", 32 * 1024));
+            logger.info(id != null
+                ? "Compression dictionary " + id + " trained from " + samples.size() + " notes"
+                : "No compression dictionary trained: " + samples.size() + " sample notes share no lines");
+            return id;
+        } catch (IOException e) {
+            String errorMsg = "Failed to save compression dictionary: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+            return null;
+        }
+    }
+    
+    /**
+     * Load the search index, building it from the existing notes the first time
+     * An existing index is replayed in the background; the first search waits for it.
+     * An index written before term frequencies were kept is rebuilt once.
+     */
+    private static void loadSearchIndex() {
+        if (searchIndex.exists() && searchIndex.hasCurrentFormat()) {
+            searchIndex.loadInBackground();
+            return;
+        }
+        if (searchIndex.exists()) {
+            logger.info("Search index is in an older format, rebuilding it");
+            searchIndex.clear();
+        }
+        if (notesIndex.size() > 0) {
+            // One note at a time, so building the index does not hold the whole store;
+            // log records are written a thousand notes at a time
+            int indexed = 0;
+            searchIndex.beginBatch();
+            for (String fileName : notesIndex.fileNames()) {
+                Note note = readNote(fileName);
+                if (note != null) {
+                    searchIndex.indexNote(fileName, note, false);
+                    if (++indexed % 1000 == 0) {
+                        searchIndex.endBatch();
+                        searchIndex.beginBatch();
+                    }
+                }
+            }
+            searchIndex.endBatch();
+            logger.info("Search index built for " + searchIndex.size() + " notes");
+        }
+    }
+    
+    /**
+     * Settle note saves and deletes that a crash interrupted
+     * Only the notes named by intents the notes index log left open are checked, so startup
+     * never has to scan the notes directory. Recovered notes are indexed for search again.
+     */
+    private static void recoverInterruptedWrites() {
+        try {
+            List<String> recovered = notesIndex.recover(FileManager::holdsNote);
+            for (String fileName : recovered) {
+                Note note = readIfPresent(fileName);
+                if (note != null) {
+                    searchIndex.indexNote(fileName, note, false);
+                } else {
+                    searchIndex.removeNote(fileName);
+                }
+            }
+            if (!recovered.isEmpty()) {
+                logger.info("Recovered " + recovered.size() + " interrupted note saves and deletes");
+            }
+        } catch (IOException e) {
+            String errorMsg = "Failed to recover notes index: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+        }
+    }
+    
+    /**
+     * Check whether a file holds the note with a title
+     * @param title Note title
+     * @param fileName File path of the note
+     * @return true if the file exists and holds that note
+     */
+    private static boolean holdsNote(String title, String fileName) {
+        Note note = storage.exists(fileName) ? readIfPresent(fileName) : null;
+        return note != null && note.getTitle().equals(title);
+    }
+    
+    /**
+     * Follow changes made to note files outside the app (file storage only)
+     * Once started, notes that are created, edited or deleted by other programs are brought
+     * into the notes index, search index, cache, statistics and listing order as they change.
+     * Started at startup with notes.watch=true; notes.watch.debounceMillis sets how long the
+     * directory must be quiet before a burst of changes is applied.
+     * @param subscriber Also called with each burst of changes, after they are applied, or null
+     * @return true if the notes directory is being watched
+     */
+    public static synchronized boolean watchChanges(Consumer<List<NoteChange>> subscriber) {
+        if (!(storage.getBackend() instanceof FileNoteStorage)) {
+            return false;
+        }
+        if (noteWatcher == null) {
+            NoteWatcher watcher = new NoteWatcher(NOTES_DIRECTORY, FileManager::isNoteFile,
+                Long.getLong("notes.watch.debounceMillis", 200L));
+            watcher.subscribe(FileManager::applyOutsideChanges);
+            try {
+                watcher.start();
+            } catch (IOException e) {
+                String errorMsg = "Failed to watch notes directory: " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                return false;
+            }
+            noteWatcher = watcher;
+        }
+        if (subscriber != null) {
+            noteWatcher.subscribe(subscriber);
+        }
+        return true;
+    }
+    
+    private static boolean isNoteFile(String fileName) {
+        return fileName.endsWith(".txt") && !fileName.equals(NOTES_INDEX_FILE) && !fileName.equals(SEARCH_INDEX_FILE);
+    }
+    
+    /**
+     * Apply changes made outside the app, reading only the changed notes
+     * @param changes One change per note file
+     */
+    private static void applyOutsideChanges(List<NoteChange> changes) {
+        int applied = 0;
+        for (NoteChange change : changes) {
+            String fileName = change.getFileName();
+            Lock lock = noteLocks.writeLock(fileName);
+            lock.lock();
+            try {
+                // Going by the file as it is now, under the lock: it may have changed again since
+                // the change was seen, and a save of our own can race the watcher and show up too
+                noteCache.remove(fileName);
+                if (storage.exists(fileName)) {
+                    adoptChangedNote(fileName);
+                } else {
+                    forgetDeletedNote(fileName);
+                }
+                applied++;
+            } catch (IOException e) {
+                String errorMsg = "Failed to apply outside change: " + change + " - " + e.getMessage();
+                logger.warning(errorMsg);
+                System.err.println(errorMsg);
+            } finally {
+                lock.unlock();
+            }
+        }
+        logger.info("Applied " + applied + " note changes made outside the app");
+    }
+    
+    /**
+     * Index a note file written by another program; the caller holds its write lock
+     * A note whose title is already indexed to another file is left out of the indexes.
+     * @param fileName File path of the note
+     * @throws IOException if the note cannot be read or indexed
+     */
+    private static void adoptChangedNote(String fileName) throws IOException {
+        byte[] data = storage.read(fileName);
+        Note note = NoteCodec.decode(data);
+        String indexed = notesIndex.get(note.getTitle());
+        if (indexed != null && !indexed.equals(fileName)) {
+            logger.warning("Note file " + fileName + " has the title of " + indexed + ", not indexed: " + note.getTitle());
+            forgetDeletedNote(fileName);
+            return;
+        }
+        
+        if (NoteCodec.chunkReferences(data).isEmpty()) {
+            // Rewritten as plain text, so the chunks of the previous body are no longer used
+            chunkStore.replaceReferences(fileName, Collections.emptyList());
+        }
+        statistics.recordSave(fileName, note);
+        if (orderIndex.isTracking()) {
+            orderIndex.record(NoteHeader.of(fileName, note, data.length));
+        }
+        searchIndex.indexNote(fileName, note, false);
+        // A changed title replaces the one the file had
+        for (String title : notesIndex.titlesOf(fileName)) {
+            if (!title.equals(note.getTitle())) {
+                notesIndex.remove(title);
+            }
+        }
+        notesIndex.put(note.getTitle(), fileName);
+    }
+    
+    /**
+     * Drop a note file deleted by another program; the caller holds its write lock
+     * @param fileName File path of the note
+     * @throws IOException if the notes index cannot be updated
+     */
+    private static void forgetDeletedNote(String fileName) throws IOException {
+        chunkStore.replaceReferences(fileName, Collections.emptyList());
+        statistics.recordDelete(fileName);
+        orderIndex.remove(fileName);
+        searchIndex.removeNote(fileName);
+        for (String title : notesIndex.titlesOf(fileName)) {
+            notesIndex.remove(title);
+        }
+    }
+    
+    /**
+     * Tell the change feed about a write or delete of our own, so it is not applied again
+     * The caller holds the note's write lock.
+     * @param fileName File path of the note
+     */
+    private static void recordOwnChange(String fileName) {
+        NoteWatcher watcher = noteWatcher;
+        if (watcher != null) {
+            watcher.recordOwnChange(fileName);
+        }
+    }
+    
+    /**
+     * Save a note through the storage backend (demonstrates append vs overwrite)
+     * With notes.writeBehind=true the save is queued and committed with others in a group;
+     * use saveNoteAsync() to learn when it has met the notes.durability policy.
      * @param note The note to save
      * @param append Whether to append to existing file or overwrite
      * @return true if successful, false otherwise
      */
     public static boolean saveNote(Note note, boolean append) {
-        String fileName = NOTES_DIRECTORY + "/" + sanitizeFileName(note.getTitle()) + ".txt";
-        
-        // Try-with-resources for automatic resource management
-        try (FileWriter writer = new FileWriter(fileName, append);
-             BufferedWriter bufferedWriter = new BufferedWriter(writer)) {
-            
-            if (append) {
-                bufferedWriter.write("\n=== APPENDED CONTENT ===\n");
-                bufferedWriter.write("Appended at: " + LocalDateTime.now().format(
-                    DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss")) + "\n");
+        long start = metrics.start();
+        try {
+            if (WRITE_BEHIND) {
+                // Only durability none may report a save that has not been committed yet
+                CompletableFuture<Boolean> saved = saveNoteAsync(note, append);
+                if (DURABILITY == Durability.NONE) {
+                    return true;
+                }
+                boolean committed = saved.join();
+                if (!committed) {
+                    metrics.recordError(NoteMetrics.Operation.SAVE);
+                }
+                return committed;
             }
+            String fileName = fileNameFor(note.getTitle());
+            Lock lock = noteLocks.writeLock(fileName);
             
-            bufferedWriter.write(note.toFileFormat());
-            bufferedWriter.flush(); // Ensure data is written to file
+            try {
+                lock.lock();
+                try {
+                    notesIndex.logWriteIntents(Collections.singletonMap(note.getTitle(), fileName),
+                        DURABILITY == Durability.FSYNC);
+                    writeNote(fileName, note, append);
+                    
+                    // Update index file under the note's lock, so a racing delete cannot leave it behind
+                    updateNotesIndex(Collections.singletonMap(note.getTitle(), fileName));
+                } finally {
+                    lock.unlock();
+                }
+                if (DURABILITY == Durability.FSYNC) {
+                    storage.sync(Collections.singletonList(fileName));
+                }
+                
+                logger.info("Note saved successfully: " + fileName + " (append: " + append + ")");
+                return true;
+                
+            } catch (IOException e) {
+                // Exception handling and logging
+                metrics.recordError(NoteMetrics.Operation.SAVE);
+                String errorMsg = "Failed to save note: " + note.getTitle() + " - " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                e.printStackTrace(); // Print stack trace
+                return false;
+            }
+        } finally {
+            metrics.record(NoteMetrics.Operation.SAVE, start);
+        }
+    }
+    
+    /**
+     * Save a note only if nobody saved or appended to it since it was read
+     * The note's version must still be the stored version; on success the note takes the new
+     * version, so it can be edited and saved the same way again. A note that was never saved
+     * has version 0 and is only saved if its title is not taken yet.
+     * @param note The note as read and then edited
+     * @return true if saved; false if the note changed in the meantime or the save failed
+     */
+    public static boolean saveNoteIfUnchanged(Note note) {
+        long start = metrics.start();
+        try {
+            // Queued saves change the version, so they must land before the comparison
+            flushWrites();
+            String fileName = fileNameFor(note.getTitle());
+            Lock lock = noteLocks.writeLock(fileName);
             
-            // Update index file
-            updateNotesIndex(note.getTitle(), fileName);
+            lock.lock();
+            try {
+                long stored = storedVersion(fileName);
+                if (stored != note.getVersion()) {
+                    logger.info("Note changed since it was read: " + fileName + " (version " + note.getVersion() +
+                        ", stored " + stored + ")");
+                    return false;
+                }
+                notesIndex.logWriteIntents(Collections.singletonMap(note.getTitle(), fileName),
+                    DURABILITY == Durability.FSYNC);
+                writeNote(fileName, note, false);
+                updateNotesIndex(Collections.singletonMap(note.getTitle(), fileName));
+            } catch (IOException e) {
+                metrics.recordError(NoteMetrics.Operation.SAVE);
+                String errorMsg = "Failed to save note: " + note.getTitle() + " - " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                return false;
+            } finally {
+                lock.unlock();
+            }
             
-            logger.info("Note saved successfully: " + fileName + " (append: " + append + ")");
+            if (DURABILITY == Durability.FSYNC) {
+                try {
+                    storage.sync(Collections.singletonList(fileName));
+                } catch (IOException e) {
+                    logger.warning("Failed to sync note: " + fileName + " - " + e.getMessage());
+                }
+            }
+            logger.info("Note saved successfully: " + fileName + " (version " + note.getVersion() + ")");
             return true;
-            
+        } finally {
+            metrics.record(NoteMetrics.Operation.SAVE, start);
+        }
+    }
+    
+    /**
+     * Queue a save for the write-behind thread
+     * The future completes once the save meets the notes.durability policy: none completes
+     * immediately, flush after the batch reached the operating system, fsync after it was
+     * forced to disk.
+     * @param note The note to save
+     * @param append Whether to append to existing file or overwrite
+     * @return Completes with true if the save was committed
+     */
+    public static CompletableFuture<Boolean> saveNoteAsync(Note note, boolean append) {
+        String fileName = fileNameFor(note.getTitle());
+        return writeBehindQueue().submit(fileName, note, append);
+    }
+    
+    /**
+     * Wait until every queued save has been committed
+     */
+    public static void flushWrites() {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null) {
+            queue.flush();
+        }
+    }
+    
+    /**
+     * Commit every queued save and stop the write-behind thread
+     * Runs at exit from a shutdown hook as well, so queued saves are not lost when main returns.
+     */
+    public static void closeWrites() {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null) {
+            queue.close();
+        }
+    }
+    
+    private static synchronized WriteBehindQueue writeBehindQueue() {
+        if (writeBehindQueue == null) {
+            WriteBehindQueue queue = new WriteBehindQueue(DURABILITY,
+                Long.getLong("notes.writeBehind.lingerMillis", 2L),
+                Integer.getInteger("notes.writeBehind.maxPending", 10_000));
+            Runtime.getRuntime().addShutdownHook(new Thread(queue::close, "notes-write-behind-shutdown"));
+            writeBehindQueue = queue;
+        }
+        return writeBehindQueue;
+    }
+    
+    /**
+     * Commit a batch taken from the write-behind queue
+     * Notes are written one by one, then the notes index gets one record write for the whole
+     * batch and, for the fsync policy, storage is forced once. The batch's note locks are held
+     * until the index is updated.
+     * @param batch Coalesced saves, one per note
+     * @param durability Durability policy of the queue
+     */
+    static void commitBatch(List<WriteBehindQueue.PendingWrite> batch, Durability durability) {
+        Map<String, String> indexUpdates = new LinkedHashMap<>();
+        Map<String, String> intents = new LinkedHashMap<>();
+        List<String> written = new ArrayList<>();
+        List<String> keys = new ArrayList<>(batch.size());
+        for (WriteBehindQueue.PendingWrite write : batch) {
+            keys.add(write.fileName);
+            intents.put(write.title, write.fileName);
+        }
+        
+        List<Lock> locks = noteLocks.lockAll(keys);
+        try {
+            notesIndex.logWriteIntents(intents, durability == Durability.FSYNC);
         } catch (IOException e) {
-            // Exception handling and logging
-            String errorMsg = "Failed to save note: " + note.getTitle() + " - " + e.getMessage();
+            NoteLocks.unlockAll(locks);
+            for (WriteBehindQueue.PendingWrite write : batch) {
+                write.failed = true;
+            }
+            String errorMsg = "Failed to commit write-behind batch: " + e.getMessage();
             logger.severe(errorMsg);
             System.err.println(errorMsg);
-            e.printStackTrace(); // Print stack trace
-            return false;
+            return;
+        }
+        searchIndex.beginBatch();
+        try {
+            for (WriteBehindQueue.PendingWrite write : batch) {
+                try {
+                    if (write.base != null) {
+                        writeNote(write.fileName, write.base, false);
+                    }
+                    for (Note append : write.appends) {
+                        writeNote(write.fileName, append, true);
+                    }
+                    indexUpdates.put(write.title, write.fileName);
+                    written.add(write.fileName);
+                } catch (IOException e) {
+                    write.failed = true;
+                    metrics.recordError(NoteMetrics.Operation.SAVE);
+                    String errorMsg = "Failed to save note: " + write.title + " - " + e.getMessage();
+                    logger.severe(errorMsg);
+                    System.err.println(errorMsg);
+                }
+            }
+        } finally {
+            searchIndex.endBatch();
+        }
+        
+        try {
+            try {
+                notesIndex.putAll(indexUpdates, durability == Durability.FSYNC);
+            } finally {
+                NoteLocks.unlockAll(locks);
+            }
+            if (durability == Durability.FSYNC) {
+                storage.sync(written);
+            }
+            logger.info("Write-behind batch committed: " + written.size() + " notes");
+        } catch (IOException e) {
+            for (WriteBehindQueue.PendingWrite write : batch) {
+                write.failed = true;
+            }
+            String errorMsg = "Failed to commit write-behind batch: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+        }
+    }
+    
+    /**
+     * Write a batch of imported notes with one notes index update
+     * A note replaces a stored note with the same title only if it is newer. The batch's
+     * note locks are held until the index is updated and, for the fsync policy, storage is
+     * forced once for the whole batch.
+     * @param notes Notes to import, at most one per title
+     * @return Number of notes imported, skipped and failed
+     */
+    static NoteImporter.BatchResult importBatch(List<Note> notes) {
+        NoteImporter.BatchResult result = new NoteImporter.BatchResult();
+        Map<String, Note> byFile = new LinkedHashMap<>();
+        Map<String, String> intents = new LinkedHashMap<>();
+        for (Note note : notes) {
+            String fileName = fileNameFor(note.getTitle());
+            byFile.put(fileName, note);
+            intents.put(note.getTitle(), fileName);
+        }
+        Map<String, String> indexUpdates = new LinkedHashMap<>();
+        List<String> written = new ArrayList<>();
+        
+        List<Lock> locks = noteLocks.lockAll(byFile.keySet());
+        try {
+            notesIndex.logWriteIntents(intents, DURABILITY == Durability.FSYNC);
+        } catch (IOException e) {
+            NoteLocks.unlockAll(locks);
+            result.failed = notes.size();
+            String errorMsg = "Failed to import batch: " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+            return result;
+        }
+        try {
+            searchIndex.beginBatch();
+            try {
+                for (Map.Entry<String, Note> entry : byFile.entrySet()) {
+                    Note note = entry.getValue();
+                    try {
+                        LocalDateTime stored = storedModifiedAt(entry.getKey());
+                        if (stored != null && !stored.isBefore(note.getModifiedAt())) {
+                            result.skipped++;
+                            continue;
+                        }
+                        writeNote(entry.getKey(), note, false);
+                        indexUpdates.put(note.getTitle(), entry.getKey());
+                        written.add(entry.getKey());
+                    } catch (IOException e) {
+                        result.failed++;
+                        String errorMsg = "Failed to import note: " + note.getTitle() + " - " + e.getMessage();
+                        logger.severe(errorMsg);
+                        System.err.println(errorMsg);
+                    }
+                }
+            } finally {
+                searchIndex.endBatch();
+            }
+            notesIndex.putAll(indexUpdates, DURABILITY == Durability.FSYNC);
+        } catch (IOException e) {
+            // The notes are stored but not indexed; their open intents index them at next startup
+            logger.warning("Failed to update notes index: " + e.getMessage());
+        } finally {
+            NoteLocks.unlockAll(locks);
+        }
+        
+        if (DURABILITY == Durability.FSYNC) {
+            try {
+                storage.sync(written);
+            } catch (IOException e) {
+                logger.warning("Failed to sync imported notes: " + e.getMessage());
+            }
+        }
+        result.imported = written.size();
+        return result;
+    }
+    
+    /**
+     * Write a note and update the cache, statistics and search index (not the notes index)
+     * The caller holds the note's write lock. A rewrite gives the note the next version.
+     * @param fileName File path of the note
+     * @param note The note to write
+     * @param append Whether to append to the stored note
+     * @throws IOException if the note cannot be written
+     */
+    private static void writeNote(String fileName, Note note, boolean append) throws IOException {
+        if (append && storage.exists(fileName)) {
+            appendToStoredNote(fileName, note);
+            orderIndex.invalidate(fileName);
+        } else {
+            note.setVersion(storedVersion(fileName) + 1);
+            writeEncoded(fileName, note);
+            noteCache.put(fileName, note);
+            statistics.recordSave(fileName, note);
+            if (orderIndex.isTracking()) {
+                orderIndex.record(NoteHeader.of(fileName, note, storage.size(fileName)));
+            }
+        }
+        searchIndex.indexNote(fileName, note, append);
+    }
+    
+    /**
+     * Encode and store a whole note, then move the file's chunk references to the new body
+     * The caller holds the note's write lock.
+     * @param fileName File path of the note
+     * @param note The note to write
+     * @throws IOException if the note cannot be written
+     */
+    private static void writeEncoded(String fileName, Note note) throws IOException {
+        byte[] data = NoteCodec.encode(note);
+        List<ChunkStore.ChunkRef> chunks = NoteCodec.chunkReferences(data);
+        try {
+            chunkStore.logPending(fileName, chunks);
+            storage.write(fileName, data);
+        } catch (IOException e) {
+            chunkStore.abandon(fileName, chunks);
+            throw e;
+        }
+        recordOwnChange(fileName);
+        chunkStore.replaceReferences(fileName, chunks);
+    }
+    
+    /**
+     * Append a note's content to the stored note as a delta record
+     * Only the record is written; the note is rewritten once its deltas cross
+     * notes.append.maxDeltas records or notes.append.maxChars characters.
+     * @param fileName File path of the stored note
+     * @param note Note holding the text to append
+     * @throws IOException if the record cannot be written
+     */
+    private static void appendToStoredNote(String fileName, Note note) throws IOException {
+        // Must be looked up before our own append changes the stored size
+        Note current = noteCache.get(fileName);
+        LocalDateTime appendedAt = LocalDateTime.now();
+        storage.append(fileName, NoteCodec.encodeAppend(note.getContent(), appendedAt));
+        recordOwnChange(fileName);
+        
+        if (current == null) {
+            noteCache.remove(fileName);
+            statistics.recordChange(fileName);
+            return;
+        }
+        
+        current.addAppend(note.getContent(), appendedAt);
+        if (needsCompaction(current)) {
+            compactNote(fileName, current);
+        } else {
+            noteCache.put(fileName, current);
+            statistics.recordSave(fileName, current);
         }
     }
     
+    private static boolean needsCompaction(Note note) {
+        return note.getAppendCount() >= MAX_APPEND_DELTAS || note.getAppendedLength() >= MAX_APPEND_CHARS;
+    }
+    
+    /**
+     * Rewrite a note with its appends merged into the content
+     * @param fileName File path of the stored note
+     * @param note The note including its appends
+     * @throws IOException if the note cannot be written
+     */
+    private static void compactNote(String fileName, Note note) throws IOException {
+        Note merged = new Note(note.getTitle(), note.getContent(), note.getCreatedAt(), note.getModifiedAt());
+        merged.setVersion(note.getVersion());
+        writeEncoded(fileName, merged);
+        noteCache.put(fileName, merged);
+        statistics.recordSave(fileName, merged);
+        logger.info("Note compacted after " + note.getAppendCount() + " appends: " + fileName);
+    }
+    
     /**
-     * Read a note from file using BufferedReader
+     * Read a note from storage
      * @param fileName The file name to read from
      * @return Note object or null if failed
      */
     public static Note readNote(String fileName) {
-        // Try-with-resources for FileReader and BufferedReader
-        try (FileReader fileReader = new FileReader(fileName);
-             BufferedReader bufferedReader = new BufferedReader(fileReader)) {
-            
-            String title = null;
-            LocalDateTime created = null;
-            LocalDateTime modified = null;
-            StringBuilder content = new StringBuilder();
-            String line;
-            boolean readingContent = false;
-            
-            while ((line = bufferedReader.readLine()) != null) {
-                if (line.startsWith("TITLE:")) {
-                    title = line.substring(6); // Remove "TITLE:" prefix
-                } else if (line.startsWith("CREATED:")) {
-                    created = LocalDateTime.parse(line.substring(8),
-                        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss"));
-                } else if (line.startsWith("MODIFIED:")) {
-                    modified = LocalDateTime.parse(line.substring(9),
-                        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss"));
-                } else if (line.equals("CONTENT:")) {
-                    readingContent = true;
-                } else if (line.equals("---END_NOTE---")) {
-                    break;
-                } else if (readingContent) {
-                    content.append(line).append("\n");
-                }
+        long start = metrics.start();
+        try {
+            try {
+                return loadNote(fileName);
+            } catch (FileNotFoundException e) {
+                String errorMsg = "Note file not found: " + fileName;
+                logger.warning(errorMsg);
+                System.err.println(errorMsg);
+                return null;
+            } catch (IOException e) {
+                metrics.recordError(NoteMetrics.Operation.READ);
+                String errorMsg = "Failed to read note: " + fileName + " - " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                e.printStackTrace();
+                return null;
             }
-            
-            if (title != null && created != null && modified != null) {
-                logger.info("Note read successfully: " + fileName);
-                return new Note(title, content.toString().trim(), created, modified);
+        } finally {
+            metrics.record(NoteMetrics.Operation.READ, start);
+        }
+    }
+    
+    /**
+     * Read a note, leaving error reporting to the caller (used by bulk loads)
+     * @param fileName The file name to read from
+     * @return Note object
+     * @throws IOException if the file is missing or not a valid note
+     */
+    static Note loadNote(String fileName) throws IOException {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null) {
+            Note pending = queue.pendingNote(fileName);
+            if (pending != null) {
+                return pending;
+            }
+        }
+        
+        Note cached = noteCache.get(fileName);
+        if (cached != null) {
+            return cached;
+        }
+        
+        Note note;
+        Lock lock = noteLocks.readLock(fileName);
+        lock.lock();
+        try {
+            // Cached under the lock, so a save cannot slip in between and be shadowed by this read
+            note = NoteCodec.decode(storage.read(fileName));
+            if (!needsCompaction(note)) {
+                noteCache.put(fileName, note);
+            }
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Note read successfully: " + fileName);
+        
+        return needsCompaction(note) ? compactStoredNote(fileName, note) : note;
+    }
+    
+    /**
+     * Compact a note whose appends crossed the limits when it was read
+     * The note is read again under the write lock, since it may have changed after the first read.
+     * @param fileName File path of the stored note
+     * @param note The note as first read
+     * @return The note as compacted, or as read if compaction failed
+     */
+    private static Note compactStoredNote(String fileName, Note note) {
+        Lock lock = noteLocks.writeLock(fileName);
+        lock.lock();
+        try {
+            Note current = NoteCodec.decode(storage.read(fileName));
+            if (needsCompaction(current)) {
+                compactNote(fileName, current);
             } else {
-                throw new IOException("Invalid note file format");
+                noteCache.put(fileName, current);
             }
-            
-        } catch (FileNotFoundException e) {
-            String errorMsg = "Note file not found: " + fileName;
-            logger.warning(errorMsg);
-            System.err.println(errorMsg);
-            return null;
+            return current;
         } catch (IOException e) {
-            String errorMsg = "Failed to read note: " + fileName + " - " + e.getMessage();
-            logger.severe(errorMsg);
-            System.err.println(errorMsg);
-            e.printStackTrace();
+            logger.warning("Failed to compact note: " + fileName + " - " + e.getMessage());
+            return note;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Version of the stored note, read without consulting the write-behind queue
+     * The caller holds the note's write lock.
+     * @param fileName File path of the note
+     * @return The stored version, or 0 if there is no stored note
+     * @throws IOException if the stored note cannot be read
+     */
+    private static long storedVersion(String fileName) throws IOException {
+        Note cached = noteCache.get(fileName);
+        if (cached != null) {
+            return cached.getVersion();
+        }
+        if (!storage.exists(fileName)) {
+            return 0;
+        }
+        byte[] prefix = storage.readPrefix(fileName, HEADER_READ_BYTES);
+        NoteHeader header = NoteCodec.decodeHeader(fileName, prefix, prefix.length, storage.size(fileName));
+        return header != null ? header.getVersion() : NoteCodec.decode(storage.read(fileName)).getVersion();
+    }
+    
+    /**
+     * Modification time of the stored note, read without consulting the write-behind queue
+     * The caller holds the note's write lock.
+     * @param fileName File path of the note
+     * @return The stored modification time, or null if there is no stored note
+     * @throws IOException if the stored note cannot be read
+     */
+    private static LocalDateTime storedModifiedAt(String fileName) throws IOException {
+        Note cached = noteCache.get(fileName);
+        if (cached != null) {
+            return cached.getModifiedAt();
+        }
+        if (!storage.exists(fileName)) {
             return null;
         }
+        byte[] prefix = storage.readPrefix(fileName, HEADER_READ_BYTES);
+        NoteHeader header = NoteCodec.decodeHeader(fileName, prefix, prefix.length, storage.size(fileName));
+        return header != null ? header.getModifiedAt() : NoteCodec.decode(storage.read(fileName)).getModifiedAt();
     }
     
     /**
-     * Read all notes using different reading approaches
-     * @return List of all notes
+     * Read only the header of a note: title, timestamps and sizes
+     * Only the first few hundred bytes are read, unless the note has appends or was written
+     * before notes carried their body length; those are read in full.
+     * @param fileName The file name to read from
+     * @return The note header
+     * @throws IOException if the file is missing or not a valid note
      */
-    public static List<Note> readAllNotes() {
-        List<Note> notes = new ArrayList<>();
+    static NoteHeader loadHeader(String fileName) throws IOException {
+        WriteBehindQueue queue = writeBehindQueue;
+        Note known = queue != null ? queue.pendingNote(fileName) : null;
+        if (known == null) {
+            known = noteCache.get(fileName);
+        }
+        if (known != null) {
+            return NoteHeader.of(fileName, known, storage.size(fileName));
+        }
         
-        try (FileReader indexReader = new FileReader(NOTES_INDEX_FILE);
-             BufferedReader bufferedReader = new BufferedReader(indexReader)) {
+        NoteHeader header;
+        Lock lock = noteLocks.readLock(fileName);
+        lock.lock();
+        try {
+            byte[] prefix = storage.readPrefix(fileName, HEADER_READ_BYTES);
+            header = NoteCodec.decodeHeader(fileName, prefix, prefix.length, storage.size(fileName));
+        } finally {
+            lock.unlock();
+        }
+        if (header == null) {
+            header = NoteHeader.of(fileName, loadNote(fileName), storage.size(fileName));
+        }
+        return header;
+    }
+    
+    /**
+     * Read a note header-first; its content is only read on the first getContent()
+     * Bodies larger than notes.lazy.softCapBytes (when set) are held softly and re-read if the
+     * garbage collector drops them.
+     * @param fileName The file name to read from
+     * @return Note whose content is loaded on demand
+     * @throws IOException if the file is missing or its header is not valid
+     */
+    static Note loadNoteLazily(String fileName) throws IOException {
+        return lazyNote(loadHeader(fileName));
+    }
+    
+    private static Note lazyNote(NoteHeader header) {
+        String fileName = header.getFileName();
+        return new Note(header, () -> loadNote(fileName).getContent(), LAZY_SOFT_CAP_BYTES);
+    }
+    
+    /**
+     * Read all notes header-first for listing views, in index order
+     * Listing costs a few hundred bytes of I/O per note whatever the body size.
+     * @return Notes whose content is loaded on demand, and the files that failed
+     */
+    public static NoteLoadResult loadAllNotesLazily() {
+        flushWrites();
+        return NoteLoader.loadAll(notesIndex.fileNames(), FileManager::loadNoteLazily);
+    }
+    
+    /**
+     * Stream all notes in index order, reading each one only when the stream reaches it
+     * Files that cannot be read are logged and skipped.
+     * @return Stream of notes
+     */
+    public static Stream<Note> streamNotes() {
+        flushWrites();
+        return notesIndex.fileNames().stream()
+            .map(FileManager::readNote)
+            .filter(Objects::nonNull);
+    }
+    
+    /**
+     * Stream all notes in a sorted order, one page at a time
+     * Notes are read header-first, so their content is only loaded when asked for.
+     * @param order Sort order
+     * @return Stream of notes
+     */
+    public static Stream<Note> streamNotes(NoteOrderIndex.Order order) {
+        Iterator<Note> iterator = new Iterator<Note>() {
+            private NotePage page = listNotes(order, null, STREAM_PAGE_SIZE);
+            private int position;
             
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    String[] parts = line.split(":");
-                    if (parts.length == 2) {
-                        String fileName = parts[1].trim();
-                        Note note = readNote(fileName);
-                        if (note != null) {
-                            notes.add(note);
-                        }
-                    }
+            @Override
+            public boolean hasNext() {
+                if (position >= page.getNotes().size() && page.hasNext()) {
+                    page = listNotes(order, page.getNextToken(), STREAM_PAGE_SIZE);
+                    position = 0;
                 }
+                return position < page.getNotes().size();
             }
             
-        } catch (FileNotFoundException e) {
-            logger.info("Notes index file not found. No notes exist yet.");
-        } catch (IOException e) {
-            String errorMsg = "Failed to read notes index: " + e.getMessage();
-            logger.severe(errorMsg);
-            System.err.println(errorMsg);
+            @Override
+            public Note next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.getNotes().get(position++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+            Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+    
+    /**
+     * List one page of notes in a sorted order, continuing from a previous page
+     * Pages are taken from an in-memory index of note headers, built on first use; the
+     * notes are read header-first.
+     * @param order Sort order
+     * @param continuationToken Token of the previous page, or null for the first page
+     * @param pageSize Maximum number of notes on the page
+     * @return The page
+     * @throws IllegalArgumentException if the token is not valid for the order
+     */
+    public static NotePage listNotes(NoteOrderIndex.Order order, String continuationToken, int pageSize) {
+        NoteHeader after = continuationToken != null ? NoteOrderIndex.decodeToken(order, continuationToken) : null;
+        return pageOf(order, after, 0, pageSize);
+    }
+    
+    /**
+     * List one page of notes in a sorted order, skipping the first notes
+     * @param order Sort order
+     * @param offset Number of notes to skip
+     * @param pageSize Maximum number of notes on the page
+     * @return The page
+     */
+    public static NotePage listNotes(NoteOrderIndex.Order order, int offset, int pageSize) {
+        return pageOf(order, null, Math.max(0, offset), pageSize);
+    }
+    
+    private static NotePage pageOf(NoteOrderIndex.Order order, NoteHeader after, int offset, int pageSize) {
+        refreshOrderIndex();
+        // One extra header tells whether another page follows
+        List<NoteHeader> headers = orderIndex.page(order, after, offset, Math.max(1, pageSize) + 1);
+        boolean more = headers.size() > pageSize;
+        if (more) {
+            headers = headers.subList(0, pageSize);
+        }
+        
+        List<Note> notes = new ArrayList<>(headers.size());
+        for (NoteHeader header : headers) {
+            notes.add(lazyNote(header));
+        }
+        String nextToken = more && !headers.isEmpty()
+            ? NoteOrderIndex.encodeToken(order, headers.get(headers.size() - 1))
+            : null;
+        return new NotePage(notes, nextToken, orderIndex.size());
+    }
+    
+    /**
+     * Build the order index from note headers on first use, then refresh stale entries
+     */
+    private static void refreshOrderIndex() {
+        flushWrites();
+        // Not the index's own lock: reading headers takes note locks whose writers update the index
+        synchronized (orderIndexBuild) {
+            if (!orderIndex.isBuilt()) {
+                orderIndex.beginBuild();
+                Map<String, String> failures = new LinkedHashMap<>();
+                orderIndex.build(NoteLoader.loadHeaders(notesIndex.fileNames(), failures));
+                for (Map.Entry<String, String> failure : failures.entrySet()) {
+                    logger.warning("Failed to read note header: " + failure.getKey() + " - " + failure.getValue());
+                }
+                logger.info("Order index built for " + orderIndex.size() + " notes");
+            }
         }
         
-        return notes;
+        for (String fileName : orderIndex.drainStale()) {
+            try {
+                orderIndex.record(loadHeader(fileName));
+            } catch (IOException e) {
+                orderIndex.remove(fileName);
+                logger.warning("Failed to read note header: " + fileName + " - " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Read all notes in index order
+     * Files that cannot be read are logged and left out.
+     * @return List of all notes
+     */
+    public static List<Note> readAllNotes() {
+        NoteLoadResult result = loadAllNotes();
+        
+        for (Map.Entry<String, String> failure : result.getFailures().entrySet()) {
+            logger.warning("Failed to read note: " + failure.getKey() + " - " + failure.getValue());
+        }
+        
+        return result.getNotes();
+    }
+    
+    /**
+     * Read all notes in parallel, keeping index order and collecting per-file failures
+     * @return Notes and failures of the load
+     */
+    public static NoteLoadResult loadAllNotes() {
+        long start = metrics.start();
+        try {
+            flushWrites();
+            NoteLoadResult result = NoteLoader.loadAll(notesIndex.fileNames());
+            if (!result.getFailures().isEmpty()) {
+                metrics.recordError(NoteMetrics.Operation.READ_ALL);
+            }
+            return result;
+        } finally {
+            metrics.record(NoteMetrics.Operation.READ_ALL, start);
+        }
     }
     
     /**
@@ -190,69 +1256,90 @@ public class FileManager {
      * @return true if successful, false otherwise
      */
     public static boolean deleteNote(String title) {
-        String fileName = NOTES_DIRECTORY + "/" + sanitizeFileName(title) + ".txt";
-        File file = new File(fileName);
-        
+        long start = metrics.start();
         try {
-            if (file.exists()) {
-                boolean deleted = file.delete();
-                if (deleted) {
+            flushWrites();
+            String fileName = notesIndex.get(title);
+            if (fileName == null) {
+                fileName = unindexedFileName(title);
+            }
+            if (fileName == null) {
+                System.out.println("Note file does not exist: " + title);
+                return false;
+            }
+            
+            Lock lock = noteLocks.writeLock(fileName);
+            lock.lock();
+            try {
+                if (storage.exists(fileName)) {
+                    notesIndex.logDeleteIntent(title, DURABILITY == Durability.FSYNC);
+                    storage.delete(fileName);
+                    recordOwnChange(fileName);
+                    chunkStore.replaceReferences(fileName, Collections.emptyList());
+                    noteCache.remove(fileName);
+                    statistics.recordDelete(fileName);
+                    orderIndex.remove(fileName);
                     removeFromNotesIndex(title);
+                    searchIndex.removeNote(fileName);
                     logger.info("Note deleted successfully: " + fileName);
                     return true;
                 } else {
-                    throw new IOException("Failed to delete file");
+                    System.out.println("Note file does not exist: " + title);
+                    return false;
                 }
-            } else {
-                System.out.println("Note file does not exist: " + title);
+            } catch (Exception e) {
+                metrics.recordError(NoteMetrics.Operation.DELETE);
+                String errorMsg = "Failed to delete note: " + title + " - " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
                 return false;
+            } finally {
+                lock.unlock();
             }
-        } catch (Exception e) {
-            String errorMsg = "Failed to delete note: " + title + " - " + e.getMessage();
-            logger.severe(errorMsg);
-            System.err.println(errorMsg);
-            return false;
+        } finally {
+            metrics.record(NoteMetrics.Operation.DELETE, start);
         }
     }
     
     /**
-     * Update the notes index file
+     * Find a note saved before the index existed by its sanitized file name
+     * Other titles can sanitize to the same name, so the file is only taken if no indexed
+     * title owns it and its own title is the one asked for.
      * @param title Note title
-     * @param fileName File path
+     * @return File path of the note, or null if there is no such note
+     */
+    private static String unindexedFileName(String title) {
+        String fileName = NOTES_DIRECTORY + "/" + sanitizeFileName(title) + ".txt";
+        if (!storage.exists(fileName) || !notesIndex.titlesOf(fileName).isEmpty()) {
+            return null;
+        }
+        try {
+            return title.equals(loadHeader(fileName).getTitle()) ? fileName : null;
+        } catch (IOException e) {
+            logger.warning("Failed to read unindexed note: " + fileName + " - " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Update the notes index
+     * @param updates Note titles and their file paths
      */
-    private static void updateNotesIndex(String title, String fileName) {
-        try (FileWriter writer = new FileWriter(NOTES_INDEX_FILE, true)) {
-            writer.write(title + ":" + fileName + "\n");
+    private static void updateNotesIndex(Map<String, String> updates) {
+        try {
+            notesIndex.putAll(updates, DURABILITY == Durability.FSYNC);
         } catch (IOException e) {
             logger.warning("Failed to update notes index: " + e.getMessage());
         }
     }
     
     /**
-     * Remove note from index file
+     * Remove note from the notes index
      * @param title Note title to remove
      */
     private static void removeFromNotesIndex(String title) {
-        List<String> lines = new ArrayList<>();
-        
-        // Read all lines except the one to remove
-        try (BufferedReader reader = new BufferedReader(new FileReader(NOTES_INDEX_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.startsWith(title + ":")) {
-                    lines.add(line);
-                }
-            }
-        } catch (IOException e) {
-            logger.warning("Failed to read index for removal: " + e.getMessage());
-            return;
-        }
-        
-        // Write back the remaining lines
-        try (FileWriter writer = new FileWriter(NOTES_INDEX_FILE, false)) {
-            for (String line : lines) {
-                writer.write(line + "\n");
-            }
+        try {
+            notesIndex.remove(title);
         } catch (IOException e) {
             logger.warning("Failed to update index after removal: " + e.getMessage());
         }
@@ -264,63 +1351,298 @@ public class FileManager {
      * @return true if successful
      */
     public static boolean exportAllNotes(String exportFileName) {
-        List<Note> notes = readAllNotes();
-        
-        try (FileWriter writer = new FileWriter(NOTES_DIRECTORY + "/" + exportFileName);
-             BufferedWriter bufferedWriter = new BufferedWriter(writer)) {
+        return exportNotes(exportFileName, NoteExporter.Compression.NONE, 0) != null;
+    }
+    
+    /**
+     * Stream notes to an export file, optionally compressed or limited to recent changes
+     * Exports are written to notes/exports, where the change watcher does not look.
+     * @param exportFileName The export file name (the compression extension is added)
+     * @param compression Output compression
+     * @param modifiedSince Only export notes modified at or after this time (epoch millis, 0 for all)
+     * @return Export report, or null if the export failed
+     */
+    public static ExportReport exportNotes(String exportFileName, NoteExporter.Compression compression,
+                                           long modifiedSince) {
+        long start = metrics.start();
+        try {
+            String exportPath = EXPORTS_DIRECTORY + "/" + exportFileName + compression.getExtension();
+            NoteExporter exporter = new NoteExporter(storage, Runtime.getRuntime().availableProcessors());
+            flushWrites();
             
-            bufferedWriter.write("=== NOTES EXPORT ===\n");
-            bufferedWriter.write("Export Date: " + LocalDateTime.now().format(
-                DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss")) + "\n");
-            bufferedWriter.write("Total Notes: " + notes.size() + "\n\n");
+            try {
+                File exportDirectory = new File(EXPORTS_DIRECTORY);
+                if (!exportDirectory.exists() && !exportDirectory.mkdirs()) {
+                    throw new IOException("Cannot create export directory: " + exportDirectory);
+                }
+                ExportReport report = exporter.export(notesIndex.fileNames(), exportPath, compression, modifiedSince);
+                logger.info("Notes exported successfully to: " + exportPath + " - " + report);
+                return report;
+            } catch (IOException e) {
+                metrics.recordError(NoteMetrics.Operation.EXPORT);
+                String errorMsg = "Failed to export notes: " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                return null;
+            }
+        } finally {
+            metrics.record(NoteMetrics.Operation.EXPORT, start);
+        }
+    }
+    
+    /**
+     * Import notes from an export file (plain, gzip or deflate) or a directory of note files
+     * Notes are parsed in parallel, deduplicated by title (the newest copy wins) and written
+     * in batches of notes.import.batchSize, each with one notes index update. A stored note is
+     * only replaced by a newer one.
+     * @param sourcePath Export file or directory to import
+     * @param progress Called with the running report after each batch, or null
+     * @return Import report, or null if the source could not be read
+     */
+    public static ImportReport importNotes(String sourcePath, Consumer<ImportReport> progress) {
+        long start = metrics.start();
+        try {
+            int processors = Runtime.getRuntime().availableProcessors();
+            NoteImporter importer = new NoteImporter(processors,
+                Integer.getInteger("notes.import.batchSize", 1000),
+                Integer.getInteger("notes.import.writers", Math.max(1, processors / 2)));
+            flushWrites();
             
-            for (int i = 0; i < notes.size(); i++) {
-                bufferedWriter.write("NOTE " + (i + 1) + ":\n");
-                bufferedWriter.write(notes.get(i).toFileFormat());
-                bufferedWriter.write("\n");
+            try {
+                ImportReport report = importer.importFrom(new File(sourcePath), progress);
+                logger.info("Notes imported from: " + sourcePath + " - " + report);
+                return report;
+            } catch (IOException e) {
+                metrics.recordError(NoteMetrics.Operation.IMPORT);
+                String errorMsg = "Failed to import notes: " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                return null;
             }
+        } finally {
+            metrics.record(NoteMetrics.Operation.IMPORT, start);
+        }
+    }
+    
+    /**
+     * Search notes using the inverted index
+     * Only the files whose postings match the query are opened.
+     * @param query Words to match (all by default, any across OR groups)
+     * @return List of matching notes, most relevant first
+     */
+    public static List<Note> searchNotes(String query) {
+        long start = metrics.start();
+        try {
+            List<Note> notes = new ArrayList<>();
+            flushWrites();
             
-            logger.info("Notes exported successfully to: " + exportFileName);
-            return true;
+            for (SearchIndex.Match match : searchIndex.rank(query, Integer.MAX_VALUE).getMatches()) {
+                Note note = readIfPresent(match.getFileName());
+                if (note != null) {
+                    notes.add(note);
+                }
+            }
             
-        } catch (IOException e) {
-            String errorMsg = "Failed to export notes: " + e.getMessage();
-            logger.severe(errorMsg);
-            System.err.println(errorMsg);
-            return false;
+            logger.info("Search for '" + query + "' matched " + notes.size() + " notes");
+            return notes;
+        } finally {
+            metrics.record(NoteMetrics.Operation.SEARCH, start);
+        }
+    }
+    
+    /**
+     * Search notes and return the most relevant ones with highlighted excerpts
+     * Matches are ranked with BM25 over title and body, title words counting
+     * notes.search.titleBoost times; only the notes that make the limit are read.
+     * @param query Words to match (all by default, any across OR groups)
+     * @param limit Maximum number of notes to return
+     * @return The best notes, the number of matches and the time taken
+     */
+    public static SearchReport searchRanked(String query, int limit) {
+        long start = metrics.start();
+        long began = System.nanoTime();
+        try {
+            flushWrites();
+            SearchIndex.Ranking ranking = searchIndex.rank(query, limit);
+            List<SearchHit> hits = new ArrayList<>();
+            for (SearchIndex.Match match : ranking.getMatches()) {
+                Note note = readIfPresent(match.getFileName());
+                if (note != null) {
+                    hits.add(new SearchHit(note, match.getScore(),
+                        NoteSnippet.of(note.getContent(), ranking.getTerms(), SNIPPET_CHARS)));
+                }
+            }
+            
+            SearchReport report = new SearchReport(query, hits, ranking.getTotalMatches(), System.nanoTime() - began);
+            logger.info(report.toString());
+            return report;
+        } finally {
+            metrics.record(NoteMetrics.Operation.SEARCH, start);
+        }
+    }
+    
+    /**
+     * Search the stored text of every note for a literal or a regular expression, like grep
+     * For exact phrases, expressions and code, which the word index cannot answer. Every note
+     * is read, on notes.scan.threads threads; files of notes.scan.mapBytes or more are
+     * memory-mapped.
+     * @param pattern Text or expression to find
+     * @param regex Whether the pattern is a regular expression
+     * @param ignoreCase Whether ASCII letters match in either case
+     * @param limit Maximum number of notes to return
+     * @return The first matching notes in index order with the totals, or null if the scan failed
+     * @throws IllegalArgumentException if the pattern is empty or not a valid expression
+     */
+    public static ScanReport scanNotes(String pattern, boolean regex, boolean ignoreCase, int limit) {
+        ByteMatcher matcher = regex ? ByteMatcher.regex(pattern, ignoreCase) : ByteMatcher.literal(pattern, ignoreCase);
+        long start = metrics.start();
+        try {
+            NoteScanner scanner = new NoteScanner(storage.getBackend(), SCAN_THREADS, SCAN_MAP_BYTES, SNIPPET_CHARS);
+            flushWrites();
+            
+            try {
+                ScanReport report = scanner.scan(notesIndex.fileNames(), matcher, pattern, limit);
+                logger.info(report.toString());
+                return report;
+            } catch (IOException e) {
+                metrics.recordError(NoteMetrics.Operation.SCAN);
+                String errorMsg = "Failed to scan notes: " + e.getMessage();
+                logger.severe(errorMsg);
+                System.err.println(errorMsg);
+                return null;
+            }
+        } finally {
+            metrics.record(NoteMetrics.Operation.SCAN, start);
         }
     }
     
     /**
      * Get application statistics
+     * Counters are maintained by saves and deletes; storage is only re-checked when the
+     * last reconciliation is older than notes.stats.reconcileMillis.
      * @return Statistics string
      */
     public static String getAppStatistics() {
-        List<Note> notes = readAllNotes();
-        File notesDir = new File(NOTES_DIRECTORY);
-        File[] files = notesDir.listFiles();
-        int totalFiles = files != null ? files.length : 0;
-        
-        long totalSize = 0;
-        if (files != null) {
-            for (File file : files) {
-                totalSize += file.length();
-            }
+        flushWrites();
+        if (statistics.isStale(STATISTICS_RECONCILE_MILLIS)) {
+            reconcileStatistics();
         }
         
         return "=== App Statistics ===\n" +
-               "Total Notes: " + notes.size() + "\n" +
-               "Total Files: " + totalFiles + "\n" +
-               "Total Storage Used: " + totalSize + " bytes\n" +
+               "Storage Backend: " + storage.getName() + "\n" +
+               statistics.describe() + "\n" +
+               "Total Files: " + storage.fileCount() + "\n" +
+               "Total Storage Used: " + storage.totalBytes() + " bytes\n" +
+               noteCache.getStatistics() + "\n" +
+               compressor.describe() + "\n" +
+               chunkStore.describe() + "\n" +
+               (noteWatcher != null ? noteWatcher.describe() + "\n" : "") +
+               metrics.describe() + "\n" +
                "Notes Directory: " + new File(NOTES_DIRECTORY).getAbsolutePath();
     }
     
+    /**
+     * Latencies, errors and counters of the file operations, as published over JMX
+     * @return The metrics
+     */
+    public static NoteMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Re-check the statistics against storage, re-reading only notes that changed
+     * @return Number of notes that were re-read
+     */
+    public static int reconcileStatistics() {
+        List<String> fileNames = notesIndex.fileNames();
+        if (storage.getBackend() instanceof FileNoteStorage) {
+            ((FileNoteStorage) storage.getBackend()).recount(fileNames);
+        }
+        int reread = statistics.reconcile(fileNames);
+        logger.info("Statistics reconciled, " + reread + " notes re-read");
+        return reread;
+    }
+    
+    /**
+     * File a note with the given title is stored in
+     * Existing titles keep their file; a new title gets a file name that no other title
+     * uses, so titles that sanitize to the same name (such as "a:b" and "a/b") do not collide.
+     * @param title Note title
+     * @return File path of the note
+     */
+    private static String fileNameFor(String title) {
+        return notesIndex.resolveFileName(title, sanitizeFileName(title));
+    }
+    
+    /**
+     * Find a note by its exact title
+     * @param title Note title
+     * @return Note object or null if no note has this title
+     */
+    public static Note findNote(String title) {
+        long start = metrics.start();
+        try {
+            flushWrites();
+            String fileName = notesIndex.get(title);
+            return fileName != null ? readIfPresent(fileName) : null;
+        } finally {
+            metrics.record(NoteMetrics.Operation.READ, start);
+        }
+    }
+    
+    /**
+     * Read a note found through an index, which another thread may have deleted since
+     * @param fileName The file name to read from
+     * @return Note object or null if it is gone or failed to read
+     */
+    private static Note readIfPresent(String fileName) {
+        try {
+            return loadNote(fileName);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            metrics.recordError(NoteMetrics.Operation.READ);
+            String errorMsg = "Failed to read note: " + fileName + " - " + e.getMessage();
+            logger.severe(errorMsg);
+            System.err.println(errorMsg);
+            return null;
+        }
+    }
+    
+    /**
+     * Check whether a note with the exact title exists
+     * @param title Note title
+     * @return true if the title is indexed
+     */
+    public static boolean noteExists(String title) {
+        flushWrites();
+        return notesIndex.get(title) != null;
+    }
+    
+    /**
+     * Suggest titles for what the user typed: titles starting with it, then titles within
+     * one edit (two for inputs longer than four characters), ignoring case
+     * @param input Title as typed
+     * @param limit Maximum number of suggestions
+     * @return Suggested titles, best first
+     */
+    public static List<String> suggestTitles(String input, int limit) {
+        flushWrites();
+        Set<String> suggestions = new LinkedHashSet<>(notesIndex.completeTitle(input, limit));
+        if (suggestions.size() < limit) {
+            int maxEdits = input.length() > 4 ? 2 : 1;
+            suggestions.addAll(notesIndex.findSimilarTitles(input, maxEdits, limit));
+        }
+        List<String> result = new ArrayList<>(suggestions);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+    
     /**
      * Sanitize file name to remove invalid characters
      * @param fileName Original file name
      * @return Sanitized file name
      */
     private static String sanitizeFileName(String fileName) {
-        return fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
+        return UNSAFE_FILE_NAME_CHARS.matcher(fileName).replaceAll("_");
     }
 }
\ No newline at end of file
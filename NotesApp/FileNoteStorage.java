@@ -0,0 +1,177 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default storage backend: one file per note, named by its key
+ * A note is rewritten by writing a temporary file and moving it over the old one, so a
+ * crash leaves either the old or the new note, never a truncated one. Temporary files live
+ * in their own directory, which is emptied when the storage is opened.
+ * The file count and byte total cover the keys written through this storage. Writes, appends
+ * and deletes adjust them by the one file they touch; recount() sets them from a full list
+ * of keys.
+ */
+public class FileNoteStorage implements NoteStorage {
+    private static final String TEMP_DIRECTORY = ".tmp";
+
+    private final String directory;
+    private final File tempDirectory;
+    private final AtomicInteger fileCount = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public FileNoteStorage(String directory) {
+        this.directory = directory;
+        this.tempDirectory = new File(directory, TEMP_DIRECTORY);
+        deleteTemporaryFiles();
+    }
+
+    @Override
+    public void write(String key, byte[] data) throws IOException {
+        // Keys are unique within the directory and writers of a key hold its lock
+        Path temp = new File(tempDirectory, new File(key).getName()).toPath();
+        if (!tempDirectory.exists() && !tempDirectory.mkdirs()) {
+            throw new IOException("Cannot create directory: " + tempDirectory);
+        }
+        try (FileOutputStream out = new FileOutputStream(temp.toFile(), false)) {
+            out.write(data);
+        }
+        File target = new File(key);
+        boolean existed = target.exists();
+        long previousSize = target.length();
+        Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (!existed) {
+            fileCount.incrementAndGet();
+        }
+        totalBytes.addAndGet(data.length - previousSize);
+    }
+
+    @Override
+    public void append(String key, byte[] data) throws IOException {
+        if (!exists(key)) {
+            fileCount.incrementAndGet();
+        }
+        try (FileOutputStream out = new FileOutputStream(key, true)) {
+            out.write(data);
+        }
+        totalBytes.addAndGet(data.length);
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        try (FileInputStream in = new FileInputStream(key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Override
+    public byte[] readPrefix(String key, int maxBytes) throws IOException {
+        try (FileInputStream in = new FileInputStream(key)) {
+            return in.readNBytes(maxBytes);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        File file = new File(key);
+        if (!file.exists()) {
+            return false;
+        }
+        long size = file.length();
+        if (!file.delete()) {
+            throw new IOException("Failed to delete file");
+        }
+        fileCount.decrementAndGet();
+        totalBytes.addAndGet(-size);
+        return true;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return new File(key).exists();
+    }
+
+    @Override
+    public void sync(Collection<String> keys) throws IOException {
+        for (String key : keys) {
+            if (!exists(key)) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(key), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        // Renames and deletes are only durable once the directory itself is forced
+        try (FileChannel channel = FileChannel.open(Paths.get(directory), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory; their file systems order this themselves
+        }
+    }
+
+    @Override
+    public long lastModified(String key) {
+        return new File(key).lastModified();
+    }
+
+    @Override
+    public long size(String key) {
+        return new File(key).length();
+    }
+
+    @Override
+    public int fileCount() {
+        return fileCount.get();
+    }
+
+    @Override
+    public long totalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Set the file count and byte total from the keys that hold notes
+     * Only called on reconciliation, so other files in the directory (indexes, exports)
+     * are never counted.
+     * @param keys Storage keys of all notes
+     */
+    public void recount(Collection<String> keys) {
+        int count = 0;
+        long bytes = 0;
+        for (String key : keys) {
+            File file = new File(key);
+            if (file.exists()) {
+                count++;
+                bytes += file.length();
+            }
+        }
+        fileCount.set(count);
+        totalBytes.set(bytes);
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    /**
+     * Remove temporary files left by writes a crash interrupted; their notes were not replaced
+     */
+    private void deleteTemporaryFiles() {
+        File[] files = tempDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                System.err.println("Failed to delete temporary file: " + file);
+            }
+        }
+    }
+}
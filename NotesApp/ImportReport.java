@@ -0,0 +1,116 @@
+/**
+ * Summary of a bulk import: how many notes were read, written or dropped, and how fast
+ */
+public class ImportReport {
+    private final String sourcePath;
+    private int notesRead;
+    private int notesImported;
+    private int duplicates;
+    private int notesSkipped;
+    private int notesFailed;
+    private int batches;
+    private long bytesRead;
+    private long elapsedNanos;
+    private final long startNanos = System.nanoTime();
+
+    public ImportReport(String sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    void addParsed(int read, int failed, long bytes) {
+        notesRead += read;
+        notesFailed += failed;
+        bytesRead += bytes;
+    }
+
+    void addDuplicate() {
+        duplicates++;
+    }
+
+    void addBatch(int imported, int skipped, int failed) {
+        notesImported += imported;
+        notesSkipped += skipped;
+        notesFailed += failed;
+        batches++;
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * Notes parsed from the source, including duplicates
+     */
+    public int getNotesRead() {
+        return notesRead;
+    }
+
+    public int getNotesImported() {
+        return notesImported;
+    }
+
+    /**
+     * Notes dropped because the source holds a newer note with the same title
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Notes not written because the store already holds a copy at least as new
+     */
+    public int getNotesSkipped() {
+        return notesSkipped;
+    }
+
+    public int getNotesFailed() {
+        return notesFailed;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Time taken so far, or in total once the import has finished
+     */
+    public long getElapsedMillis() {
+        return (elapsedNanos > 0 ? elapsedNanos : System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Rate at which notes were written
+     * @return Throughput in notes per second
+     */
+    public double getNotesPerSecond() {
+        long millis = getElapsedMillis();
+        return millis == 0 ? 0 : notesImported * 1000.0 / millis;
+    }
+
+    /**
+     * Rate at which the (uncompressed) source was parsed
+     * @return Throughput in MB/s
+     */
+    public double getThroughputMBps() {
+        long millis = getElapsedMillis();
+        return millis == 0 ? 0 : (bytesRead / (1024.0 * 1024.0)) / (millis / 1000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "Imported " + notesImported + " of " + notesRead + " note(s)" +
+               (duplicates > 0 ? ", " + duplicates + " duplicate(s)" : "") +
+               (notesSkipped > 0 ? ", " + notesSkipped + " already up to date" : "") +
+               (notesFailed > 0 ? ", " + notesFailed + " failed" : "") +
+               " in " + getElapsedMillis() + " ms (" + batches + " batches): " +
+               String.format("%.0f notes/s, %.2f MB/s", getNotesPerSecond(), getThroughputMBps());
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Latency histogram with log-linear buckets, in the style of HdrHistogram
+ * Each power of two is split into 32 linear sub-buckets, so a recorded value is known to
+ * within about 3% from a nanosecond up to about 18 minutes. Recording is a few shifts and
+ * one atomic add. Like a LongAdder, the counts are striped: each thread adds to the stripe
+ * its id picks (one per processor, up to four), so threads recording the same latency
+ * rarely share a cache line, while a record stays a single array access rather than a chain
+ * of objects. Count and mean are worked out from the buckets when a snapshot is taken, as
+ * HdrHistogram does, to keep recording to one add.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below twice the sub-bucket count are counted exactly
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = LINEAR_LIMIT + (MAX_MAGNITUDE - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+    private static final int STRIPES = Integer.highestOneBit(Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // Stripe s holds its counts at [s * BUCKETS, (s + 1) * BUCKETS)
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Counts of a histogram at one moment
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long max) {
+            long sum = 0;
+            long values = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += counts[i];
+                // Each value counts as the middle of its bucket
+                values += counts[i] * ((lowestValue(i) + highestValue(i)) / 2);
+            }
+            this.counts = counts;
+            this.count = sum;
+            this.total = values;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : Math.min(max, total / count);
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Value at a percentile: the highest value of the bucket holding that rank
+         * @param fraction Percentile as a fraction, for example 0.999
+         * @return The value, or 0 if nothing was recorded
+         */
+        public long valueAt(double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, highestValue(i));
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Record one value
+     * @param nanos Latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counts.getAndIncrement(stripe * BUCKETS + bucketIndex(value));
+        if (value > max.get()) {
+            max.accumulate(value);
+        }
+    }
+
+    /**
+     * Number of values recorded, without copying the buckets
+     * @return value count
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Copy the counts; values recorded meanwhile may or may not be included
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        for (int i = 0; i < counts.length(); i++) {
+            merged[i % BUCKETS] += counts.get(i);
+        }
+        return new Snapshot(merged, max.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude >= MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return subBucket << shift;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
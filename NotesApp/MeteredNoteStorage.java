@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Storage wrapper that counts the bytes read from and written to the backend
+ */
+public class MeteredNoteStorage implements NoteStorage {
+    private final NoteStorage backend;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public MeteredNoteStorage(NoteStorage backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * The wrapped backend
+     */
+    public NoteStorage getBackend() {
+        return backend;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public void write(String key, byte[] data) throws IOException {
+        backend.write(key, data);
+        bytesWritten.add(data.length);
+    }
+
+    @Override
+    public void append(String key, byte[] data) throws IOException {
+        backend.append(key, data);
+        bytesWritten.add(data.length);
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        byte[] data = backend.read(key);
+        bytesRead.add(data.length);
+        return data;
+    }
+
+    @Override
+    public byte[] readPrefix(String key, int maxBytes) throws IOException {
+        byte[] data = backend.readPrefix(key, maxBytes);
+        bytesRead.add(data.length);
+        return data;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return backend.delete(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return backend.exists(key);
+    }
+
+    @Override
+    public void sync(Collection<String> keys) throws IOException {
+        backend.sync(keys);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        return backend.lastModified(key);
+    }
+
+    @Override
+    public long size(String key) {
+        return backend.size(key);
+    }
+
+    @Override
+    public int fileCount() {
+        return backend.fileCount();
+    }
+
+    @Override
+    public long totalBytes() {
+        return backend.totalBytes();
+    }
+
+    @Override
+    public String getName() {
+        return backend.getName();
+    }
+}
@@ -1,14 +1,40 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a single note with title, content, and timestamp
  */
 public class Note {
+    // Formatters are immutable and thread-safe, so one instance serves every note
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+    
     private String title;
     private String content;
     private LocalDateTime createdAt;
     private LocalDateTime modifiedAt;
+    // Appended text not yet merged into content; merged on the first getContent()
+    private List<String> pendingAppends;
+    private int appendCount;
+    private long appendedLength;
+    // Set for notes read header-first; the content is loaded on the first getContent()
+    private ContentSource contentSource;
+    // Bodies over the soft cap are held softly, so the GC may drop them and they are loaded again
+    private boolean softlyHeld;
+    private SoftReference<String> softContent;
+    // Bumped by every save and append; optimistic saves compare it with the stored version
+    private long version;
+    
+    /**
+     * Loads the content of a note read header-first
+     */
+    interface ContentSource {
+        String load() throws IOException;
+    }
     
     // Constructor for new note
     public Note(String title, String content) {
@@ -26,15 +52,79 @@ public class Note {
         this.modifiedAt = modifiedAt;
     }
     
+    // Constructor for a note read header-first; bodies larger than softCapBytes (if > 0) are held softly
+    Note(NoteHeader header, ContentSource contentSource, long softCapBytes) {
+        this.title = header.getTitle();
+        this.createdAt = header.getCreatedAt();
+        this.modifiedAt = header.getModifiedAt();
+        this.version = header.getVersion();
+        this.contentSource = contentSource;
+        this.softlyHeld = softCapBytes > 0 && header.getContentLength() > softCapBytes;
+    }
+    
+    // Copy constructor, keeps the append bookkeeping
+    Note(Note other) {
+        this.title = other.title;
+        this.content = other.getContent();
+        this.createdAt = other.createdAt;
+        this.modifiedAt = other.modifiedAt;
+        this.appendCount = other.appendCount;
+        this.appendedLength = other.appendedLength;
+        this.version = other.version;
+    }
+    
     // Getters
     public String getTitle() {
         return title;
     }
     
+    /**
+     * Get the content, loading it first if the note was read header-first
+     * @return The content
+     * @throws UncheckedIOException if the content of a header-first note cannot be read
+     */
     public String getContent() {
+        if (contentSource != null) {
+            return loadContent();
+        }
+        if (pendingAppends != null) {
+            StringBuilder merged = new StringBuilder(content);
+            for (String text : pendingAppends) {
+                if (merged.length() > 0) {
+                    merged.append("\n");
+                }
+                merged.append(text);
+            }
+            content = merged.toString();
+            pendingAppends = null;
+        }
         return content;
     }
     
+    private String loadContent() {
+        String loaded = softContent != null ? softContent.get() : null;
+        if (loaded != null) {
+            return loaded;
+        }
+        try {
+            loaded = contentSource.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load content of note: " + title, e);
+        }
+        if (softlyHeld) {
+            softContent = new SoftReference<>(loaded);
+        } else {
+            content = loaded;
+            contentSource = null;
+        }
+        return loaded;
+    }
+    
+    // Whether the content is held in memory (always true for notes not read header-first)
+    boolean isContentLoaded() {
+        return contentSource == null || (softContent != null && softContent.get() != null);
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -43,6 +133,19 @@ public class Note {
         return modifiedAt;
     }
     
+    /**
+     * Version of the note as last read or saved: 0 for a note never saved, then one more
+     * for every save and append
+     * @return The version
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    void setVersion(long version) {
+        this.version = version;
+    }
+    
     // Setters
     public void setTitle(String title) {
         this.title = title;
@@ -51,29 +154,64 @@ public class Note {
     
     public void setContent(String content) {
         this.content = content;
+        this.contentSource = null;
+        this.softContent = null;
+        this.pendingAppends = null;
+        this.appendCount = 0;
+        this.appendedLength = 0;
         this.modifiedAt = LocalDateTime.now();
     }
     
+    /**
+     * Record text appended after the stored note; it is merged into the content lazily
+     * @param text Appended text
+     * @param appendedAt When the text was appended
+     */
+    void addAppend(String text, LocalDateTime appendedAt) {
+        if (contentSource != null) {
+            content = loadContent();
+            contentSource = null;
+            softContent = null;
+        }
+        if (pendingAppends == null) {
+            pendingAppends = new ArrayList<>();
+        }
+        pendingAppends.add(text);
+        appendCount++;
+        appendedLength += text.length();
+        modifiedAt = appendedAt;
+        version++;
+    }
+    
+    // Number of appends stored after the note since it was last rewritten
+    int getAppendCount() {
+        return appendCount;
+    }
+    
+    // Characters appended since the note was last rewritten
+    long getAppendedLength() {
+        return appendedLength;
+    }
+    
     // Method to get formatted creation date
     public String getFormattedCreatedDate() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-        return createdAt.format(formatter);
+        return createdAt.format(DISPLAY_FORMAT);
     }
     
     // Method to get formatted modification date
     public String getFormattedModifiedDate() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-        return modifiedAt.format(formatter);
+        return modifiedAt.format(DISPLAY_FORMAT);
     }
     
     // Method to convert note to file format
     public String toFileFormat() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
-        return "TITLE:" + title + "\n" +
-               "CREATED:" + createdAt.format(formatter) + "\n" +
-               "MODIFIED:" + modifiedAt.format(formatter) + "\n" +
-               "CONTENT:\n" + content + "\n" +
-               "---END_NOTE---\n";
+        String content = getContent();
+        StringBuilder result = new StringBuilder(title.length() + content.length() + 96);
+        result.append("TITLE:").append(title).append("\n");
+        NoteCodec.appendTimestamp(result.append("CREATED:"), createdAt).append("\n");
+        NoteCodec.appendTimestamp(result.append("MODIFIED:"), modifiedAt).append("\n");
+        result.append("CONTENT:\n").append(content).append("\n");
+        return result.append("---END_NOTE---\n").toString();
     }
     
     @Override
@@ -81,6 +219,6 @@ public class Note {
         return "Title: " + title + "\n" +
                "Created: " + getFormattedCreatedDate() + "\n" +
                "Modified: " + getFormattedModifiedDate() + "\n" +
-               "Content: " + content;
+               "Content: " + getContent();
     }
 }
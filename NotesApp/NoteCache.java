@@ -0,0 +1,149 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of parsed notes keyed by file path
+ * Entries remember the stored modification time and size, so a note edited outside
+ * the app is re-read instead of served stale.
+ */
+public class NoteCache {
+    private final NoteStorage storage;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+
+    private static class Entry {
+        final Note note;
+        final long lastModified;
+        final long fileSize;
+        final long weight;
+
+        Entry(Note note, long lastModified, long fileSize) {
+            this.note = note;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            // Strings are stored as UTF-16, plus a rough allowance for object headers
+            this.weight = 2L * (note.getTitle().length() + note.getContent().length()) + 128;
+        }
+    }
+
+    public NoteCache(NoteStorage storage, int maxEntries, long maxBytes) {
+        this.storage = storage;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a cached note if the file has not changed since it was cached
+     * The lock is only held to look up and promote the entry; the file is checked and the
+     * note copied outside it, so lookups never queue behind each other's file system calls.
+     * @param fileName File path of the note
+     * @return A copy of the cached note, or null on a miss
+     */
+    public Note get(String fileName) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(fileName);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (storage.lastModified(fileName) != entry.lastModified || storage.size(fileName) != entry.fileSize) {
+            synchronized (this) {
+                // Unless a fresh entry replaced it meanwhile
+                if (entries.remove(fileName, entry)) {
+                    currentBytes -= entry.weight;
+                }
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copyOf(entry.note);
+    }
+
+    /**
+     * Cache a note read from or written to the given file
+     * @param fileName File path of the note
+     * @param note The parsed note
+     */
+    public void put(String fileName, Note note) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        Entry entry = new Entry(copyOf(note), storage.lastModified(fileName), storage.size(fileName));
+        synchronized (this) {
+            if (entry.weight > maxBytes) {
+                remove(fileName);
+                return;
+            }
+
+            Entry previous = entries.put(fileName, entry);
+            if (previous != null) {
+                currentBytes -= previous.weight;
+            }
+            currentBytes += entry.weight;
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Drop a cached note
+     * @param fileName File path of the note
+     */
+    public synchronized void remove(String fileName) {
+        Entry entry = entries.remove(fileName);
+        if (entry != null) {
+            currentBytes -= entry.weight;
+        }
+    }
+
+    /**
+     * Describe cache usage for the statistics screen
+     * @return Statistics string
+     */
+    public synchronized String getStatistics() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        double hitRate = lookups == 0 ? 0 : 100.0 * hitCount / lookups;
+        return "Note Cache: " + entries.size() + "/" + maxEntries + " notes, " +
+               currentBytes + "/" + maxBytes + " bytes\n" +
+               "Cache Hits: " + hitCount + ", Misses: " + misses.sum() + ", Evictions: " + evictions +
+               String.format(" (hit rate %.1f%%)", hitRate);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            currentBytes -= eldest.weight;
+            evictions++;
+        }
+    }
+
+    // Notes are mutable, so callers never share the cached instance
+    private static Note copyOf(Note note) {
+        return new Note(note);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * A note file that was created, modified or deleted outside the app
+ * Reported by NoteWatcher; one change per file for each burst of edits.
+ */
+public class NoteChange {
+    public enum Kind {
+        CREATED,
+        MODIFIED,
+        DELETED
+    }
+
+    private final Kind kind;
+    private final String fileName;
+
+    public NoteChange(Kind kind, String fileName) {
+        this.kind = kind;
+        this.fileName = fileName;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Storage key of the note, for example "notes/My_Note.txt"
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + fileName;
+    }
+}
@@ -0,0 +1,872 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Byte-level reader and writer for the note file format
+ *
+ *   TITLE:&lt;title&gt;
+ *   CREATED:yyyy-MM-ddTHH:mm:ss
+ *   MODIFIED:yyyy-MM-ddTHH:mm:ss
+ *   VERSION:&lt;save count&gt;
+ *   LENGTH:&lt;body byte length&gt;
+ *   CONTENT:
+ *   &lt;body lines&gt;
+ *   ---END_NOTE---
+ *   APPEND:yyyy-MM-ddTHH:mm:ss:&lt;byte length&gt;
+ *   &lt;appended text&gt;
+ *
+ * Appends are stored as length-prefixed records after the end marker, so appending never
+ * rewrites the note; they are merged into the content when it is first read.
+ * The LENGTH line lets readers find the end of the body without scanning it, and tells a
+ * header-only read whether append records follow. Files without it are still read.
+ * The VERSION line counts saves for optimistic updates; each append record adds one, and
+ * files without it start at version 0.
+ * A compressed body is marked on its content line, CONTENT:deflate;dict=&lt;id&gt;;len=&lt;n&gt;,
+ * where the dictionary is optional and len is the body's length once inflated; LENGTH then
+ * gives the compressed length. A body kept in the chunk store is marked CONTENT:chunks;len=&lt;n&gt;
+ * and stored as one &lt;sha-256&gt;:&lt;length&gt; line per chunk. Plain CONTENT: bodies are read
+ * as before.
+ * Decoding works directly on the stored bytes: header prefixes are compared byte by byte,
+ * timestamps are parsed by hand and the body is decoded as one slice. Encoding writes into
+ * a per-thread buffer that is reused between calls.
+ */
+public class NoteCodec {
+    public static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private static final byte[] TITLE = ascii("TITLE:");
+    private static final byte[] CREATED = ascii("CREATED:");
+    private static final byte[] MODIFIED = ascii("MODIFIED:");
+    private static final byte[] VERSION = ascii("VERSION:");
+    private static final byte[] LENGTH = ascii("LENGTH:");
+    private static final byte[] CONTENT = ascii("CONTENT:");
+    private static final byte[] END_NOTE = ascii("---END_NOTE---");
+    private static final byte[] APPEND = ascii("APPEND:");
+    private static final byte[] LEGACY_APPEND_BANNER = ascii("=== APPENDED CONTENT ===");
+    private static final byte[] DEFLATE = ascii("deflate");
+    private static final byte[] CHUNKS = ascii("chunks");
+    private static final byte[] DICTIONARY_PARAMETER = ascii(";dict=");
+    private static final byte[] LENGTH_PARAMETER = ascii(";len=");
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final int REGION_HEADER_BYTES = 256;
+    // Longer than any append record header or end marker line
+    private static final int RECORD_LINE_BYTES = 64;
+
+    private static final ThreadLocal<EncodeBuffer> encodeBuffers = ThreadLocal.withInitial(EncodeBuffer::new);
+    private static volatile NoteCompressor compressor;
+    private static volatile ChunkStore chunkStore;
+
+    /**
+     * Compress bodies written from now on, and read compressed bodies, with this compressor
+     * @param bodyCompressor The compressor, or null to write plain bodies only
+     */
+    static void setCompressor(NoteCompressor bodyCompressor) {
+        compressor = bodyCompressor;
+    }
+
+    /**
+     * Store large bodies written from now on as chunks, and read chunked bodies, with this store
+     * @param store The chunk store, or null to write whole bodies only
+     */
+    static void setChunkStore(ChunkStore store) {
+        chunkStore = store;
+    }
+
+    /**
+     * Decode a note from its stored bytes
+     * @param data Stored note
+     * @return The note
+     * @throws IOException if the data is not a valid note
+     */
+    public static Note decode(byte[] data) throws IOException {
+        return decode(data, 0, data.length);
+    }
+
+    /**
+     * Decode a note from a slice of a byte array
+     * @param data Buffer holding the note
+     * @param offset Start of the note
+     * @param length Length of the note
+     * @return The note
+     * @throws IOException if the data is not a valid note
+     */
+    public static Note decode(byte[] data, int offset, int length) throws IOException {
+        return decode(data, offset, length, null);
+    }
+
+    /**
+     * Decode a note from a slice of a byte array, accepting notes without timestamps
+     * @param data Buffer holding the note
+     * @param offset Start of the note
+     * @param length Length of the note
+     * @param missingTime Creation and modification time for notes without CREATED: or
+     *                    MODIFIED: lines, or null to reject such notes
+     * @return The note
+     * @throws IOException if the data is not a valid note
+     */
+    static Note decode(byte[] data, int offset, int length, LocalDateTime missingTime) throws IOException {
+        int limit = offset + length;
+        String title = null;
+        LocalDateTime created = null;
+        LocalDateTime modified = null;
+        long version = 0;
+        int bodyLength = -1;
+        int contentStart = -1;
+        BodyEncoding encoding = null;
+        int position = offset;
+
+        // Header lines, in any order, until CONTENT:
+        while (position < limit && contentStart < 0) {
+            int lineEnd = lineEnd(data, position, limit);
+            int next = lineEnd < limit ? lineEnd + 1 : limit;
+            lineEnd = stripCarriageReturn(data, position, lineEnd);
+
+            if (startsWith(data, position, lineEnd, TITLE)) {
+                title = new String(data, position + TITLE.length, lineEnd - position - TITLE.length, StandardCharsets.UTF_8);
+            } else if (startsWith(data, position, lineEnd, CREATED)) {
+                created = parseTimestamp(data, position + CREATED.length, lineEnd);
+            } else if (startsWith(data, position, lineEnd, MODIFIED)) {
+                modified = parseTimestamp(data, position + MODIFIED.length, lineEnd);
+            } else if (startsWith(data, position, lineEnd, VERSION)) {
+                version = Math.max(0, longDigits(data, position + VERSION.length, lineEnd - position - VERSION.length));
+            } else if (startsWith(data, position, lineEnd, LENGTH)) {
+                bodyLength = digits(data, position + LENGTH.length, lineEnd - position - LENGTH.length);
+            } else if (lineEquals(data, position, lineEnd, CONTENT)) {
+                contentStart = next;
+            } else if ((encoding = BodyEncoding.parse(data, position, lineEnd)) != null) {
+                contentStart = next;
+            } else if (lineEquals(data, position, lineEnd, END_NOTE)) {
+                break;
+            }
+            position = next;
+        }
+
+        if (missingTime != null) {
+            created = created != null ? created : missingTime;
+            modified = modified != null ? modified : created;
+        }
+        if (title == null || created == null || modified == null) {
+            throw new IOException("Invalid note file format");
+        }
+
+        String content = "";
+        int end = position;
+        if (encoding != null) {
+            // A compressed or chunked body can only be found through its length
+            if (bodyLength < 0 || !endMarkerAt(data, contentStart + bodyLength, limit)) {
+                throw new IOException("Encoded note body is truncated");
+            }
+            content = encoding.chunked
+                ? assembleBody(data, contentStart, bodyLength, encoding)
+                : inflateBody(data, contentStart, bodyLength, encoding);
+            end = contentStart + bodyLength + END_NOTE.length + 2;
+        } else if (contentStart >= 0 && bodyLength >= 0 && endMarkerAt(data, contentStart + bodyLength, limit)) {
+            content = decodeBody(data, contentStart, contentStart + bodyLength);
+            end = contentStart + bodyLength + END_NOTE.length + 2;
+        } else if (contentStart >= 0) {
+            int contentEnd = findEndMarker(data, contentStart, limit);
+            content = decodeBody(data, contentStart, contentEnd);
+            end = endOfNote(data, contentStart, limit);
+        } else if (position < limit) {
+            end = endOfNote(data, position, limit);
+        }
+
+        Note note = new Note(title, content, created, modified);
+        note.setVersion(version);
+        decodeAppends(note, data, end, limit);
+        return note;
+    }
+
+    /**
+     * Decode only the header lines of a stored note
+     * Returns null when the prefix does not reach the CONTENT: line, when the note has no
+     * LENGTH line (written before it existed) or when append records follow the note, since
+     * appends change the modification time; the caller then reads the whole note instead.
+     * @param fileName Storage key of the note
+     * @param data Leading bytes of the stored note
+     * @param length Number of valid bytes in data
+     * @param storedSize Full stored size of the note
+     * @return The header, or null if it cannot be taken from the prefix alone
+     * @throws IOException if the header lines are not valid
+     */
+    public static NoteHeader decodeHeader(String fileName, byte[] data, int length, long storedSize) throws IOException {
+        String title = null;
+        LocalDateTime created = null;
+        LocalDateTime modified = null;
+        long version = 0;
+        int bodyLength = -1;
+        BodyEncoding encoding = null;
+        int position = 0;
+
+        while (position < length) {
+            int lineEnd = lineEnd(data, position, length);
+            if (lineEnd >= length) {
+                return null;
+            }
+            if (startsWith(data, position, lineEnd, TITLE)) {
+                title = new String(data, position + TITLE.length, lineEnd - position - TITLE.length, StandardCharsets.UTF_8);
+            } else if (startsWith(data, position, lineEnd, CREATED)) {
+                created = parseTimestamp(data, position + CREATED.length, lineEnd);
+            } else if (startsWith(data, position, lineEnd, MODIFIED)) {
+                modified = parseTimestamp(data, position + MODIFIED.length, lineEnd);
+            } else if (startsWith(data, position, lineEnd, VERSION)) {
+                version = Math.max(0, longDigits(data, position + VERSION.length, lineEnd - position - VERSION.length));
+            } else if (startsWith(data, position, lineEnd, LENGTH)) {
+                bodyLength = digits(data, position + LENGTH.length, lineEnd - position - LENGTH.length);
+            } else if (lineEquals(data, position, lineEnd, CONTENT)
+                       || (encoding = BodyEncoding.parse(data, position, lineEnd)) != null) {
+                long noteEnd = lineEnd + 1L + bodyLength + END_NOTE.length + 2;
+                if (title == null || created == null || modified == null || bodyLength < 0 || noteEnd != storedSize) {
+                    return null;
+                }
+                int contentLength = encoding != null ? encoding.rawLength : bodyLength;
+                return new NoteHeader(fileName, title, created, modified, contentLength, storedSize, version);
+            }
+            position = lineEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Encode an append record
+     * @param text Appended text
+     * @param appendedAt When the text was appended
+     * @return Encoded record
+     */
+    public static byte[] encodeAppend(String text, LocalDateTime appendedAt) {
+        EncodeBuffer buffer = encodeBuffers.get();
+        buffer.reset();
+        int headerEnd = buffer.put(APPEND).putTimestamp(appendedAt).put((byte) ':').length;
+        // The length is only known once the text is encoded, so encode it first and shift
+        buffer.putUtf8(text);
+        int textLength = buffer.length - headerEnd;
+        byte[] lengthField = (textLength + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] record = new byte[buffer.length + lengthField.length + 1];
+        System.arraycopy(buffer.bytes, 0, record, 0, headerEnd);
+        System.arraycopy(lengthField, 0, record, headerEnd, lengthField.length);
+        System.arraycopy(buffer.bytes, headerEnd, record, headerEnd + lengthField.length, textLength);
+        record[record.length - 1] = '\n';
+        return record;
+    }
+
+    /**
+     * Read the append records that follow the note
+     * Files written before append records existed carry a banner and a whole second note
+     * block instead; its content is treated as one append.
+     */
+    private static void decodeAppends(Note note, byte[] data, int position, int limit) throws IOException {
+        while (position < limit) {
+            int lineEnd = lineEnd(data, position, limit);
+            int next = lineEnd < limit ? lineEnd + 1 : limit;
+            int contentEnd = stripCarriageReturn(data, position, lineEnd);
+
+            if (startsWith(data, position, contentEnd, APPEND)) {
+                int timestampStart = position + APPEND.length;
+                int lengthStart = timestampStart + 20;
+                int length = lengthStart <= contentEnd && data[lengthStart - 1] == ':'
+                    ? digits(data, lengthStart, contentEnd - lengthStart)
+                    : -1;
+                if (length < 0 || next + length > limit) {
+                    // A record torn by a crash mid-append is dropped rather than failing the note
+                    return;
+                }
+                LocalDateTime appendedAt = parseTimestamp(data, timestampStart, lengthStart - 1);
+                note.addAppend(decodeBody(data, next, next + length), appendedAt);
+                position = next + length + 1;
+            } else if (lineEquals(data, position, contentEnd, LEGACY_APPEND_BANNER)) {
+                int blockEnd = endOfNote(data, next, limit);
+                Note appended = decode(data, next, blockEnd - next);
+                note.addAppend(appended.getContent(), appended.getModifiedAt());
+                position = blockEnd;
+            } else if (contentEnd == position) {
+                position = next;
+            } else {
+                // Trailing text that is not a record is ignored, as before
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encode a note into the stored format
+     * @param note The note
+     * @return Encoded bytes
+     */
+    public static byte[] encode(Note note) {
+        EncodeBuffer buffer = encodeBuffers.get();
+        buffer.reset();
+        buffer.put(TITLE).putUtf8(note.getTitle()).put((byte) '\n');
+        buffer.put(CREATED).putTimestamp(note.getCreatedAt()).put((byte) '\n');
+        buffer.put(MODIFIED).putTimestamp(note.getModifiedAt()).put((byte) '\n');
+        buffer.put(VERSION).putUtf8(Long.toString(note.getVersion())).put((byte) '\n');
+        String content = note.getContent();
+        int contentLength = utf8Length(content);
+        byte[] raw = null;
+        ChunkStore store = chunkStore;
+        if (store != null && store.shouldChunk(contentLength)) {
+            raw = content.getBytes(StandardCharsets.UTF_8);
+            List<ChunkStore.ChunkRef> refs = store.store(raw);
+            if (refs != null) {
+                StringBuilder list = new StringBuilder(refs.size() * 72);
+                for (ChunkStore.ChunkRef ref : refs) {
+                    list.append(list.length() > 0 ? "\n" : "").append(ref);
+                }
+                buffer.put(LENGTH).putUtf8(Integer.toString(list.length())).put((byte) '\n');
+                buffer.put(CONTENT).put(CHUNKS).put(LENGTH_PARAMETER).putUtf8(Integer.toString(raw.length)).put((byte) '\n');
+                buffer.putUtf8(list.toString()).put((byte) '\n');
+                buffer.put(END_NOTE).put((byte) '\n');
+                return buffer.toByteArray();
+            }
+        }
+        
+        NoteCompressor bodyCompressor = compressor;
+        if (bodyCompressor != null && bodyCompressor.shouldCompress(contentLength)) {
+            raw = raw != null ? raw : content.getBytes(StandardCharsets.UTF_8);
+            NoteCompressor.Compressed compressed = bodyCompressor.compress(raw);
+            if (compressed != null) {
+                buffer.put(LENGTH).putUtf8(Integer.toString(compressed.data.length)).put((byte) '\n');
+                buffer.put(CONTENT).put(DEFLATE);
+                if (compressed.dictionaryId != null) {
+                    buffer.put(DICTIONARY_PARAMETER).putUtf8(compressed.dictionaryId);
+                }
+                buffer.put(LENGTH_PARAMETER).putUtf8(Integer.toString(raw.length)).put((byte) '\n');
+                buffer.put(compressed.data).put((byte) '\n');
+            } else {
+                buffer.put(LENGTH).putUtf8(Integer.toString(raw.length)).put((byte) '\n');
+                buffer.put(CONTENT).put((byte) '\n');
+                buffer.put(raw).put((byte) '\n');
+            }
+        } else {
+            if (bodyCompressor != null) {
+                bodyCompressor.recordPlain(contentLength);
+            }
+            buffer.put(LENGTH).putUtf8(Integer.toString(contentLength)).put((byte) '\n');
+            buffer.put(CONTENT).put((byte) '\n');
+            buffer.putUtf8(content).put((byte) '\n');
+        }
+        buffer.put(END_NOTE).put((byte) '\n');
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Chunks referenced by an encoded note, so their references can be recorded
+     * @param data Encoded note, as returned by encode()
+     * @return The body's chunks in order, or an empty list if the body is not chunked
+     * @throws IOException if the chunk list is not valid
+     */
+    static List<ChunkStore.ChunkRef> chunkReferences(byte[] data) throws IOException {
+        int bodyLength = -1;
+        int position = 0;
+        while (position < data.length) {
+            int lineEnd = lineEnd(data, position, data.length);
+            if (startsWith(data, position, lineEnd, LENGTH)) {
+                bodyLength = digits(data, position + LENGTH.length, lineEnd - position - LENGTH.length);
+            } else if (startsWith(data, position, lineEnd, CONTENT)) {
+                BodyEncoding encoding = BodyEncoding.parse(data, position, lineEnd);
+                if (encoding == null || !encoding.chunked || bodyLength < 0) {
+                    return Collections.emptyList();
+                }
+                return parseChunkList(data, lineEnd + 1, bodyLength);
+            }
+            position = lineEnd + 1;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Find the text of a stored note in place: its title, its body and each appended text
+     * Only the header lines and the append record headers are copied out of the buffer, so a
+     * mapped note can be searched without reading its body into the heap. The regions are
+     * not trimmed or CRLF-normalised as decode() does.
+     * @param data Stored note, read with absolute gets from index 0
+     * @param limit Length of the stored note
+     * @return Start and end offsets of each text region, title first, or null if the note has
+     *         to be decoded instead: its body is compressed or chunked, or it was written
+     *         before the LENGTH line or append records existed
+     */
+    static int[] textRegions(ByteBuffer data, int limit) {
+        int prefixLength = Math.min(limit, REGION_HEADER_BYTES);
+        while (true) {
+            byte[] header = new byte[prefixLength];
+            data.get(0, header);
+            int titleStart = -1;
+            int titleEnd = -1;
+            int bodyLength = -1;
+            int position = 0;
+            while (position < prefixLength) {
+                int lineEnd = lineEnd(header, position, prefixLength);
+                if (lineEnd >= prefixLength && prefixLength < limit) {
+                    break;
+                }
+                int contentEnd = stripCarriageReturn(header, position, lineEnd);
+                if (startsWith(header, position, contentEnd, TITLE)) {
+                    titleStart = position + TITLE.length;
+                    titleEnd = contentEnd;
+                } else if (startsWith(header, position, contentEnd, LENGTH)) {
+                    bodyLength = digits(header, position + LENGTH.length, contentEnd - position - LENGTH.length);
+                } else if (lineEquals(header, position, contentEnd, CONTENT)) {
+                    if (titleStart < 0 || bodyLength < 0) {
+                        return null;
+                    }
+                    return bodyRegions(data, limit, new int[] {titleStart, titleEnd}, lineEnd + 1, bodyLength);
+                } else if (startsWith(header, position, contentEnd, CONTENT) || lineEquals(header, position, contentEnd, END_NOTE)) {
+                    return null;
+                }
+                position = lineEnd + 1;
+            }
+            if (prefixLength >= limit) {
+                return null;
+            }
+            // A header line runs past the prefix, most likely a long title
+            prefixLength = (int) Math.min(limit, prefixLength * 2L);
+        }
+    }
+
+    /**
+     * Add the body and the append records after it to the title region
+     */
+    private static int[] bodyRegions(ByteBuffer data, int limit, int[] title, int contentStart, int bodyLength) {
+        byte[] line = new byte[RECORD_LINE_BYTES];
+        int bodyEnd = contentStart + bodyLength;
+        int length = Math.max(0, Math.min(line.length, limit - bodyEnd));
+        data.get(bodyEnd, line, 0, length);
+        if (!endMarkerAt(line, 0, length)) {
+            return null;
+        }
+
+        int[] regions = Arrays.copyOf(title, 8);
+        regions[2] = contentStart;
+        regions[3] = bodyEnd;
+        int count = 4;
+        int position = bodyEnd + END_NOTE.length + 2;
+        while (position < limit) {
+            length = Math.min(line.length, limit - position);
+            data.get(position, line, 0, length);
+            int lineEnd = lineEnd(line, 0, length);
+            int contentEnd = stripCarriageReturn(line, 0, lineEnd);
+            int next = position + lineEnd + 1;
+
+            if (startsWith(line, 0, contentEnd, APPEND)) {
+                int lengthStart = APPEND.length + 20;
+                int textLength = lengthStart <= contentEnd && line[lengthStart - 1] == ':'
+                    ? digits(line, lengthStart, contentEnd - lengthStart)
+                    : -1;
+                if (textLength < 0 || lineEnd >= length || next + textLength > limit) {
+                    // A record torn by a crash mid-append is left out, as decode() does
+                    break;
+                }
+                if (count == regions.length) {
+                    regions = Arrays.copyOf(regions, count * 2);
+                }
+                regions[count++] = next;
+                regions[count++] = next + textLength;
+                position = next + textLength + 1;
+            } else if (lineEquals(line, 0, contentEnd, LEGACY_APPEND_BANNER)) {
+                return null;
+            } else if (contentEnd == 0) {
+                position = next;
+            } else {
+                break;
+            }
+        }
+        return Arrays.copyOf(regions, count);
+    }
+
+    /**
+     * Read a chunked body from the chunk store and decode it like a plain one
+     */
+    private static String assembleBody(byte[] data, int start, int length, BodyEncoding encoding) throws IOException {
+        ChunkStore store = chunkStore;
+        if (store == null) {
+            throw new IOException("Chunked note body, but no chunk store is set up");
+        }
+        byte[] raw = store.read(parseChunkList(data, start, length), encoding.rawLength);
+        return decodeBody(raw, 0, raw.length);
+    }
+
+    private static List<ChunkStore.ChunkRef> parseChunkList(byte[] data, int start, int length) throws IOException {
+        List<ChunkStore.ChunkRef> refs = new ArrayList<>();
+        int limit = start + length;
+        for (int position = start; position < limit; ) {
+            int lineEnd = lineEnd(data, position, limit);
+            if (lineEnd > position) {
+                refs.add(ChunkStore.ChunkRef.parse(new String(data, position, lineEnd - position, StandardCharsets.US_ASCII)));
+            }
+            position = lineEnd + 1;
+        }
+        return refs;
+    }
+
+    /**
+     * Inflate a compressed body and decode it like a plain one
+     */
+    private static String inflateBody(byte[] data, int start, int length, BodyEncoding encoding) throws IOException {
+        NoteCompressor bodyCompressor = compressor;
+        if (bodyCompressor == null) {
+            throw new IOException("Compressed note body, but no compressor is set up");
+        }
+        byte[] raw = bodyCompressor.decompress(data, start, length, encoding.dictionaryId, encoding.rawLength);
+        return decodeBody(raw, 0, raw.length);
+    }
+
+    /**
+     * Number of bytes a string takes in UTF-8, counted without encoding it
+     * @param text The text
+     * @return Encoded length in bytes
+     */
+    public static int utf8Length(CharSequence text) {
+        int count = text.length();
+        int bytes = count;
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isSurrogate(c)) {
+                    // A surrogate pair is two chars and four bytes; an unpaired one is written as '?'
+                    if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        bytes += 2;
+                        i++;
+                    }
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Append a timestamp in yyyy-MM-ddTHH:mm:ss form
+     * @param target Builder to append to
+     * @param time The timestamp
+     * @return The builder
+     */
+    public static StringBuilder appendTimestamp(StringBuilder target, LocalDateTime time) {
+        int year = time.getYear();
+        if (year < 0 || year > 9999) {
+            return target.append(time.format(TIMESTAMP_FORMAT));
+        }
+        appendDigits(target, year, 4).append('-');
+        appendDigits(target, time.getMonthValue(), 2).append('-');
+        appendDigits(target, time.getDayOfMonth(), 2).append('T');
+        appendDigits(target, time.getHour(), 2).append(':');
+        appendDigits(target, time.getMinute(), 2).append(':');
+        return appendDigits(target, time.getSecond(), 2);
+    }
+
+    /**
+     * Parse a yyyy-MM-ddTHH:mm:ss timestamp without allocating intermediate strings
+     */
+    static LocalDateTime parseTimestamp(byte[] data, int start, int end) throws IOException {
+        if (end - start == 19 && data[start + 4] == '-' && data[start + 7] == '-' && data[start + 10] == 'T'
+                && data[start + 13] == ':' && data[start + 16] == ':') {
+            int year = digits(data, start, 4);
+            int month = digits(data, start + 5, 2);
+            int day = digits(data, start + 8, 2);
+            int hour = digits(data, start + 11, 2);
+            int minute = digits(data, start + 14, 2);
+            int second = digits(data, start + 17, 2);
+            if ((year | month | day | hour | minute | second) >= 0) {
+                try {
+                    return LocalDateTime.of(year, month, day, hour, minute, second);
+                } catch (java.time.DateTimeException e) {
+                    throw new IOException("Invalid timestamp: " + new String(data, start, end - start, StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        // Anything unusual goes through the regular formatter for a precise error
+        String text = new String(data, start, end - start, StandardCharsets.UTF_8);
+        try {
+            return LocalDateTime.parse(text, TIMESTAMP_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IOException("Invalid timestamp: " + text, e);
+        }
+    }
+
+    /**
+     * Find the start of the ---END_NOTE--- line, or the limit if there is none
+     */
+    static int findEndMarker(byte[] data, int start, int limit) {
+        int position = start;
+        while (position < limit) {
+            int lineEnd = lineEnd(data, position, limit);
+            if (lineEquals(data, position, stripCarriageReturn(data, position, lineEnd), END_NOTE)) {
+                return position;
+            }
+            position = lineEnd + 1;
+        }
+        return limit;
+    }
+
+    /**
+     * Check that a newline and the ---END_NOTE--- line start at the given position
+     */
+    private static boolean endMarkerAt(byte[] data, int position, int limit) {
+        int markerEnd = position + 1 + END_NOTE.length;
+        return markerEnd < limit && data[position] == '\n' && data[markerEnd] == '\n'
+            && lineEquals(data, position + 1, markerEnd, END_NOTE);
+    }
+
+    /**
+     * Position just after the ---END_NOTE--- line, or the limit if there is none
+     */
+    static int endOfNote(byte[] data, int start, int limit) {
+        int marker = findEndMarker(data, start, limit);
+        if (marker >= limit) {
+            return limit;
+        }
+        int lineEnd = lineEnd(data, marker, limit);
+        return lineEnd < limit ? lineEnd + 1 : limit;
+    }
+
+    /**
+     * Decode the body as one slice, trimmed like String.trim() and with CRLF line ends normalised
+     */
+    private static String decodeBody(byte[] data, int start, int end) {
+        while (start < end && (data[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+
+        boolean carriageReturns = false;
+        for (int i = start; i < end; i++) {
+            if (data[i] == '\r') {
+                carriageReturns = true;
+                break;
+            }
+        }
+        String body = new String(data, start, end - start, StandardCharsets.UTF_8);
+        return carriageReturns ? body.replace("\r\n", "\n") : body;
+    }
+
+    private static int lineEnd(byte[] data, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static int stripCarriageReturn(byte[] data, int start, int end) {
+        return end > start && data[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean lineEquals(byte[] data, int start, int end, byte[] expected) {
+        return end - start == expected.length && startsWith(data, start, end, expected);
+    }
+
+    // Returns -1 if any byte is not a digit or there are none
+    private static int digits(byte[] data, int start, int count) {
+        if (count <= 0 || count > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Like digits() for values up to 18 digits long
+    private static long longDigits(byte[] data, int start, int count) {
+        if (count <= 9) {
+            return digits(data, start, count);
+        }
+        if (count > 18) {
+            return -1;
+        }
+        long high = digits(data, start, count - 9);
+        long low = digits(data, start + count - 9, 9);
+        return high < 0 || low < 0 ? -1 : high * 1_000_000_000L + low;
+    }
+
+    private static StringBuilder appendDigits(StringBuilder target, int value, int width) {
+        for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            target.append((char) ('0' + (value / divisor) % 10));
+        }
+        return target;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parameters of an encoded body, read from its CONTENT:deflate;dict=&lt;id&gt;;len=&lt;n&gt; or
+     * CONTENT:chunks;len=&lt;n&gt; line
+     */
+    private static class BodyEncoding {
+        final boolean chunked;
+        final String dictionaryId;
+        final int rawLength;
+
+        BodyEncoding(boolean chunked, String dictionaryId, int rawLength) {
+            this.chunked = chunked;
+            this.dictionaryId = dictionaryId;
+            this.rawLength = rawLength;
+        }
+
+        /**
+         * Parse a content line, or return null if it does not mark an encoded body
+         */
+        static BodyEncoding parse(byte[] data, int start, int end) {
+            end = stripCarriageReturn(data, start, end);
+            int position = start + CONTENT.length;
+            if (!startsWith(data, start, end, CONTENT)) {
+                return null;
+            }
+            boolean chunked = startsWith(data, position, end, CHUNKS);
+            if (!chunked && !startsWith(data, position, end, DEFLATE)) {
+                return null;
+            }
+            position += chunked ? CHUNKS.length : DEFLATE.length;
+            String dictionaryId = null;
+            if (startsWith(data, position, end, DICTIONARY_PARAMETER)) {
+                int idStart = position + DICTIONARY_PARAMETER.length;
+                position = idStart;
+                while (position < end && data[position] != ';') {
+                    position++;
+                }
+                dictionaryId = new String(data, idStart, position - idStart, StandardCharsets.US_ASCII);
+            }
+            if (!startsWith(data, position, end, LENGTH_PARAMETER)) {
+                return null;
+            }
+            position += LENGTH_PARAMETER.length;
+            int rawLength = digits(data, position, end - position);
+            return rawLength >= 0 ? new BodyEncoding(chunked, dictionaryId, rawLength) : null;
+        }
+    }
+
+    /**
+     * Growable byte buffer reused by encode() on each thread
+     */
+    private static class EncodeBuffer {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+        private int length;
+
+        void reset() {
+            if (bytes.length > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+            length = 0;
+        }
+
+        EncodeBuffer put(byte value) {
+            ensureCapacity(1);
+            bytes[length++] = value;
+            return this;
+        }
+
+        EncodeBuffer put(byte[] values) {
+            ensureCapacity(values.length);
+            System.arraycopy(values, 0, bytes, length, values.length);
+            length += values.length;
+            return this;
+        }
+
+        EncodeBuffer putUtf8(String text) {
+            // ASCII is copied directly; anything else goes through the encoder into the buffer
+            int count = text.length();
+            ensureCapacity(count);
+            int i = 0;
+            while (i < count) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[length++] = (byte) c;
+                i++;
+            }
+            if (i < count) {
+                encodeRemaining(CharBuffer.wrap(text, i, count));
+            }
+            return this;
+        }
+
+        EncodeBuffer putTimestamp(LocalDateTime time) {
+            int year = time.getYear();
+            if (year < 0 || year > 9999) {
+                return putUtf8(time.format(TIMESTAMP_FORMAT));
+            }
+            ensureCapacity(19);
+            putDigits(year, 4).put((byte) '-');
+            putDigits(time.getMonthValue(), 2).put((byte) '-');
+            putDigits(time.getDayOfMonth(), 2).put((byte) 'T');
+            putDigits(time.getHour(), 2).put((byte) ':');
+            putDigits(time.getMinute(), 2).put((byte) ':');
+            return putDigits(time.getSecond(), 2);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private EncodeBuffer putDigits(int value, int width) {
+            for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+                put((byte) ('0' + (value / divisor) % 10));
+            }
+            return this;
+        }
+
+        private void encodeRemaining(CharBuffer chars) {
+            encoder.reset();
+            while (true) {
+                ensureCapacity(chars.remaining() * 3 + 4);
+                ByteBuffer target = ByteBuffer.wrap(bytes, length, bytes.length - length);
+                CoderResult result = encoder.encode(chars, target, true);
+                if (result.isUnderflow()) {
+                    result = encoder.flush(target);
+                }
+                length = target.position();
+                if (result.isUnderflow()) {
+                    return;
+                }
+                if (result.isError()) {
+                    // Unpaired surrogates are written as '?', matching String.getBytes
+                    chars.position(chars.position() + result.length());
+                    put((byte) '?');
+                }
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
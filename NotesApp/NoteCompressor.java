@@ -0,0 +1,356 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of stored note bodies, optionally with a trained preset dictionary
+ * Bodies below the minimum size, or that do not get smaller, are stored as plain text.
+ * A preset dictionary holds the lines that recur across notes (template headings and the
+ * like), so even a short note compresses against them. Dictionaries are kept as
+ * &lt;id&gt;.dict files, where the id is the start of the dictionary's SHA-256, and are never
+ * deleted because stored notes name the dictionary they were compressed with. A dictionary
+ * is forced to disk under its name before it becomes the active one. Dictionaries trained
+ * before SHA-256 ids have 8-digit Adler-32 ids and are still read.
+ */
+public class NoteCompressor {
+    // Deflate only looks back 32 KB, so a longer dictionary would not be used
+    private static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+    private static final String ACTIVE_FILE = "active";
+    private static final String DICTIONARY_EXTENSION = ".dict";
+    private static final int DICTIONARY_ID_LENGTH = 16;
+
+    private final String dictionaryDirectory;
+    private final boolean enabled;
+    private final int minBytes;
+    private final int level;
+    private final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile String activeDictionary;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final LongAdder compressedNotes = new LongAdder();
+    private final LongAdder plainNotes = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    /**
+     * A compressed body and the dictionary it needs
+     */
+    static class Compressed {
+        final byte[] data;
+        final String dictionaryId;
+
+        Compressed(byte[] data, String dictionaryId) {
+            this.data = data;
+            this.dictionaryId = dictionaryId;
+        }
+    }
+
+    public NoteCompressor(String dictionaryDirectory, boolean enabled, int minBytes, int level) {
+        this.dictionaryDirectory = dictionaryDirectory;
+        this.enabled = enabled;
+        this.minBytes = Math.max(1, minBytes);
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    /**
+     * Load the active dictionary's id; dictionaries themselves are read when first needed
+     * @throws IOException if the dictionary directory cannot be read
+     */
+    public void load() throws IOException {
+        File active = new File(dictionaryDirectory, ACTIVE_FILE);
+        if (active.exists()) {
+            String id = new String(Files.readAllBytes(active.toPath()), StandardCharsets.US_ASCII).trim();
+            activeDictionary = dictionary(id) != null ? id : null;
+        }
+    }
+
+    /**
+     * Whether new bodies are compressed
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether a body of the given size is worth trying to compress
+     * @param length Body length in bytes
+     * @return true if compression is enabled and the body is not too small
+     */
+    public boolean shouldCompress(int length) {
+        return enabled && length >= minBytes;
+    }
+
+    /**
+     * Id of the dictionary new bodies are compressed with
+     * @return The id, or null when there is no dictionary
+     */
+    public String getActiveDictionary() {
+        return activeDictionary;
+    }
+
+    /**
+     * Compress a body with the active dictionary
+     * @param raw UTF-8 body
+     * @return The compressed body, or null if compression does not make it smaller
+     */
+    Compressed compress(byte[] raw) {
+        long start = System.nanoTime();
+        String dictionaryId = activeDictionary;
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionaryId != null) {
+            deflater.setDictionary(dictionaries.get(dictionaryId));
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+
+        // Anything as long as the input is not worth keeping, so stop there
+        byte[] output = new byte[raw.length];
+        int length = 0;
+        while (!deflater.finished() && length < output.length) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        boolean smaller = deflater.finished() && length < raw.length;
+
+        encodeNanos.add(System.nanoTime() - start);
+        encodedBytes.add(raw.length);
+        rawBytes.add(raw.length);
+        if (!smaller) {
+            plainNotes.increment();
+            compressedBytes.add(raw.length);
+            return null;
+        }
+        compressedNotes.increment();
+        compressedBytes.add(length);
+        byte[] data = new byte[length];
+        System.arraycopy(output, 0, data, 0, length);
+        return new Compressed(data, dictionaryId);
+    }
+
+    /**
+     * Record a body stored plain because it was below the minimum size
+     * @param length Body length in bytes
+     */
+    void recordPlain(int length) {
+        if (enabled) {
+            plainNotes.increment();
+            rawBytes.add(length);
+            compressedBytes.add(length);
+        }
+    }
+
+    /**
+     * Decompress a stored body
+     * @param data Buffer holding the compressed body
+     * @param offset Start of the body
+     * @param length Compressed length
+     * @param dictionaryId Dictionary the body was compressed with, or null
+     * @param rawLength Length of the body once decompressed
+     * @return The UTF-8 body
+     * @throws IOException if the dictionary is missing or the data is corrupt
+     */
+    byte[] decompress(byte[] data, int offset, int length, String dictionaryId, int rawLength) throws IOException {
+        long start = System.nanoTime();
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        if (dictionaryId != null) {
+            byte[] dictionary = dictionary(dictionaryId);
+            if (dictionary == null) {
+                throw new IOException("Missing compression dictionary: " + dictionaryId);
+            }
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(data, offset, length);
+
+        byte[] raw = new byte[rawLength];
+        try {
+            int filled = 0;
+            while (filled < rawLength) {
+                int count = inflater.inflate(raw, filled, rawLength - filled);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += count;
+            }
+            if (filled != rawLength) {
+                throw new IOException("Compressed body is shorter than its recorded length");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed body: " + e.getMessage(), e);
+        }
+
+        decodeNanos.add(System.nanoTime() - start);
+        decodedBytes.add(rawLength);
+        return raw;
+    }
+
+    /**
+     * Build a preset dictionary from sample bodies and make it the active one
+     * Lines that occur in more than one sample are kept, most valuable (occurrences times
+     * length) last, since deflate codes nearer matches more cheaply.
+     * @param samples Note bodies to learn from
+     * @param maxBytes Maximum dictionary size (at most 32 KB)
+     * @return The new dictionary's id, or null if the samples share nothing worth keeping
+     * @throws IOException if the dictionary cannot be saved
+     */
+    public String train(List<String> samples, int maxBytes) throws IOException {
+        Map<String, Integer> documentCounts = new HashMap<>();
+        for (String sample : samples) {
+            Set<String> lines = new HashSet<>();
+            for (String line : sample.split("\n")) {
+                if (line.trim().length() >= 4) {
+                    lines.add(line);
+                }
+            }
+            for (String line : lines) {
+                documentCounts.merge(line, 1, Integer::sum);
+            }
+        }
+
+        List<Map.Entry<String, Integer>> shared = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : documentCounts.entrySet()) {
+            if (entry.getValue() > 1) {
+                shared.add(entry);
+            }
+        }
+        shared.sort((a, b) -> Long.compare((long) b.getValue() * b.getKey().length(),
+            (long) a.getValue() * a.getKey().length()));
+
+        int budget = Math.min(MAX_DICTIONARY_BYTES, maxBytes);
+        List<byte[]> chosen = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : shared) {
+            byte[] line = (entry.getKey() + "\n").getBytes(StandardCharsets.UTF_8);
+            if (size + line.length <= budget) {
+                chosen.add(line);
+                size += line.length;
+            }
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (byte[] line : chosen) {
+            position -= line.length;
+            System.arraycopy(line, 0, dictionary, position, line.length);
+        }
+        return install(dictionary);
+    }
+
+    private String install(byte[] dictionary) throws IOException {
+        String id = dictionaryId(dictionary);
+        File directory = new File(dictionaryDirectory);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create dictionary directory: " + directory);
+        }
+        File file = new File(directory, id + DICTIONARY_EXTENSION);
+        // A file under this id holds these bytes unless a crash tore it; then it is rewritten
+        if (!file.exists() || !Arrays.equals(Files.readAllBytes(file.toPath()), dictionary)) {
+            writeDurably(file, dictionary);
+        }
+        writeDurably(new File(directory, ACTIVE_FILE), id.getBytes(StandardCharsets.US_ASCII));
+
+        dictionaries.put(id, dictionary);
+        activeDictionary = id;
+        return id;
+    }
+
+    private byte[] dictionary(String id) throws IOException {
+        byte[] dictionary = dictionaries.get(id);
+        if (dictionary == null) {
+            File file = new File(dictionaryDirectory, id + DICTIONARY_EXTENSION);
+            if (!file.exists()) {
+                return null;
+            }
+            dictionary = Files.readAllBytes(file.toPath());
+            if (id.length() == DICTIONARY_ID_LENGTH && !id.equals(dictionaryId(dictionary))) {
+                throw new IOException("Compression dictionary is damaged: " + file);
+            }
+            dictionaries.putIfAbsent(id, dictionary);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Write a file through a temporary file that is forced to disk, then renamed over it
+     */
+    private static void writeDurably(File file, byte[] data) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Renames are only durable once the directory itself is forced
+        try (FileChannel channel = FileChannel.open(file.getParentFile().toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory; their file systems order this themselves
+        }
+    }
+
+    private static String dictionaryId(byte[] dictionary) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(dictionary);
+            StringBuilder id = new StringBuilder(DICTIONARY_ID_LENGTH);
+            for (int i = 0; i < DICTIONARY_ID_LENGTH / 2; i++) {
+                id.append(String.format("%02x", hash[i] & 0xFF));
+            }
+            return id.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Describe compression settings and the ratio and throughput seen since startup
+     * @return Statistics lines
+     */
+    public String describe() {
+        if (!enabled && decodedBytes.sum() == 0) {
+            return "Compression: off";
+        }
+        String dictionary = activeDictionary;
+        long raw = rawBytes.sum();
+        long stored = compressedBytes.sum();
+        long decoded = decodedBytes.sum();
+        return "Compression: " + (enabled ? "deflate level " + level : "off (reading compressed notes)") +
+               (dictionary != null ? ", dictionary " + dictionary + " (" + dictionaries.get(dictionary).length +
+                " bytes)" : ", no dictionary") + ", bodies under " + minBytes + " bytes stored plain\n" +
+               "Compressed Bodies: " + compressedNotes.sum() + " compressed, " + plainNotes.sum() + " plain, " +
+               raw + " -> " + stored + " bytes" +
+               String.format(" (ratio %.2f)", stored == 0 ? 0 : (double) raw / stored) + "\n" +
+               String.format("Compression Throughput: encode %.1f MB/s, decode %.1f MB/s (%d bytes decoded)",
+                   megabytesPerSecond(encodedBytes.sum(), encodeNanos.sum()), megabytesPerSecond(decoded, decodeNanos.sum()), decoded);
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1_000_000_000.0);
+    }
+}
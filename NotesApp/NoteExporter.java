@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams notes into an export file without holding the whole store in memory
+ * Notes are read and encoded in chunks on worker threads while the calling thread writes
+ * finished chunks in order; only a bounded window of chunks is in flight at any time.
+ * With compression each chunk is compressed on its own: GZIP output is a sequence of
+ * gzip members and DEFLATE output is a raw deflate stream made of byte-aligned blocks,
+ * both of which standard decompressors read as one stream.
+ * Notes are read straight from storage and decoded, bypassing FileManager, so an export
+ * neither churns the note cache nor compacts notes. The header is written before any note is
+ * read, so it gives the number of notes selected; a trailer gives the number exported and
+ * the number that could not be read.
+ */
+public class NoteExporter {
+    private static final int CHUNK_SIZE = 64;
+
+    public enum Compression {
+        NONE(""), GZIP(".gz"), DEFLATE(".deflate");
+
+        private final String extension;
+
+        Compression(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final NoteStorage storage;
+    private final int parallelism;
+
+    public NoteExporter(NoteStorage storage, int parallelism) {
+        this.storage = storage;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Export notes to a file
+     * @param fileNames Note files in index order
+     * @param exportPath Path of the export file
+     * @param compression Output compression
+     * @param modifiedSince Only export notes stored at or after this time (epoch millis, 0 for all)
+     * @return Report of the export
+     * @throws IOException if the export file cannot be written
+     */
+    public ExportReport export(List<String> fileNames, String exportPath, Compression compression,
+                               long modifiedSince) throws IOException {
+        long start = System.nanoTime();
+        List<String> selected = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (modifiedSince <= 0 || storage.lastModified(fileName) >= modifiedSince) {
+                selected.add(fileName);
+            }
+        }
+
+        ExportReport report = new ExportReport(exportPath);
+        ExecutorService encoders = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "note-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(exportPath), 64 * 1024)) {
+            writeChunk(out, new EncodedChunk(encode(header(selected.size(), modifiedSince), compression), 0, 0, 0), report);
+
+            // Keep a bounded window of chunks in flight and write them back in submission order
+            Deque<Future<EncodedChunk>> window = new ArrayDeque<>();
+            int maxInFlight = parallelism * 2;
+            for (int from = 0; from < selected.size(); from += CHUNK_SIZE) {
+                if (window.size() >= maxInFlight) {
+                    writeChunk(out, await(window.removeFirst()), report);
+                }
+                int chunkStart = from;
+                List<String> chunk = selected.subList(from, Math.min(from + CHUNK_SIZE, selected.size()));
+                window.addLast(encoders.submit(() -> encodeNotes(chunk, chunkStart, compression)));
+            }
+            while (!window.isEmpty()) {
+                writeChunk(out, await(window.removeFirst()), report);
+            }
+            writeChunk(out, new EncodedChunk(encode(trailer(report), compression), 0, 0, 0), report);
+
+            if (compression == Compression.DEFLATE) {
+                // Close the raw deflate stream with an empty final block
+                writeChunk(out, new EncodedChunk(deflateBlock(new byte[0], true), 0, 0, 0), report);
+            }
+        } finally {
+            encoders.shutdownNow();
+        }
+
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    private EncodedChunk encodeNotes(List<String> chunk, int firstIndex, Compression compression) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int exported = 0;
+        int failed = 0;
+        long rawBytes = 0;
+
+        for (int i = 0; i < chunk.size(); i++) {
+            try {
+                byte[] data = storage.read(chunk.get(i));
+                Note note = NoteCodec.decode(data);
+                text.append("NOTE ").append(firstIndex + i + 1).append(":\n")
+                    .append(note.toFileFormat()).append("\n");
+                rawBytes += data.length;
+                exported++;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // Deleted since the notes were selected
+            } catch (IOException | RuntimeException e) {
+                failed++;
+            }
+        }
+
+        return new EncodedChunk(encode(text.toString(), compression), exported, failed, rawBytes);
+    }
+
+    private static byte[] encode(String text, Compression compression) throws IOException {
+        byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+        byte[] data;
+        switch (compression) {
+            case GZIP:
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(plain.length / 3 + 64);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                    gzip.write(plain);
+                }
+                data = buffer.toByteArray();
+                break;
+            case DEFLATE:
+                data = deflateBlock(plain, false);
+                break;
+            default:
+                data = plain;
+        }
+        return data;
+    }
+
+    /**
+     * Deflate a block; non-final blocks end with a sync flush so they can be concatenated
+     */
+    private static byte[] deflateBlock(byte[] input, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 3 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            while (true) {
+                int written = last
+                    ? deflater.deflate(buffer)
+                    : deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, written);
+                if (last ? deflater.finished() : written < buffer.length) {
+                    break;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String header(int noteCount, long modifiedSince) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+        StringBuilder header = new StringBuilder("=== NOTES EXPORT ===\n");
+        header.append("Export Date: ").append(LocalDateTime.now().format(formatter)).append("\n");
+        if (modifiedSince > 0) {
+            header.append("Modified Since: ").append(LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(modifiedSince), ZoneId.systemDefault()).format(formatter)).append("\n");
+        }
+        header.append("Notes Selected: ").append(noteCount).append("\n\n");
+        return header.toString();
+    }
+
+    private static String trailer(ExportReport report) {
+        StringBuilder trailer = new StringBuilder("=== END OF EXPORT ===\n");
+        trailer.append("Total Notes: ").append(report.getNotesExported()).append("\n");
+        if (report.getNotesFailed() > 0) {
+            trailer.append("Failed Notes: ").append(report.getNotesFailed()).append("\n");
+        }
+        return trailer.toString();
+    }
+
+    private static EncodedChunk await(Future<EncodedChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode notes: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        }
+    }
+
+    private static void writeChunk(OutputStream out, EncodedChunk chunk, ExportReport report) throws IOException {
+        out.write(chunk.data);
+        report.add(chunk.exported, chunk.failed, chunk.rawBytes, chunk.data.length);
+    }
+
+    private static class EncodedChunk {
+        final byte[] data;
+        final int exported;
+        final int failed;
+        final long rawBytes;
+
+        EncodedChunk(byte[] data, int exported, int failed, long rawBytes) {
+            this.data = data;
+            this.exported = exported;
+            this.failed = failed;
+            this.rawBytes = rawBytes;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Title, timestamps, sizes and version of a stored note, without its content
+ * Listing views use headers so that a large store can be listed without reading note bodies.
+ */
+public class NoteHeader {
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private final String fileName;
+    private final String title;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime modifiedAt;
+    private final long contentLength;
+    private final long storedSize;
+    private final long version;
+
+    public NoteHeader(String fileName, String title, LocalDateTime createdAt, LocalDateTime modifiedAt,
+                      long contentLength, long storedSize, long version) {
+        this.fileName = fileName;
+        this.title = title;
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
+        this.contentLength = contentLength;
+        this.storedSize = storedSize;
+        this.version = version;
+    }
+
+    /**
+     * Build the header of a note that is already in memory
+     * @param fileName Storage key of the note
+     * @param note The note
+     * @param storedSize Stored size of the note
+     * @return The header
+     */
+    public static NoteHeader of(String fileName, Note note, long storedSize) {
+        return new NoteHeader(fileName, note.getTitle(), note.getCreatedAt(), note.getModifiedAt(),
+            NoteCodec.utf8Length(note.getContent()), storedSize, note.getVersion());
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getModifiedAt() {
+        return modifiedAt;
+    }
+
+    /**
+     * Length of the content including merged appends
+     * @return Content size in UTF-8 bytes
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getFormattedCreatedDate() {
+        return createdAt.format(DISPLAY_FORMAT);
+    }
+
+    public String getFormattedModifiedDate() {
+        return modifiedAt.format(DISPLAY_FORMAT);
+    }
+
+    @Override
+    public String toString() {
+        return "Title: " + title + "\n" +
+               "Created: " + getFormattedCreatedDate() + "\n" +
+               "Modified: " + getFormattedModifiedDate() + "\n" +
+               "Size: " + contentLength + " bytes";
+    }
+}
@@ -0,0 +1,336 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Imports notes in bulk from an export file or a directory of note files
+ * The import is a pipeline: the calling thread reads the source in blocks that end on a
+ * note boundary (or in groups of files), worker threads parse the blocks, the calling thread
+ * drops duplicate titles and groups the notes into batches, and writer threads store each
+ * batch with a single notes index update. Only a bounded window of blocks and batches is in
+ * flight, so memory stays flat however large the source is.
+ * Export files may be plain, gzip (detected by its magic bytes) or raw deflate (detected by
+ * the .deflate extension). Notes without timestamps get the import time, or for a directory
+ * the file's modification time.
+ */
+public class NoteImporter {
+    private static final int BLOCK_BYTES = 1024 * 1024;
+    private static final int FILES_PER_TASK = 256;
+    private static final byte[] TITLE = "TITLE:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_NOTE = "---END_NOTE---".getBytes(StandardCharsets.US_ASCII);
+
+    private final int parallelism;
+    private final int batchSize;
+    private final int writers;
+
+    /**
+     * Counts for one written batch
+     */
+    static class BatchResult {
+        int imported;
+        int skipped;
+        int failed;
+    }
+
+    public NoteImporter(int parallelism, int batchSize, int writers) {
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.writers = Math.max(1, writers);
+    }
+
+    /**
+     * Import notes from an export file or a directory
+     * @param source Export file, or directory whose .txt files each hold one note
+     * @param progress Called with the running report after each batch, or null
+     * @return Report of the import
+     * @throws IOException if the source cannot be read
+     */
+    public ImportReport importFrom(File source, Consumer<ImportReport> progress) throws IOException {
+        long start = System.nanoTime();
+        if (!source.exists()) {
+            throw new FileNotFoundException("Import source not found: " + source);
+        }
+
+        ImportReport report = new ImportReport(source.getPath());
+        ExecutorService parsers = Executors.newFixedThreadPool(parallelism, daemonThreads("note-import"));
+        ExecutorService batchWriters = Executors.newFixedThreadPool(writers, daemonThreads("note-import-writer"));
+        Pipeline pipeline = new Pipeline(report, progress, parsers, batchWriters);
+
+        try {
+            if (source.isDirectory()) {
+                readDirectory(source, pipeline);
+            } else {
+                readExport(source, pipeline);
+            }
+            pipeline.finish();
+        } finally {
+            parsers.shutdownNow();
+            batchWriters.shutdownNow();
+        }
+
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    private void readExport(File source, Pipeline pipeline) throws IOException {
+        LocalDateTime importTime = LocalDateTime.now();
+        try (InputStream in = openExport(source)) {
+            byte[] carry = new byte[0];
+            while (true) {
+                byte[] block = Arrays.copyOf(carry, carry.length + BLOCK_BYTES);
+                int length = carry.length + in.readNBytes(block, carry.length, BLOCK_BYTES);
+                boolean last = length < block.length;
+
+                // Parse up to the last complete note; the rest is carried into the next block
+                int cut = last ? length : lastNoteEnd(block, length);
+                if (cut > 0) {
+                    pipeline.parse(() -> parseExport(block, cut, importTime));
+                }
+                carry = Arrays.copyOfRange(block, cut, length);
+                if (last) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static InputStream openExport(File source) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(source), 64 * 1024);
+        try {
+            in.mark(2);
+            int first = in.read();
+            int second = in.read();
+            in.reset();
+            if (first == 0x1f && second == 0x8b) {
+                return new GZIPInputStream(in, 64 * 1024);
+            }
+            if (source.getName().endsWith(NoteExporter.Compression.DEFLATE.getExtension())) {
+                return new InflaterInputStream(in, new Inflater(true), 64 * 1024);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private void readDirectory(File directory, Pipeline pipeline) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".txt"));
+        if (files == null) {
+            throw new IOException("Cannot list directory: " + directory);
+        }
+        Arrays.sort(files);
+
+        for (int from = 0; from < files.length; from += FILES_PER_TASK) {
+            List<File> group = Arrays.asList(files).subList(from, Math.min(from + FILES_PER_TASK, files.length));
+            pipeline.parse(() -> parseFiles(group));
+        }
+    }
+
+    /**
+     * Parse every note in an export block; lines outside notes (headers, NOTE n:) are skipped
+     */
+    private static ParsedChunk parseExport(byte[] data, int limit, LocalDateTime importTime) {
+        ParsedChunk chunk = new ParsedChunk(limit);
+        int position = 0;
+        while (position < limit) {
+            if (startsWith(data, position, limit, TITLE)) {
+                int end = NoteCodec.endOfNote(data, position, limit);
+                try {
+                    chunk.notes.add(NoteCodec.decode(data, position, end - position, importTime));
+                } catch (IOException | RuntimeException e) {
+                    chunk.failed++;
+                }
+                position = end;
+            } else {
+                position = lineEnd(data, position, limit) + 1;
+            }
+        }
+        return chunk;
+    }
+
+    private static ParsedChunk parseFiles(List<File> files) {
+        ParsedChunk chunk = new ParsedChunk(0);
+        for (File file : files) {
+            try {
+                byte[] data = Files.readAllBytes(file.toPath());
+                LocalDateTime fileTime = LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault()).withNano(0);
+                chunk.notes.add(NoteCodec.decode(data, 0, data.length, fileTime));
+                chunk.bytes += data.length;
+            } catch (IOException | RuntimeException e) {
+                chunk.failed++;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Position just after the last ---END_NOTE--- line that ends before the limit, or 0
+     */
+    static int lastNoteEnd(byte[] data, int limit) {
+        for (int i = limit - END_NOTE.length - 1; i >= 0; i--) {
+            if ((i == 0 || data[i - 1] == '\n') && startsWith(data, i, limit, END_NOTE)) {
+                int next = i + END_NOTE.length;
+                if (data[next] == '\r' && next + 1 < limit) {
+                    next++;
+                }
+                if (data[next] == '\n') {
+                    return next + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static int lineEnd(byte[] data, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static boolean startsWith(byte[] data, int start, int limit, byte[] prefix) {
+        if (limit - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to import notes: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        }
+    }
+
+    private static class ParsedChunk {
+        final List<Note> notes = new ArrayList<>();
+        int failed;
+        long bytes;
+
+        ParsedChunk(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The calling thread's side of the pipeline: deduplication, batching and bookkeeping
+     * Runs on one thread only, so the report and the seen-title map need no locking.
+     */
+    private class Pipeline {
+        private final ImportReport report;
+        private final Consumer<ImportReport> progress;
+        private final ExecutorService parsers;
+        private final ExecutorService batchWriters;
+        private final Deque<Future<ParsedChunk>> parsing = new ArrayDeque<>();
+        private final Deque<Future<BatchResult>> writing = new ArrayDeque<>();
+        // Modification time of the copy kept for each title seen so far
+        private final Map<String, LocalDateTime> seen = new HashMap<>();
+        private Map<String, Note> batch = new LinkedHashMap<>();
+
+        Pipeline(ImportReport report, Consumer<ImportReport> progress,
+                 ExecutorService parsers, ExecutorService batchWriters) {
+            this.report = report;
+            this.progress = progress;
+            this.parsers = parsers;
+            this.batchWriters = batchWriters;
+        }
+
+        void parse(Callable<ParsedChunk> task) throws IOException {
+            if (parsing.size() >= parallelism * 2) {
+                accept(await(parsing.removeFirst()));
+            }
+            parsing.addLast(parsers.submit(task));
+        }
+
+        void finish() throws IOException {
+            while (!parsing.isEmpty()) {
+                accept(await(parsing.removeFirst()));
+            }
+            if (!batch.isEmpty()) {
+                submitBatch();
+            }
+            while (!writing.isEmpty()) {
+                collect(await(writing.removeFirst()));
+            }
+        }
+
+        private void accept(ParsedChunk chunk) throws IOException {
+            report.addParsed(chunk.notes.size(), chunk.failed, chunk.bytes);
+            for (Note note : chunk.notes) {
+                // The newest copy of a title wins; of equally new copies, the first one read
+                LocalDateTime kept = seen.get(note.getTitle());
+                if (kept != null) {
+                    report.addDuplicate();
+                    if (!note.getModifiedAt().isAfter(kept)) {
+                        continue;
+                    }
+                }
+                seen.put(note.getTitle(), note.getModifiedAt());
+                // An older copy still waiting in this batch is replaced; one already written
+                // is overwritten, since the store keeps the newer note whichever lands first
+                batch.put(note.getTitle(), note);
+                if (batch.size() >= batchSize) {
+                    submitBatch();
+                }
+            }
+        }
+
+        private void submitBatch() throws IOException {
+            if (writing.size() >= writers * 2) {
+                collect(await(writing.removeFirst()));
+            }
+            List<Note> notes = new ArrayList<>(batch.values());
+            batch = new LinkedHashMap<>();
+            writing.addLast(batchWriters.submit(() -> FileManager.importBatch(notes)));
+        }
+
+        private void collect(BatchResult result) {
+            report.addBatch(result.imported, result.skipped, result.failed);
+            if (progress != null) {
+                progress.accept(report);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk note load: the notes read in index order and the files that failed
+ */
+public class NoteLoadResult {
+    private final List<Note> notes;
+    private final Map<String, String> failures;
+    private final long elapsedNanos;
+
+    public NoteLoadResult(List<Note> notes, Map<String, String> failures, long elapsedNanos) {
+        this.notes = notes;
+        this.failures = failures;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Files that could not be read
+     * @return Map of file path to error message, in index order
+     */
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        return "Loaded " + notes.size() + " note(s) in " + getElapsedMillis() + " ms" +
+               (failures.isEmpty() ? "" : ", " + failures.size() + " failed");
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads many note files concurrently
+ * Reads run on virtual threads when the JVM provides them (Java 21+) and on a bounded
+ * daemon thread pool otherwise. A semaphore caps the number of files open at once.
+ * The concurrency cap is set with the notes.io.maxOpenFiles system property.
+ */
+public class NoteLoader {
+    private static final int MAX_OPEN_FILES = Integer.getInteger("notes.io.maxOpenFiles", 64);
+    private static final int PARALLEL_THRESHOLD = 8;
+    private static final Semaphore openFiles = new Semaphore(MAX_OPEN_FILES);
+    private static ExecutorService executor;
+
+    /**
+     * Reads one file; lets bulk loads choose between full notes, header-first notes and headers
+     */
+    interface Reader<T> {
+        T read(String fileName) throws IOException;
+    }
+
+    /**
+     * Use a custom executor for bulk reads (for example a pool sized for a benchmark)
+     * @param customExecutor Executor to run reads on
+     */
+    public static synchronized void setExecutor(ExecutorService customExecutor) {
+        executor = customExecutor;
+    }
+
+    /**
+     * Read the given files concurrently
+     * @param fileNames Note files in the order they should be returned
+     * @return Notes in the same order, plus the files that failed
+     */
+    public static NoteLoadResult loadAll(List<String> fileNames) {
+        return loadAll(fileNames, FileManager::loadNote);
+    }
+
+    /**
+     * Read the given files concurrently with the given reader
+     * @param fileNames Note files in the order they should be returned
+     * @param reader Reads a single note
+     * @return Notes in the same order, plus the files that failed
+     */
+    static NoteLoadResult loadAll(List<String> fileNames, Reader<Note> reader) {
+        long start = System.nanoTime();
+        List<Note> notes = new ArrayList<>(fileNames.size());
+        Map<String, String> failures = new LinkedHashMap<>();
+        readAll(fileNames, reader, notes, failures);
+        return new NoteLoadResult(notes, failures, System.nanoTime() - start);
+    }
+
+    /**
+     * Read the headers of the given files concurrently
+     * @param fileNames Note files in the order they should be returned
+     * @param failures Receives the files that failed and their error messages
+     * @return Headers in the same order
+     */
+    static List<NoteHeader> loadHeaders(List<String> fileNames, Map<String, String> failures) {
+        List<NoteHeader> headers = new ArrayList<>(fileNames.size());
+        readAll(fileNames, FileManager::loadHeader, headers, failures);
+        return headers;
+    }
+
+    private static <T> void readAll(List<String> fileNames, Reader<T> reader, List<T> results,
+                                    Map<String, String> failures) {
+        // Small stores are not worth the hand-off to other threads
+        if (fileNames.size() < PARALLEL_THRESHOLD) {
+            for (String fileName : fileNames) {
+                try {
+                    results.add(reader.read(fileName));
+                } catch (Exception e) {
+                    failures.put(fileName, describe(e));
+                }
+            }
+            return;
+        }
+
+        ExecutorService readers = getExecutor();
+        List<Future<T>> futures = new ArrayList<>(fileNames.size());
+        for (String fileName : fileNames) {
+            futures.add(readers.submit(() -> {
+                openFiles.acquire();
+                try {
+                    return reader.read(fileName);
+                } finally {
+                    openFiles.release();
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                failures.put(fileNames.get(i), describe(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.put(fileNames.get(i), "Interrupted");
+                cancelRemaining(futures, i + 1);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Create an executor for blocking file I/O: one virtual thread per task where
+     * available, otherwise a fixed pool of daemon threads
+     * @param name Thread name prefix
+     * @param platformThreads Pool size used when virtual threads are unavailable
+     * @return The executor
+     */
+    public static ExecutorService newIoExecutor(String name, int platformThreads) {
+        try {
+            // Looked up reflectively so the app still compiles and runs on Java 17
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(platformThreads, runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Math.min(MAX_OPEN_FILES, Runtime.getRuntime().availableProcessors() * 4);
+            executor = newIoExecutor("note-reader", Math.max(1, threads));
+        }
+        return executor;
+    }
+
+    private static void cancelRemaining(List<? extends Future<?>> futures, int from) {
+        for (int i = from; i < futures.size(); i++) {
+            futures.get(i).cancel(true);
+        }
+    }
+
+    private static String describe(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read/write locks keyed by note file
+ * Each key maps to one of a fixed number of locks, so operations on different notes rarely
+ * contend while the lock table stays small however many notes there are. Writes to a note
+ * (saves, appends, compaction, deletes) hold its write lock; reads from storage hold the
+ * read lock, so they never see a note half rewritten.
+ * Threads that need several stripes take them with lockAll(), which always locks in stripe
+ * order so two such threads cannot deadlock.
+ */
+public class NoteLocks {
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripeCount Number of locks, rounded up to a power of two
+     */
+    public NoteLocks(int stripeCount) {
+        int size = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Lock guarding writes to a note
+     * @param key Storage key of the note
+     * @return The write lock of the key's stripe
+     */
+    public Lock writeLock(String key) {
+        return stripes[stripeOf(key)].writeLock();
+    }
+
+    /**
+     * Lock guarding reads of a note from storage
+     * @param key Storage key of the note
+     * @return The read lock of the key's stripe
+     */
+    public Lock readLock(String key) {
+        return stripes[stripeOf(key)].readLock();
+    }
+
+    /**
+     * Take the write locks of several notes in stripe order
+     * @param keys Storage keys of the notes
+     * @return The locks taken, to be passed to unlockAll()
+     */
+    public List<Lock> lockAll(Collection<String> keys) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (String key : keys) {
+            indexes.add(stripeOf(key));
+        }
+        List<Lock> locks = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            Lock lock = stripes[index].writeLock();
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    /**
+     * Release locks taken by lockAll()
+     * @param locks The locks
+     */
+    public static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int stripeOf(String key) {
+        // Spread the hash so keys that differ only in their high bits use different stripes
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
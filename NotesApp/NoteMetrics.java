@@ -0,0 +1,349 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Latencies, error counts and counters of the FileManager operations
+ * Each operation has a LatencyHistogram and a LongAdder of errors, so recording from many
+ * threads is a nanoTime call and a few uncontended adds; while disabled (notes.metrics=false,
+ * or the Enabled attribute set to false) nothing is recorded. The numbers are published as
+ * the JMX MBean "notes:type=FileManager", with read-only attributes such as SaveP99Micros,
+ * and written to the log every notes.metrics.dumpSeconds seconds while operations run.
+ */
+public class NoteMetrics implements DynamicMBean {
+    public static final String OBJECT_NAME = "notes:type=FileManager";
+
+    public enum Operation {
+        SAVE("Save"),
+        READ("Read"),
+        READ_ALL("ReadAll"),
+        DELETE("Delete"),
+        SEARCH("Search"),
+        SCAN("Scan"),
+        EXPORT("Export"),
+        IMPORT("Import");
+
+        private final String displayName;
+
+        Operation(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static final long REGISTER_DELAY_MILLIS = 1000;
+    private static final String[] STATISTICS = {
+        "Count", "Errors", "MeanMicros", "P50Micros", "P99Micros", "P999Micros", "MaxMicros"
+    };
+
+    private volatile boolean enabled;
+    // Indexed by Operation.ordinal(), which is cheaper on the hot path than an EnumMap
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[Operation.values().length];
+    private final Map<String, LongSupplier> counters = new LinkedHashMap<>();
+    private volatile ScheduledExecutorService publisher;
+    private long lastDumpedCount = -1;
+
+    /**
+     * @param enabled Whether operations are recorded from the start
+     */
+    public NoteMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (Operation operation : Operation.values()) {
+            latencies[operation.ordinal()] = new LatencyHistogram();
+            errors[operation.ordinal()] = new LongAdder();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start or stop recording; what was recorded so far is kept
+     * @param enabled Whether operations are recorded
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Publish a counter kept elsewhere, such as cache hits; call before start()
+     * @param name Attribute name, for example "CacheHits"
+     * @param value Reads the current value
+     */
+    public synchronized void addCounter(String name, LongSupplier value) {
+        counters.put(name, value);
+    }
+
+    /**
+     * Start timing an operation
+     * @return Start time to pass to record(), or 0 when metrics are disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record how long an operation took
+     * @param operation The operation
+     * @param start Value returned by start()
+     */
+    public void record(Operation operation, long start) {
+        // A start of 0 means recording was off when the operation began
+        if (enabled && start != 0) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Count a failed operation
+     * @param operation The operation
+     */
+    public void recordError(Operation operation) {
+        if (enabled) {
+            errors[operation.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Register the MBean and schedule the log dump on a background thread
+     * Setting up the platform MBean server takes about as long as the rest of startup, so
+     * the MBean is registered a second later, once startup no longer needs the processor.
+     * @param logger Logger the snapshots are written to
+     * @param registerMBean Whether to register the JMX MBean
+     * @param dumpSeconds Seconds between snapshots in the log, 0 for none
+     */
+    public synchronized void start(Logger logger, boolean registerMBean, long dumpSeconds) {
+        if (publisher != null || (!registerMBean && dumpSeconds <= 0)) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "notes-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (registerMBean) {
+            executor.schedule(() -> {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+                } catch (JMException e) {
+                    logger.warning("Failed to register metrics MBean: " + e.getMessage());
+                }
+            }, REGISTER_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (dumpSeconds > 0) {
+            executor.scheduleAtFixedRate(() -> dump(logger), dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
+        publisher = executor;
+    }
+
+    /**
+     * Write a snapshot to the log, unless no operation ran since the last one
+     */
+    private void dump(Logger logger) {
+        long count = 0;
+        for (LatencyHistogram histogram : latencies) {
+            count += histogram.getCount();
+        }
+        if (count == lastDumpedCount) {
+            return;
+        }
+        lastDumpedCount = count;
+        logger.info("Metrics snapshot: " + toJson());
+    }
+
+    /**
+     * Describe every operation that ran, for the statistics screen
+     * @return One line per operation and one for the counters
+     */
+    public String describe() {
+        if (!enabled) {
+            return "Operation Latencies: disabled (notes.metrics=false)";
+        }
+        StringBuilder text = new StringBuilder("Operation Latencies:");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = latencies[operation.ordinal()].snapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            text.append(String.format("%n  %-8s %8d ops, %d errors, p50 %s, p99 %s, p99.9 %s, max %s",
+                operation.getDisplayName(), snapshot.getCount(), errors[operation.ordinal()].sum(),
+                formatNanos(snapshot.valueAt(0.50)), formatNanos(snapshot.valueAt(0.99)),
+                formatNanos(snapshot.valueAt(0.999)), formatNanos(snapshot.getMax())));
+        }
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, LongSupplier> counter : counters().entrySet()) {
+            line.append(line.length() == 0 ? "" : ", ")
+                .append(counter.getKey()).append(' ').append(counter.getValue().getAsLong());
+        }
+        if (line.length() > 0) {
+            text.append(String.format("%n  ")).append(line);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Describe every operation and counter as a JSON object
+     * @return JSON object keyed by operation name
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = latencies[operation.ordinal()].snapshot();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            Json.quote(json, operation.getDisplayName()).append(":{")
+                .append("\"count\":").append(snapshot.getCount())
+                .append(",\"errors\":").append(errors[operation.ordinal()].sum())
+                .append(",\"meanMicros\":").append(snapshot.getMean() / 1000)
+                .append(",\"p50Micros\":").append(snapshot.valueAt(0.50) / 1000)
+                .append(",\"p99Micros\":").append(snapshot.valueAt(0.99) / 1000)
+                .append(",\"p999Micros\":").append(snapshot.valueAt(0.999) / 1000)
+                .append(",\"maxMicros\":").append(snapshot.getMax() / 1000)
+                .append('}');
+        }
+        for (Map.Entry<String, LongSupplier> counter : counters().entrySet()) {
+            json.append(',');
+            Json.quote(json, counter.getKey()).append(':').append(counter.getValue().getAsLong());
+        }
+        return json.append('}').toString();
+    }
+
+    private synchronized Map<String, LongSupplier> counters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos >= 10_000_000L) {
+            return nanos / 1_000_000L + " ms";
+        }
+        return nanos / 1000 + " us";
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (attribute.equals("Enabled")) {
+            return enabled;
+        }
+        LongSupplier counter = counters().get(attribute);
+        if (counter != null) {
+            return counter.getAsLong();
+        }
+        for (Operation operation : Operation.values()) {
+            String name = operation.getDisplayName();
+            if (attribute.startsWith(name)) {
+                Long value = statistic(operation, attribute.substring(name.length()));
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    private Long statistic(Operation operation, String statistic) {
+        switch (statistic) {
+            case "Count":
+                return latencies[operation.ordinal()].getCount();
+            case "Errors":
+                return errors[operation.ordinal()].sum();
+            case "MeanMicros":
+                return latencies[operation.ordinal()].snapshot().getMean() / 1000;
+            case "P50Micros":
+                return latencies[operation.ordinal()].snapshot().valueAt(0.50) / 1000;
+            case "P99Micros":
+                return latencies[operation.ordinal()].snapshot().valueAt(0.99) / 1000;
+            case "P999Micros":
+                return latencies[operation.ordinal()].snapshot().valueAt(0.999) / 1000;
+            case "MaxMicros":
+                return latencies[operation.ordinal()].snapshot().getMax() / 1000;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException {
+        if (!attribute.getName().equals("Enabled")) {
+            throw new AttributeNotFoundException("Only Enabled can be set: " + attribute.getName());
+        }
+        if (!(attribute.getValue() instanceof Boolean)) {
+            throw new InvalidAttributeValueException("Enabled takes a boolean");
+        }
+        setEnabled((Boolean) attribute.getValue());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        AttributeList set = new AttributeList();
+        for (Attribute attribute : attributes.asList()) {
+            try {
+                setAttribute(attribute);
+                set.add(attribute);
+            } catch (AttributeNotFoundException | InvalidAttributeValueException e) {
+                // Left out of the result, as the DynamicMBean contract allows
+            }
+        }
+        return set;
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+        throw new MBeanException(new UnsupportedOperationException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Whether operations are recorded",
+            true, true, true));
+        for (Operation operation : Operation.values()) {
+            for (String statistic : STATISTICS) {
+                attributes.add(new MBeanAttributeInfo(operation.getDisplayName() + statistic, "long",
+                    operation.getDisplayName() + " " + statistic, true, false, false));
+            }
+        }
+        for (String counter : counters().keySet()) {
+            attributes.add(new MBeanAttributeInfo(counter, "long", counter, true, false, false));
+        }
+        return new MBeanInfo(NoteMetrics.class.getName(), "Notes App file operations",
+            attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,215 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Sorted views of the note headers for paged listing
+ * Each order is a sorted set of headers, so a page is a walk from a position in the set
+ * rather than a sort of the whole store. Pages continue from an opaque token holding the
+ * sort key of the last note returned, which keeps paging stable while notes are added or
+ * removed. Notes changed without a full header at hand (appends) are marked stale and
+ * refreshed before the next page is taken.
+ */
+public class NoteOrderIndex {
+    private static final String TOKEN_SEPARATOR = "\u0000";
+    private static final Comparator<NoteHeader> BY_FILE = Comparator.comparing(NoteHeader::getFileName);
+
+    public enum Order {
+        TITLE(Comparator.comparing(NoteHeader::getTitle, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(NoteHeader::getTitle).thenComparing(BY_FILE)),
+        CREATED(Comparator.comparing(NoteHeader::getCreatedAt).thenComparing(BY_FILE)),
+        MODIFIED(Comparator.comparing(NoteHeader::getModifiedAt).thenComparing(BY_FILE)),
+        RECENTLY_MODIFIED(Comparator.comparing(NoteHeader::getModifiedAt).reversed().thenComparing(BY_FILE));
+
+        private final Comparator<NoteHeader> comparator;
+
+        Order(Comparator<NoteHeader> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    private final Map<String, NoteHeader> headers = new HashMap<>();
+    private final Map<Order, NavigableSet<NoteHeader>> views = new HashMap<>();
+    private final Set<String> stale = new HashSet<>();
+    private boolean building;
+    private boolean built;
+
+    public NoteOrderIndex() {
+        for (Order order : Order.values()) {
+            views.put(order, new TreeSet<>(order.comparator));
+        }
+    }
+
+    /**
+     * Check whether the index has been filled
+     * @return true once build() has run
+     */
+    public synchronized boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Check whether saves must be reported, that is once a build has started
+     * @return true if record() and invalidate() are not ignored
+     */
+    public synchronized boolean isTracking() {
+        return built || building;
+    }
+
+    /**
+     * Start collecting changes before the headers for build() are read
+     * Notes saved while the headers are read are marked stale instead of being lost.
+     */
+    public synchronized void beginBuild() {
+        building = true;
+    }
+
+    /**
+     * Fill the index with the headers of every note
+     * @param allHeaders Headers of all notes
+     */
+    public synchronized void build(Collection<NoteHeader> allHeaders) {
+        headers.clear();
+        for (NavigableSet<NoteHeader> view : views.values()) {
+            view.clear();
+        }
+        for (NoteHeader header : allHeaders) {
+            put(header);
+        }
+        building = false;
+        built = true;
+    }
+
+    /**
+     * Record the current header of a note
+     * @param header The header
+     */
+    public synchronized void record(NoteHeader header) {
+        if (built) {
+            put(header);
+            stale.remove(header.getFileName());
+        } else if (building) {
+            stale.add(header.getFileName());
+        }
+    }
+
+    /**
+     * Mark a note whose header changed but is not at hand
+     * @param fileName Storage key of the note
+     */
+    public synchronized void invalidate(String fileName) {
+        if (built || building) {
+            stale.add(fileName);
+        }
+    }
+
+    /**
+     * Remove a deleted note
+     * @param fileName Storage key of the note
+     */
+    public synchronized void remove(String fileName) {
+        NoteHeader previous = headers.remove(fileName);
+        if (previous != null) {
+            for (NavigableSet<NoteHeader> view : views.values()) {
+                view.remove(previous);
+            }
+        }
+        if (building) {
+            stale.add(fileName);
+        } else {
+            stale.remove(fileName);
+        }
+    }
+
+    /**
+     * Take and clear the notes that must be refreshed before the next page
+     * @return Storage keys of stale notes
+     */
+    public synchronized List<String> drainStale() {
+        List<String> fileNames = new ArrayList<>(stale);
+        stale.clear();
+        return fileNames;
+    }
+
+    /**
+     * Headers following a position in the given order
+     * @param order Sort order
+     * @param after Header to continue after, or null to start at the beginning
+     * @param offset Number of headers to skip first
+     * @param limit Maximum number of headers
+     * @return Headers in order
+     */
+    public synchronized List<NoteHeader> page(Order order, NoteHeader after, int offset, int limit) {
+        NavigableSet<NoteHeader> view = views.get(order);
+        Iterator<NoteHeader> iterator = (after != null ? view.tailSet(after, false) : view).iterator();
+        for (int i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        List<NoteHeader> page = new ArrayList<>(Math.min(limit, headers.size()));
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    public synchronized int size() {
+        return headers.size();
+    }
+
+    /**
+     * Encode the position after a header as a continuation token
+     * @param order Sort order of the page
+     * @param last Last header of the page
+     * @return Opaque token
+     */
+    public static String encodeToken(Order order, NoteHeader last) {
+        String key = String.join(TOKEN_SEPARATOR, order.name(), last.getFileName(), last.getTitle(),
+            last.getCreatedAt().toString(), last.getModifiedAt().toString());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a continuation token into the header to continue after
+     * @param order Sort order the token must belong to
+     * @param token Token from a previous page
+     * @return Position to continue after
+     * @throws IllegalArgumentException if the token is malformed or from another order
+     */
+    public static NoteHeader decodeToken(Order order, String token) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(TOKEN_SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+        if (parts.length != 5 || !parts[0].equals(order.name())) {
+            throw new IllegalArgumentException("Continuation token does not belong to order " + order);
+        }
+        try {
+            return new NoteHeader(parts[1], parts[2], LocalDateTime.parse(parts[3]), LocalDateTime.parse(parts[4]), 0, 0, 0);
+        } catch (java.time.DateTimeException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+
+    private void put(NoteHeader header) {
+        NoteHeader previous = headers.put(header.getFileName(), header);
+        for (NavigableSet<NoteHeader> view : views.values()) {
+            if (previous != null) {
+                view.remove(previous);
+            }
+            view.add(header);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.List;
+
+/**
+ * One page of a sorted note listing
+ * The notes are read header-first: their content is only loaded when asked for.
+ */
+public class NotePage {
+    private final List<Note> notes;
+    private final String nextToken;
+    private final int totalNotes;
+
+    public NotePage(List<Note> notes, String nextToken, int totalNotes) {
+        this.notes = notes;
+        this.nextToken = nextToken;
+        this.totalNotes = totalNotes;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Token that continues the listing after this page
+     * @return Continuation token, or null if this is the last page
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    /**
+     * Number of notes in the whole listing
+     * @return note count
+     */
+    public int getTotalNotes() {
+        return totalNotes;
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches the stored bytes of every note for a literal or a regular expression, like grep
+ * Exact phrases, expressions and code cannot be answered from the word index, so the notes
+ * themselves are read, by worker threads that take the files in batches. Note files of at
+ * least the map threshold are memory-mapped; smaller ones are read into a buffer each worker
+ * reuses, since mapping a small file costs more than reading it and a mapping is only
+ * released by the garbage collector. With the segment backend, notes in sealed segments are
+ * searched inside the mapped segment. Only the title, body and appended text of a note are
+ * searched, and in place (see NoteCodec.textRegions()); a note whose body is compressed or
+ * chunked is decoded first.
+ */
+public class NoteScanner {
+    private static final int BATCH_SIZE = 64;
+    private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+    private static final String ELLIPSIS = "...";
+
+    private final NoteStorage storage;
+    private final int parallelism;
+    private final int mapThreshold;
+    private final int snippetBytes;
+
+    /**
+     * @param storage Storage backend the notes are read from
+     * @param parallelism Number of worker threads
+     * @param mapThreshold Size from which note files are memory-mapped rather than read
+     * @param snippetBytes Approximate length of the line excerpt returned for each hit
+     */
+    public NoteScanner(NoteStorage storage, int parallelism, long mapThreshold, int snippetBytes) {
+        this.storage = storage;
+        this.parallelism = Math.max(1, parallelism);
+        this.mapThreshold = (int) Math.min(Math.max(0, mapThreshold), Integer.MAX_VALUE);
+        this.snippetBytes = Math.max(1, snippetBytes);
+    }
+
+    /**
+     * Search notes for a pattern
+     * @param fileNames Note files in the order hits are returned
+     * @param matcher Matcher for the pattern; each worker uses a copy
+     * @param pattern The pattern as the user gave it, for the report
+     * @param maxHits Maximum number of matching notes to return
+     * @return Report with the first maxHits matching notes and the totals
+     * @throws IOException if the scan was interrupted or a worker failed
+     */
+    public ScanReport scan(List<String> fileNames, ByteMatcher matcher, String pattern, int maxHits) throws IOException {
+        long start = System.nanoTime();
+        ScanHit[] found = new ScanHit[fileNames.size()];
+        AtomicInteger nextBatch = new AtomicInteger();
+        int workerCount = Math.min(parallelism, (fileNames.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+
+        List<Worker> workers = new ArrayList<>();
+        if (workerCount <= 1) {
+            // Not worth the hand-off to another thread
+            workers.add(new Worker(fileNames, matcher.copy(), nextBatch, found, maxHits).call());
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+                Thread thread = new Thread(runnable, "note-scan");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Worker>> futures = new ArrayList<>();
+                for (int i = 0; i < workerCount; i++) {
+                    futures.add(executor.submit(new Worker(fileNames, matcher.copy(), nextBatch, found, maxHits)));
+                }
+                for (Future<Worker> future : futures) {
+                    workers.add(await(future));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        ScanReport report = new ScanReport(pattern);
+        for (Worker worker : workers) {
+            report.add(worker.scanned, worker.matched, worker.failed, worker.matches, worker.bytes);
+        }
+        // Each worker kept its first maxHits hits, and workers take batches in order, so
+        // the first maxHits hits overall are among them
+        for (int i = 0; i < found.length && report.getHits().size() < maxHits; i++) {
+            if (found[i] != null) {
+                report.addHit(found[i]);
+            }
+        }
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    private static Worker await(Future<Worker> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to scan notes: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan interrupted");
+        }
+    }
+
+    /**
+     * Scans batches of notes until none are left
+     * Every buffer it searches is a read-only direct buffer (mapped, or a copy in its read
+     * buffer), so the matcher's byte reads only ever see one ByteBuffer class and are inlined.
+     */
+    private class Worker implements Callable<Worker> {
+        private final List<String> fileNames;
+        private final ByteMatcher matcher;
+        private final AtomicInteger nextBatch;
+        private final ScanHit[] found;
+        private final int maxHits;
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_READ_BUFFER_SIZE);
+        int scanned;
+        int matched;
+        int failed;
+        long matches;
+        long bytes;
+
+        Worker(List<String> fileNames, ByteMatcher matcher, AtomicInteger nextBatch, ScanHit[] found, int maxHits) {
+            this.fileNames = fileNames;
+            this.matcher = matcher;
+            this.nextBatch = nextBatch;
+            this.found = found;
+            this.maxHits = maxHits;
+        }
+
+        @Override
+        public Worker call() {
+            for (long from = (long) nextBatch.getAndIncrement() * BATCH_SIZE; from < fileNames.size();
+                 from = (long) nextBatch.getAndIncrement() * BATCH_SIZE) {
+                int end = (int) Math.min(fileNames.size(), from + BATCH_SIZE);
+                for (int i = (int) from; i < end; i++) {
+                    try {
+                        scanNote(i, fileNames.get(i));
+                    } catch (FileNotFoundException | NoSuchFileException e) {
+                        // Deleted since the file list was taken
+                    } catch (IOException | RuntimeException e) {
+                        failed++;
+                    }
+                }
+            }
+            return this;
+        }
+
+        private void scanNote(int index, String fileName) throws IOException {
+            ByteBuffer data = open(fileName);
+            int[] regions = NoteCodec.textRegions(data, data.limit());
+            bytes += data.limit();
+            scanned++;
+            if (regions == null) {
+                // Compressed, chunked or legacy layout: search the decoded title and content
+                Note note = FileManager.loadNote(fileName);
+                byte[] title = note.getTitle().getBytes(StandardCharsets.UTF_8);
+                byte[] content = note.getContent().getBytes(StandardCharsets.UTF_8);
+                data = copy(title, content);
+                regions = new int[] {0, title.length, title.length + 1, title.length + 1 + content.length};
+            }
+
+            int count = 0;
+            int firstRegion = -1;
+            int firstStart = -1;
+            for (int r = 0; r < regions.length; r += 2) {
+                matcher.reset(data, regions[r], regions[r + 1]);
+                for (int from = regions[r], start; (start = matcher.find(from)) >= 0; ) {
+                    if (count++ == 0) {
+                        firstRegion = r;
+                        firstStart = start;
+                    }
+                    from = matcher.end() > start ? matcher.end() : start + 1;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+
+            matched++;
+            matches += count;
+            if (matched <= maxHits) {
+                String title = decode(data, regions[0], regions[1]);
+                matcher.reset(data, regions[firstRegion], regions[firstRegion + 1]);
+                found[index] = new ScanHit(fileName, title, count,
+                    excerpt(data, regions[firstRegion], regions[firstRegion + 1], firstStart));
+            }
+        }
+
+        /**
+         * The stored bytes of a note, mapped or read into the read buffer
+         */
+        private ByteBuffer open(String fileName) throws IOException {
+            if (storage instanceof FileNoteStorage) {
+                try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                    // Most notes fit the read buffer, so the size is only asked for when it fills up
+                    ByteBuffer buffer = readBuffer.clear();
+                    while (fill(channel, buffer)) {
+                        long size = channel.size();
+                        if (size > Integer.MAX_VALUE) {
+                            throw new IOException("Note file too large to scan: " + fileName);
+                        }
+                        if (size >= mapThreshold) {
+                            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        }
+                        // One byte more than the file, so the next read sees its end
+                        buffer = readBuffer(Math.max((int) size, buffer.capacity()) + 1).put(buffer.flip());
+                    }
+                    return buffer.flip().asReadOnlyBuffer();
+                }
+            }
+            if (storage instanceof SegmentNoteStorage) {
+                ByteBuffer view = ((SegmentNoteStorage) storage).mappedView(fileName);
+                if (view != null) {
+                    return view;
+                }
+            }
+            return copy(storage.read(fileName));
+        }
+
+        /**
+         * Read until the end of the file or of the buffer
+         * @return true if the buffer filled up before the end of the file was seen
+         */
+        private boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // The read buffer, cleared and limited to size; a larger one replaces it if needed
+        private ByteBuffer readBuffer(int size) {
+            if (readBuffer.capacity() < size) {
+                readBuffer = ByteBuffer.allocateDirect(Math.max(size, readBuffer.capacity() * 2));
+            }
+            readBuffer.clear().limit(size);
+            return readBuffer;
+        }
+
+        // Join the parts with a newline in the read buffer
+        private ByteBuffer copy(byte[]... parts) {
+            int size = parts.length - 1;
+            for (byte[] part : parts) {
+                size += part.length;
+            }
+            ByteBuffer buffer = readBuffer(size);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    buffer.put((byte) '\n');
+                }
+                buffer.put(parts[i]);
+            }
+            return buffer.flip().asReadOnlyBuffer();
+        }
+
+        /**
+         * The line around a match, cut to about snippetBytes, with its matches highlighted
+         * The matcher must have been reset to the region.
+         */
+        private NoteSnippet excerpt(ByteBuffer data, int regionStart, int regionEnd, int matchStart) {
+            matcher.find(matchStart);
+            int matchEnd = matcher.end();
+            int start = matchStart;
+            while (start > regionStart && data.get(start - 1) != '\n' && matchStart - start < snippetBytes / 2) {
+                start--;
+            }
+            int end = matchEnd;
+            while (end < regionEnd && data.get(end) != '\n' && end - start < snippetBytes) {
+                end++;
+            }
+            // Cut at spaces, which also keeps UTF-8 sequences whole
+            if (start > regionStart && data.get(start - 1) != '\n') {
+                while (start < matchStart && !isSpace(data.get(start - 1))) {
+                    start++;
+                }
+            }
+            if (end < regionEnd && data.get(end) != '\n') {
+                while (end > matchEnd && !isSpace(data.get(end))) {
+                    end--;
+                }
+            }
+
+            StringBuilder text = new StringBuilder(start > regionStart && data.get(start - 1) != '\n' ? ELLIPSIS : "");
+            List<int[]> highlights = new ArrayList<>();
+            int position = start;
+            for (int from = matchStart, match; (match = matcher.find(from)) >= 0 && matcher.end() <= end; ) {
+                int after = matcher.end();
+                if (after > match) {
+                    text.append(decode(data, position, match));
+                    int highlightStart = text.length();
+                    text.append(decode(data, match, after));
+                    highlights.add(new int[] {highlightStart, text.length()});
+                    position = after;
+                }
+                from = after > match ? after : match + 1;
+            }
+            text.append(decode(data, position, end));
+            if (end < regionEnd && data.get(end) != '\n') {
+                text.append(ELLIPSIS);
+            }
+            return NoteSnippet.highlighted(text.toString(), highlights);
+        }
+    }
+
+    private static boolean isSpace(byte value) {
+        return value == ' ' || value == '\t';
+    }
+
+    private static String decode(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        data.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8).replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Short excerpt of a note around the words a search matched
+ * The excerpt is the window of the content holding the most distinct query terms, cut at
+ * word boundaries, with the positions of the matched words kept so the caller can
+ * highlight them in whatever markup it uses.
+ */
+public class NoteSnippet {
+    private static final String ELLIPSIS = "...";
+    // Matches looked at when choosing the window; later ones rarely change the choice
+    private static final int MAX_MATCHES = 256;
+
+    private final String text;
+    private final List<int[]> highlights;
+
+    private NoteSnippet(String text, List<int[]> highlights) {
+        this.text = text;
+        this.highlights = highlights;
+    }
+
+    /**
+     * Excerpt a note's content around the query terms
+     * @param content Note content
+     * @param terms Lowercase query tokens, as SearchIndex.tokenize() returns them
+     * @param maxChars Approximate length of the excerpt
+     * @return The snippet; the start of the content if no term occurs in it
+     */
+    public static NoteSnippet of(String content, Collection<String> terms, int maxChars) {
+        String flat = content.replace('\n', ' ').replace('\r', ' ');
+        List<int[]> matches = findTerms(flat, terms);
+        if (matches.isEmpty()) {
+            int end = wordEnd(flat, Math.min(flat.length(), maxChars));
+            return new NoteSnippet(end < flat.length() ? flat.substring(0, end) + ELLIPSIS : flat,
+                Collections.emptyList());
+        }
+
+        // Start a quarter window before the match that begins the richest window
+        int best = 0;
+        int bestTerms = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            List<String> seen = new ArrayList<>();
+            for (int j = i; j < matches.size() && matches.get(j)[1] <= matches.get(i)[0] + maxChars; j++) {
+                String term = flat.substring(matches.get(j)[0], matches.get(j)[1]).toLowerCase(Locale.ROOT);
+                if (!seen.contains(term)) {
+                    seen.add(term);
+                }
+            }
+            if (seen.size() > bestTerms) {
+                best = i;
+                bestTerms = seen.size();
+            }
+        }
+        int start = wordStart(flat, Math.max(0, matches.get(best)[0] - maxChars / 4));
+        int end = wordEnd(flat, Math.min(flat.length(), start + maxChars));
+
+        String prefix = start > 0 ? ELLIPSIS : "";
+        List<int[]> highlights = new ArrayList<>();
+        for (int[] match : matches) {
+            if (match[0] >= start && match[1] <= end) {
+                highlights.add(new int[] {match[0] - start + prefix.length(), match[1] - start + prefix.length()});
+            }
+        }
+        String text = prefix + flat.substring(start, end) + (end < flat.length() ? ELLIPSIS : "");
+        return new NoteSnippet(text, highlights);
+    }
+
+    /**
+     * Snippet of an excerpt the caller has already cut, such as a line found by NoteScanner
+     * @param text Excerpt
+     * @param highlights Start and end offsets in text of each match
+     * @return The snippet
+     */
+    static NoteSnippet highlighted(String text, List<int[]> highlights) {
+        return new NoteSnippet(text, highlights);
+    }
+
+    /**
+     * Excerpt text without highlighting
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Start (inclusive) and end (exclusive) offsets in getText() of each matched word
+     */
+    public List<int[]> getHighlights() {
+        return highlights;
+    }
+
+    /**
+     * Excerpt with every matched word wrapped in the given markers
+     * @param open Marker before a matched word, for example "**"
+     * @param close Marker after a matched word
+     * @return Highlighted excerpt
+     */
+    public String render(String open, String close) {
+        StringBuilder rendered = new StringBuilder(text.length() + highlights.size() * (open.length() + close.length()));
+        int position = 0;
+        for (int[] highlight : highlights) {
+            rendered.append(text, position, highlight[0]).append(open)
+                .append(text, highlight[0], highlight[1]).append(close);
+            position = highlight[1];
+        }
+        return rendered.append(text, position, text.length()).toString();
+    }
+
+    @Override
+    public String toString() {
+        return render("**", "**");
+    }
+
+    /**
+     * Offsets of the tokens of text that are query terms, tokenized as SearchIndex does
+     */
+    private static List<int[]> findTerms(String text, Collection<String> terms) {
+        List<int[]> matches = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length() && matches.size() < MAX_MATCHES; i++) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                if (terms.contains(text.substring(start, i).toLowerCase(Locale.ROOT))) {
+                    matches.add(new int[] {start, i});
+                }
+                start = -1;
+            }
+        }
+        return matches;
+    }
+
+    // Move forward to the start of the next word unless already at one
+    private static int wordStart(String text, int index) {
+        if (index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1))) {
+            return index;
+        }
+        while (index < text.length() && Character.isLetterOrDigit(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    // Move back to the end of the previous word unless already at one
+    private static int wordEnd(String text, int index) {
+        if (index >= text.length() || !Character.isLetterOrDigit(text.charAt(index))) {
+            return index;
+        }
+        int end = index;
+        while (end > 0 && Character.isLetterOrDigit(text.charAt(end - 1))) {
+            end--;
+        }
+        return end > 0 ? end : index;
+    }
+}
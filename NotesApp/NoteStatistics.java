@@ -0,0 +1,205 @@
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Store statistics kept up to date by saves and deletes
+ * Count, byte total and the size histogram change in O(1) per operation; oldest and newest
+ * timestamps come from sorted multisets. Changes made outside the app are picked up by
+ * reconcile(), which only re-reads notes whose stored size or modification time moved.
+ */
+public class NoteStatistics {
+    private static final int HISTOGRAM_BUCKETS = 20;
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private final NoteStorage storage;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeMap<LocalDateTime, Integer> createdTimes = new TreeMap<>();
+    private final TreeMap<LocalDateTime, Integer> modifiedTimes = new TreeMap<>();
+    // Bucket 0 counts content under 64 bytes, bucket i counts [2^(i + 5), 2^(i + 6)); the last is open-ended
+    private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+    private long totalBytes;
+    private long lastReconciled;
+
+    private static class Entry {
+        final long storedSize;
+        final long storedModified;
+        final int contentLength;
+        final LocalDateTime created;
+        final LocalDateTime modified;
+
+        Entry(long storedSize, long storedModified, int contentLength, LocalDateTime created, LocalDateTime modified) {
+            this.storedSize = storedSize;
+            this.storedModified = storedModified;
+            this.contentLength = contentLength;
+            this.created = created;
+            this.modified = modified;
+        }
+    }
+
+    public NoteStatistics(NoteStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Record a note that was just written
+     * @param fileName Storage key of the note
+     * @param note The note as stored
+     */
+    public synchronized void recordSave(String fileName, Note note) {
+        replace(fileName, new Entry(storage.size(fileName), storage.lastModified(fileName),
+            NoteCodec.utf8Length(note.getContent()), note.getCreatedAt(), note.getModifiedAt()));
+    }
+
+    /**
+     * Record that a note's stored bytes changed without a full note at hand (append mode)
+     * The entry is re-read on the next reconciliation.
+     * @param fileName Storage key of the note
+     */
+    public synchronized void recordChange(String fileName) {
+        Entry entry = entries.get(fileName);
+        if (entry != null) {
+            replace(fileName, new Entry(storage.size(fileName), -1,
+                entry.contentLength, entry.created, entry.modified));
+        }
+    }
+
+    /**
+     * Record a deleted note
+     * @param fileName Storage key of the note
+     */
+    public synchronized void recordDelete(String fileName) {
+        replace(fileName, null);
+    }
+
+    /**
+     * Check whether the last reconciliation is older than the given age
+     * @param maxAgeMillis Maximum age in milliseconds
+     * @return true if a reconciliation is due
+     */
+    public synchronized boolean isStale(long maxAgeMillis) {
+        return System.currentTimeMillis() - lastReconciled > maxAgeMillis;
+    }
+
+    /**
+     * Bring the statistics in line with storage
+     * Only notes whose stored size or modification time changed are read again, and only
+     * their headers where possible. Headers are read without holding this object's lock,
+     * since reading takes note locks that writers hold while they report their saves here.
+     * @param fileNames Storage keys of all notes in the index
+     * @return Number of notes that had to be re-read
+     */
+    public int reconcile(Collection<String> fileNames) {
+        List<String> changed = new ArrayList<>();
+        synchronized (this) {
+            Set<String> live = new HashSet<>(fileNames);
+
+            for (String fileName : new HashSet<>(entries.keySet())) {
+                if (!live.contains(fileName)) {
+                    replace(fileName, null);
+                }
+            }
+
+            for (String fileName : live) {
+                Entry entry = entries.get(fileName);
+                if (!storage.exists(fileName)) {
+                    replace(fileName, null);
+                    continue;
+                }
+                if (entry == null || entry.storedSize != storage.size(fileName)
+                        || entry.storedModified != storage.lastModified(fileName)) {
+                    changed.add(fileName);
+                }
+            }
+        }
+
+        for (String fileName : changed) {
+            long size = storage.size(fileName);
+            long modified = storage.lastModified(fileName);
+            Entry entry = null;
+            try {
+                NoteHeader header = FileManager.loadHeader(fileName);
+                entry = new Entry(size, modified, (int) header.getContentLength(),
+                    header.getCreatedAt(), header.getModifiedAt());
+            } catch (Exception e) {
+                // Left out until it can be read again
+            }
+            synchronized (this) {
+                replace(fileName, entry);
+            }
+        }
+
+        synchronized (this) {
+            lastReconciled = System.currentTimeMillis();
+        }
+        return changed.size();
+    }
+
+    public synchronized int getNoteCount() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Describe the statistics for the statistics screen
+     * @return Statistics string
+     */
+    public synchronized String describe() {
+        StringBuilder result = new StringBuilder();
+        result.append("Total Notes: ").append(entries.size()).append("\n");
+        result.append("Note Bytes: ").append(totalBytes).append(" bytes\n");
+        if (!entries.isEmpty()) {
+            result.append("Oldest / Newest Created: ").append(createdTimes.firstKey().format(DISPLAY_FORMAT))
+                  .append(" / ").append(createdTimes.lastKey().format(DISPLAY_FORMAT)).append("\n");
+            result.append("Oldest / Newest Modified: ").append(modifiedTimes.firstKey().format(DISPLAY_FORMAT))
+                  .append(" / ").append(modifiedTimes.lastKey().format(DISPLAY_FORMAT)).append("\n");
+        }
+
+        result.append("Content Size Histogram:");
+        long lower = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            long upper = 1L << (i + 6);
+            if (histogram[i] > 0) {
+                String range = i == HISTOGRAM_BUCKETS - 1 ? ">= " + lower : lower + "-" + (upper - 1);
+                result.append("\n  ").append(range).append(" bytes: ").append(histogram[i]);
+            }
+            lower = upper;
+        }
+        return result.toString();
+    }
+
+    private void replace(String fileName, Entry entry) {
+        Entry previous = entry != null ? entries.put(fileName, entry) : entries.remove(fileName);
+        if (previous != null) {
+            totalBytes -= previous.storedSize;
+            histogram[bucket(previous.contentLength)]--;
+            decrement(createdTimes, previous.created);
+            decrement(modifiedTimes, previous.modified);
+        }
+        if (entry != null) {
+            totalBytes += entry.storedSize;
+            histogram[bucket(entry.contentLength)]++;
+            createdTimes.merge(entry.created, 1, Integer::sum);
+            modifiedTimes.merge(entry.modified, 1, Integer::sum);
+        }
+    }
+
+    private static int bucket(int contentLength) {
+        int bits = 32 - Integer.numberOfLeadingZeros(contentLength >> 6);
+        return Math.min(bits, HISTOGRAM_BUCKETS - 1);
+    }
+
+    private static void decrement(TreeMap<LocalDateTime, Integer> times, LocalDateTime time) {
+        times.computeIfPresent(time, (key, count) -> count > 1 ? count - 1 : null);
+    }
+}
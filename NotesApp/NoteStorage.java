@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Storage backend for serialized notes
+ * Keys are the note paths FileManager hands out (for example "notes/My_Note.txt");
+ * how the bytes are laid out on disk is up to the implementation.
+ */
+public interface NoteStorage {
+
+    /**
+     * Store the data for a key, replacing any previous value
+     * @param key Note key
+     * @param data Serialized note
+     * @throws IOException if the data cannot be written
+     */
+    void write(String key, byte[] data) throws IOException;
+
+    /**
+     * Add data after the current value of a key
+     * @param key Note key
+     * @param data Bytes to append
+     * @throws IOException if the data cannot be written
+     */
+    void append(String key, byte[] data) throws IOException;
+
+    /**
+     * Read the full value of a key
+     * @param key Note key
+     * @return Stored bytes
+     * @throws java.io.FileNotFoundException if the key does not exist
+     * @throws IOException if the data cannot be read
+     */
+    byte[] read(String key) throws IOException;
+
+    /**
+     * Read the leading bytes of a key, for header-only reads
+     * @param key Note key
+     * @param maxBytes Maximum number of bytes to read
+     * @return Up to maxBytes stored bytes, fewer if the value is shorter
+     * @throws java.io.FileNotFoundException if the key does not exist
+     * @throws IOException if the data cannot be read
+     */
+    byte[] readPrefix(String key, int maxBytes) throws IOException;
+
+    /**
+     * Remove a key
+     * @param key Note key
+     * @return true if the key existed and was removed
+     * @throws IOException if the removal cannot be recorded
+     */
+    boolean delete(String key) throws IOException;
+
+    boolean exists(String key);
+
+    /**
+     * Force the stored data of the given keys to disk
+     * @param keys Note keys written since the last sync
+     * @throws IOException if the data cannot be forced to disk
+     */
+    void sync(Collection<String> keys) throws IOException;
+
+    /**
+     * Last modification time of a key
+     * @param key Note key
+     * @return Milliseconds since the epoch, or 0 if the key does not exist
+     */
+    long lastModified(String key);
+
+    /**
+     * Stored size of a key
+     * @param key Note key
+     * @return Size in bytes, or 0 if the key does not exist
+     */
+    long size(String key);
+
+    /**
+     * Number of files the backend keeps on disk
+     * @return file count
+     */
+    int fileCount();
+
+    /**
+     * Bytes the backend occupies on disk
+     * @return total size in bytes
+     */
+    long totalBytes();
+
+    /**
+     * Short name of the backend for the statistics screen
+     * @return backend name
+     */
+    String getName();
+}
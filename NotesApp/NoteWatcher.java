@@ -0,0 +1,286 @@
+import java.io.*;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Change feed for note files edited outside the app (sync tools, editors)
+ * A WatchService reports changes to the notes directory. Events are collected until the
+ * directory has been quiet for the debounce interval, coalesced per file, and checked
+ * against the size and modification time last seen for the file, so subscribers get one
+ * created, modified or deleted change per file however many events a burst of edits caused.
+ * Writes the app reports through recordOwnChange() are not passed on. When the watch
+ * service drops events (overflow), the directory is reconciled by comparing each file's
+ * size and modification time, without reading any note.
+ */
+public class NoteWatcher {
+    // However busy the directory is, changes are reported at least this often
+    private static final int MAX_DEBOUNCE_ROUNDS = 10;
+    private static final int MAX_PENDING_FILES = 10_000;
+
+    private final Path directory;
+    private final String keyPrefix;
+    private final Predicate<String> filter;
+    private final long debounceMillis;
+    private final Map<String, FileState> known = new ConcurrentHashMap<>();
+    private final List<Consumer<List<NoteChange>>> subscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder changesReported = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private volatile WatchService watchService;
+
+    /**
+     * Size and modification time of a file when it was last seen
+     */
+    private static class FileState {
+        final long size;
+        final long lastModified;
+
+        FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean sameAs(FileState other) {
+            return other != null && size == other.size && lastModified == other.lastModified;
+        }
+    }
+
+    /**
+     * @param directory Directory holding the note files
+     * @param filter Tells which storage keys ("notes/name.txt") are notes
+     * @param debounceMillis How long the directory must be quiet before changes are reported
+     */
+    public NoteWatcher(String directory, Predicate<String> filter, long debounceMillis) {
+        this.directory = Paths.get(directory);
+        this.keyPrefix = directory + "/";
+        this.filter = filter;
+        this.debounceMillis = Math.max(1, debounceMillis);
+    }
+
+    /**
+     * Start watching on a background thread
+     * Files are only compared with what the watcher has seen, so the thread first records
+     * the current size and modification time of every note.
+     * @throws IOException if the directory cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        WatchService service = directory.getFileSystem().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchService = service;
+
+        Thread thread = new Thread(() -> run(service), "notes-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching
+     */
+    public synchronized void stop() {
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close watch service: " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return watchService != null;
+    }
+
+    /**
+     * Receive the changes of each burst of edits, in the watcher's thread
+     * @param subscriber Called with the changes, one per file
+     */
+    public void subscribe(Consumer<List<NoteChange>> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Record a write or delete made by the app, so it is not reported as a change
+     * @param fileName Storage key of the note
+     */
+    public void recordOwnChange(String fileName) {
+        FileState state = stat(fileName);
+        if (state != null) {
+            known.put(fileName, state);
+        } else {
+            known.remove(fileName);
+        }
+    }
+
+    /**
+     * Describe what the watcher has seen since startup
+     * @return Statistics line
+     */
+    public String describe() {
+        return "Change Feed: " + (isRunning() ? "watching " + known.size() + " note files" : "stopped") +
+               ", " + events.sum() + " events, " + changesReported.sum() + " changes reported, " +
+               overflows.sum() + " overflows";
+    }
+
+    private void run(WatchService service) {
+        try {
+            reconcile();
+            while (true) {
+                Set<String> pending = new LinkedHashSet<>();
+                boolean overflow = collect(service.take(), pending);
+                for (int round = 0; round < MAX_DEBOUNCE_ROUNDS && pending.size() < MAX_PENDING_FILES; round++) {
+                    WatchKey key = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    overflow |= collect(key, pending);
+                }
+
+                if (overflow) {
+                    overflows.increment();
+                    publish(reconcile());
+                } else {
+                    publish(check(pending));
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Stopped
+        } catch (IOException e) {
+            System.err.println("Note watcher stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add the files named by a key's events to the pending set
+     * @return true if events were lost
+     */
+    private boolean collect(WatchKey key, Set<String> pending) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            events.increment();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String fileName = keyPrefix + event.context();
+            if (filter.test(fileName)) {
+                pending.add(fileName);
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    /**
+     * Compare the pending files with what was last seen of them
+     */
+    private List<NoteChange> check(Set<String> fileNames) {
+        List<NoteChange> changes = new ArrayList<>();
+        for (String fileName : fileNames) {
+            NoteChange change = compare(fileName, stat(fileName));
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Compare every note file with what was last seen; files gone from the directory are deleted
+     */
+    private List<NoteChange> reconcile() throws IOException {
+        List<NoteChange> changes = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String fileName = keyPrefix + file.getFileName();
+                if (!filter.test(fileName)) {
+                    continue;
+                }
+                FileState state = stat(fileName);
+                if (state != null) {
+                    present.add(fileName);
+                }
+                NoteChange change = compare(fileName, state);
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+        }
+        for (String fileName : new ArrayList<>(known.keySet())) {
+            if (!present.contains(fileName)) {
+                NoteChange change = compare(fileName, stat(fileName));
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+        }
+        return changes;
+    }
+
+    private NoteChange compare(String fileName, FileState state) {
+        FileState previous = state != null ? known.put(fileName, state) : known.remove(fileName);
+        if (state == null) {
+            return previous != null ? new NoteChange(NoteChange.Kind.DELETED, fileName) : null;
+        }
+        if (state.sameAs(previous)) {
+            return null;
+        }
+        return new NoteChange(previous == null ? NoteChange.Kind.CREATED : NoteChange.Kind.MODIFIED, fileName);
+    }
+
+    private void publish(List<NoteChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        changesReported.add(changes.size());
+        for (Consumer<List<NoteChange>> subscriber : subscribers) {
+            try {
+                subscriber.accept(changes);
+            } catch (RuntimeException e) {
+                System.err.println("Note change subscriber failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // A file whose attributes cannot be read counts as unchanged
+    private FileState stat(String fileName) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(fileName), BasicFileAttributes.class);
+            return attributes.isRegularFile()
+                ? new FileState(attributes.size(), attributes.lastModifiedTime().toMillis())
+                : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to read file attributes: " + fileName + " - " + e.getMessage());
+            return known.get(fileName);
+        }
+    }
+}
@@ -7,8 +7,15 @@ import java.util.Scanner;
  */
 public class NotesApp {
     private static Scanner scanner = new Scanner(System.in);
+    private static final int PAGE_SIZE = 20;
+    private static final int SEARCH_RESULTS = 10;
     
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            runServer(args);
+            return;
+        }
+        
         System.out.println("=== Welcome to Java Notes App ===");
         System.out.println("A File I/O demonstration with exception handling");
         
@@ -48,7 +55,11 @@ public class NotesApp {
                     case 10:
                         demonstrateExceptionHandling();
                         break;
+                    case 11:
+                        importNotes();
+                        break;
                     case 0:
+                        FileManager.closeWrites();
                         System.out.println("Thank you for using Notes App!");
                         System.out.println("All your notes are safely saved to files.");
                         return;
@@ -69,6 +80,26 @@ public class NotesApp {
         }
     }
     
+    /**
+     * Serve the HTTP API on 127.0.0.1 instead of showing the menu
+     * Usage: java NotesApp --server [port] (default notes.http.port or 8080)
+     * @param args Command line arguments
+     */
+    private static void runServer(String[] args) {
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("notes.http.port", 8080);
+            NotesServer server = new NotesServer(port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1), "notes-http-shutdown"));
+            System.out.println("Notes API listening on http://127.0.0.1:" + server.getAddress().getPort() +
+                " (Ctrl+C to stop)");
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid port: " + args[1]);
+        } catch (Exception e) {
+            System.err.println("Failed to start the HTTP server: " + e.getMessage());
+        }
+    }
+    
     private static void displayMenu() {
         System.out.println("\n" + "=".repeat(60));
         System.out.println("              NOTES APP - FILE I/O DEMO");
@@ -83,6 +114,7 @@ public class NotesApp {
         System.out.println("8.  Search Notes");
         System.out.println("9.  Show App Statistics");
         System.out.println("10. Demonstrate Exception Handling");
+        System.out.println("11. Import Notes");
         System.out.println("0.  Exit");
         System.out.println("=".repeat(60));
         System.out.print("Enter your choice: ");
@@ -140,20 +172,46 @@ public class NotesApp {
         System.out.println("\n=== All Notes ===");
         
         try {
-            List<Note> notes = FileManager.readAllNotes();
-            
-            if (notes.isEmpty()) {
-                System.out.println("No notes found. Create your first note!");
-                return;
-            }
-            
-            System.out.println("Found " + notes.size() + " note(s):\n");
-            
-            for (int i = 0; i < notes.size(); i++) {
-                System.out.println("--- Note " + (i + 1) + " ---");
-                System.out.println(notes.get(i));
-                System.out.println();
+            System.out.println("Sort by: 1. Title  2. Created  3. Recently modified");
+            System.out.print("Choose order (default 1): ");
+            String choice = scanner.nextLine().trim();
+            NoteOrderIndex.Order order = choice.equals("2") ? NoteOrderIndex.Order.CREATED
+                                       : choice.equals("3") ? NoteOrderIndex.Order.RECENTLY_MODIFIED
+                                       : NoteOrderIndex.Order.TITLE;
+            
+            // Notes are listed a page at a time and only their headers are read
+            String token = null;
+            int shown = 0;
+            while (true) {
+                NotePage page = FileManager.listNotes(order, token, PAGE_SIZE);
+                if (page.getTotalNotes() == 0) {
+                    System.out.println("No notes found. Create your first note!");
+                    return;
+                }
+                if (shown == 0) {
+                    System.out.println("Found " + page.getTotalNotes() + " note(s):\n");
+                }
+                
+                for (Note note : page.getNotes()) {
+                    shown++;
+                    System.out.println("--- Note " + shown + " ---");
+                    System.out.println("Title: " + note.getTitle());
+                    System.out.println("Created: " + note.getFormattedCreatedDate());
+                    System.out.println("Modified: " + note.getFormattedModifiedDate());
+                    System.out.println();
+                }
+                
+                if (!page.hasNext()) {
+                    break;
+                }
+                System.out.print("Showing " + shown + " of " + page.getTotalNotes() +
+                                 ". Press Enter for more or 'q' to stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    break;
+                }
+                token = page.getNextToken();
             }
+            System.out.println("Use 'Read Specific Note' to see a note's content.");
             
         } catch (Exception e) {
             System.err.println("Error reading notes: " + e.getMessage());
@@ -165,16 +223,12 @@ public class NotesApp {
         
         try {
             System.out.print("Enter note title: ");
-            String title = scanner.nextLine().trim();
-            
-            String fileName = "notes/" + sanitizeFileName(title) + ".txt";
-            Note note = FileManager.readNote(fileName);
+            String title = resolveTitle(scanner.nextLine().trim());
+            Note note = title != null ? FileManager.findNote(title) : null;
             
             if (note != null) {
                 System.out.println("\n--- Note Found ---");
                 System.out.println(note);
-            } else {
-                System.out.println("Note not found: " + title);
             }
             
         } catch (Exception e) {
@@ -187,13 +241,10 @@ public class NotesApp {
         
         try {
             System.out.print("Enter note title to edit: ");
-            String title = scanner.nextLine().trim();
-            
-            String fileName = "notes/" + sanitizeFileName(title) + ".txt";
-            Note note = FileManager.readNote(fileName);
+            String title = resolveTitle(scanner.nextLine().trim());
+            Note note = title != null ? FileManager.findNote(title) : null;
             
             if (note == null) {
-                System.out.println("Note not found: " + title);
                 return;
             }
             
@@ -210,11 +261,36 @@ public class NotesApp {
             
             note.setContent(newContent.toString().trim());
             
-            // Save the edited note (overwrite mode)
-            if (FileManager.saveNote(note, false)) {
+            // Only saved if nobody changed the note while it was being edited
+            if (FileManager.saveNoteIfUnchanged(note)) {
                 System.out.println("✓ Note updated successfully!");
-            } else {
+                return;
+            }
+            
+            Note current = FileManager.findNote(title);
+            if (current == null) {
+                System.out.println("✗ The note was deleted while you were editing it; your edit was not saved.");
+                return;
+            }
+            if (current.getVersion() == note.getVersion()) {
                 System.out.println("✗ Failed to update note.");
+                return;
+            }
+            
+            System.out.println("\n✗ The note was changed while you were editing it. It now reads:");
+            System.out.println(current);
+            System.out.print("Overwrite it with your edit? (y/N): ");
+            String confirmation = scanner.nextLine().trim().toLowerCase();
+            if (!confirmation.equals("y") && !confirmation.equals("yes")) {
+                System.out.println("Edit discarded.");
+                return;
+            }
+            
+            current.setContent(note.getContent());
+            if (FileManager.saveNoteIfUnchanged(current)) {
+                System.out.println("✓ Note updated successfully!");
+            } else {
+                System.out.println("✗ The note changed again; your edit was not saved.");
             }
             
         } catch (Exception e) {
@@ -227,7 +303,10 @@ public class NotesApp {
         
         try {
             System.out.print("Enter note title to delete: ");
-            String title = scanner.nextLine().trim();
+            String title = resolveTitle(scanner.nextLine().trim());
+            if (title == null) {
+                return;
+            }
             
             System.out.print("Are you sure you want to delete '" + title + "'? (y/N): ");
             String confirmation = scanner.nextLine().trim().toLowerCase();
@@ -252,13 +331,10 @@ public class NotesApp {
         
         try {
             System.out.print("Enter note title to append to: ");
-            String title = scanner.nextLine().trim();
-            
-            String fileName = "notes/" + sanitizeFileName(title) + ".txt";
-            Note existingNote = FileManager.readNote(fileName);
+            String title = resolveTitle(scanner.nextLine().trim());
+            Note existingNote = title != null ? FileManager.findNote(title) : null;
             
             if (existingNote == null) {
-                System.out.println("Note not found: " + title);
                 return;
             }
             
@@ -299,8 +375,22 @@ public class NotesApp {
             
             fileName += ".txt";
             
-            if (FileManager.exportAllNotes(fileName)) {
-                System.out.println("✓ Notes exported successfully to: " + fileName);
+            System.out.print("Compression (none/gzip/deflate) [none]: ");
+            String compressionInput = scanner.nextLine().trim();
+            NoteExporter.Compression compression = compressionInput.isEmpty()
+                ? NoteExporter.Compression.NONE
+                : NoteExporter.Compression.valueOf(compressionInput.toUpperCase());
+            
+            System.out.print("Only notes modified in the last N hours (blank for all): ");
+            String hoursInput = scanner.nextLine().trim();
+            long modifiedSince = hoursInput.isEmpty()
+                ? 0
+                : System.currentTimeMillis() - Long.parseLong(hoursInput) * 3_600_000L;
+            
+            ExportReport report = FileManager.exportNotes(fileName, compression, modifiedSince);
+            if (report != null) {
+                System.out.println("✓ Notes exported successfully to: " + report.getExportPath());
+                System.out.println(report);
             } else {
                 System.out.println("✗ Failed to export notes.");
             }
@@ -310,28 +400,67 @@ public class NotesApp {
         }
     }
     
+    private static void importNotes() {
+        System.out.println("\n=== Import Notes ===");
+        
+        try {
+            System.out.print("Enter export file or directory of note files to import: ");
+            String source = scanner.nextLine().trim();
+            
+            if (source.isEmpty()) {
+                throw new IllegalArgumentException("Import source cannot be empty!");
+            }
+            
+            ImportReport report = FileManager.importNotes(source, progress ->
+                System.out.printf("\rImported %d of %d note(s), %.0f notes/s", progress.getNotesImported(),
+                    progress.getNotesRead(), progress.getNotesPerSecond()));
+            System.out.println();
+            if (report != null) {
+                System.out.println("✓ Import finished.");
+                System.out.println(report);
+            } else {
+                System.out.println("✗ Failed to import notes. Check the logs for details.");
+            }
+            
+        } catch (IllegalArgumentException e) {
+            System.err.println("Input Error: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Error importing notes: " + e.getMessage());
+        }
+    }
+    
     private static void searchNotes() {
         System.out.println("\n=== Search Notes ===");
         
         try {
+            System.out.print("Search by (1) words, ranked, (2) exact text, (3) regular expression [1]: ");
+            String mode = scanner.nextLine().trim();
+            if (mode.equals("2") || mode.equals("3")) {
+                scanNotes(mode.equals("3"));
+                return;
+            }
+            
+            System.out.println("Words must all match; separate alternatives with OR.");
             System.out.print("Enter search term: ");
-            String searchTerm = scanner.nextLine().trim().toLowerCase();
+            String searchTerm = scanner.nextLine().trim();
             
-            List<Note> allNotes = FileManager.readAllNotes();
-            List<Note> matchingNotes = allNotes.stream()
-                .filter(note -> note.getTitle().toLowerCase().contains(searchTerm) ||
-                               note.getContent().toLowerCase().contains(searchTerm))
-                .toList();
+            SearchReport report = FileManager.searchRanked(searchTerm, SEARCH_RESULTS);
             
-            if (matchingNotes.isEmpty()) {
+            if (report.getHits().isEmpty()) {
                 System.out.println("No notes found containing: " + searchTerm);
             } else {
-                System.out.println("Found " + matchingNotes.size() + " matching note(s):\n");
-                for (int i = 0; i < matchingNotes.size(); i++) {
-                    System.out.println("--- Match " + (i + 1) + " ---");
-                    System.out.println(matchingNotes.get(i));
+                System.out.println(String.format("Found %d matching note(s) in %.1f ms, most relevant first:%n",
+                    report.getTotalMatches(), report.getElapsedMicros() / 1000.0));
+                for (int i = 0; i < report.getHits().size(); i++) {
+                    SearchHit hit = report.getHits().get(i);
+                    System.out.println(String.format("--- %d. %s (score %.2f) ---", i + 1,
+                        hit.getNote().getTitle(), hit.getScore()));
+                    System.out.println(hit.getSnippet().render("[", "]"));
                     System.out.println();
                 }
+                if (report.getTotalMatches() > report.getHits().size()) {
+                    System.out.println("Showing the best " + report.getHits().size() + "; add words to narrow the search.");
+                }
             }
             
         } catch (Exception e) {
@@ -339,6 +468,48 @@ public class NotesApp {
         }
     }
     
+    private static void scanNotes(boolean regex) {
+        try {
+            System.out.print(regex ? "Enter regular expression: " : "Enter exact text: ");
+            String pattern = scanner.nextLine();
+            
+            if (pattern.trim().isEmpty()) {
+                throw new IllegalArgumentException("Search text cannot be empty!");
+            }
+            
+            System.out.print("Match case? (y/n) [n]: ");
+            boolean ignoreCase = !scanner.nextLine().trim().equalsIgnoreCase("y");
+            
+            ScanReport report = FileManager.scanNotes(pattern, regex, ignoreCase, SEARCH_RESULTS);
+            if (report == null) {
+                System.out.println("✗ Failed to search notes. Check the logs for details.");
+                return;
+            }
+            
+            if (report.getHits().isEmpty()) {
+                System.out.println("No notes found containing: " + pattern);
+            } else {
+                System.out.println(String.format("Found %d match(es) in %d note(s) in %.1f ms (%.0f MB/s):%n",
+                    report.getMatches(), report.getNotesMatched(), report.getElapsedMicros() / 1000.0,
+                    report.getThroughputMBps()));
+                for (int i = 0; i < report.getHits().size(); i++) {
+                    ScanHit hit = report.getHits().get(i);
+                    System.out.println(String.format("--- %d. %s (%d match%s) ---", i + 1, hit.getTitle(),
+                        hit.getMatchCount(), hit.getMatchCount() == 1 ? "" : "es"));
+                    System.out.println(hit.getSnippet().render("[", "]"));
+                    System.out.println();
+                }
+                if (report.getNotesMatched() > report.getHits().size()) {
+                    System.out.println("Showing the first " + report.getHits().size() + " notes.");
+                }
+            }
+            
+        } catch (IllegalArgumentException e) {
+            // Also covers an invalid regular expression
+            System.err.println("Input Error: " + e.getMessage());
+        }
+    }
+    
     private static void showStatistics() {
         System.out.println("\n" + FileManager.getAppStatistics());
     }
@@ -398,7 +569,37 @@ public class NotesApp {
         }
     }
     
-    private static String sanitizeFileName(String fileName) {
-        return fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
+    /**
+     * Resolve what the user typed to an existing title
+     * Exact titles are used as they are; otherwise titles starting with the input or
+     * close to it are offered to pick from.
+     * @param input Title as typed
+     * @return The chosen title, or null if none was found or chosen
+     */
+    private static String resolveTitle(String input) {
+        if (FileManager.noteExists(input)) {
+            return input;
+        }
+        
+        List<String> suggestions = FileManager.suggestTitles(input, 5);
+        if (suggestions.isEmpty()) {
+            System.out.println("Note not found: " + input);
+            return null;
+        }
+        
+        System.out.println("No note titled '" + input + "'. Did you mean:");
+        for (int i = 0; i < suggestions.size(); i++) {
+            System.out.println("  " + (i + 1) + ". " + suggestions.get(i));
+        }
+        System.out.print("Choose a number (Enter to cancel): ");
+        try {
+            int choice = Integer.parseInt(scanner.nextLine().trim());
+            if (choice >= 1 && choice <= suggestions.size()) {
+                return suggestions.get(choice - 1);
+            }
+        } catch (NumberFormatException e) {
+            // Anything but a valid number cancels
+        }
+        return null;
     }
 }
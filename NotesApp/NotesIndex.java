@@ -0,0 +1,636 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory title -> file index backed by an append-only log and a binary snapshot
+ * The log holds one upsert or delete record per change; once it grows past the number of
+ * live entries, or past the snapshot interval, it is folded into the snapshot by a
+ * background thread, so loading only replays the records written since the last snapshot.
+ * The log doubles as a write-ahead log: before a note file is created for a new title, or
+ * deleted, an intent record names the title and file, and the upsert or delete record that
+ * follows commits it. An intent left open by a crash is settled by recover(), which only
+ * checks the files the open intents name.
+ * Log lines written before this format ("title:fileName") are still understood.
+ * The snapshot is forced to disk before it replaces the old one and ends with a checksum. A
+ * snapshot that still fails to read is rebuilt from the notes in storage (rebuild()), and no
+ * compaction runs until then, so a torn snapshot never becomes the only copy of the index.
+ * Titles are also kept in a trie for completion and fuzzy lookup, and new titles are given
+ * file names no other title uses, so titles that sanitize alike no longer share a file. The
+ * trie and the titles of each file are built when first needed rather than on load.
+ * Writers are serialized by the object's lock; lookups go to a concurrent copy of the
+ * entries and listings to a snapshot rebuilt after changes, so readers never wait for a
+ * writer's log append.
+ */
+public class NotesIndex {
+    private static final int SNAPSHOT_MAGIC = 0x4E494458; // "NIDX"
+    // Version 1 wrote titles with writeUTF, which cannot hold more than 64 KB
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final String UPSERT_RECORD = "U";
+    private static final String DELETE_RECORD = "D";
+    private static final String WRITE_INTENT_RECORD = "I";
+    private static final String DELETE_INTENT_RECORD = "X";
+    private static final String ABORT_RECORD = "A";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+
+    private final String logFile;
+    private final String snapshotFile;
+    private final String notesDirectory;
+    private final int snapshotRecords;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+    // Written under the lock along with entries, read without it
+    private final Map<String, String> lookup = new ConcurrentHashMap<>();
+    private volatile List<String> fileNamesView;
+    private final TitleTrie titles = new TitleTrie();
+    private volatile boolean titlesBuilt;
+    // Titles per file name, to tell which names are taken; null until first needed
+    private Map<String, Set<String>> fileTitles;
+    // File names handed out for titles whose first save has not been indexed yet
+    private final Map<String, String> reserved = new HashMap<>();
+    private final Set<String> reservedFiles = new HashSet<>();
+    // Intent records not yet followed by a record for the same title, in log order
+    private final LinkedHashMap<String, String> openIntents = new LinkedHashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "notes-index-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int logRecords;
+    private boolean compactionScheduled;
+    private boolean snapshotDamaged;
+
+    public NotesIndex(String logFile, String snapshotFile, String notesDirectory, int snapshotRecords) {
+        this.logFile = logFile;
+        this.snapshotFile = snapshotFile;
+        this.notesDirectory = notesDirectory;
+        this.snapshotRecords = Math.max(MIN_RECORDS_BEFORE_COMPACTION, snapshotRecords);
+    }
+
+    /**
+     * Load the snapshot and replay the log records written after it
+     * If the snapshot cannot be read, only the logs are replayed and needsRebuild() is true.
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        openIntents.clear();
+        logRecords = 0;
+        snapshotDamaged = false;
+
+        if (new File(snapshotFile).exists()) {
+            try {
+                readSnapshot();
+            } catch (IOException e) {
+                System.err.println("Notes index snapshot is damaged, the index will be rebuilt: " + e.getMessage());
+                entries.clear();
+                snapshotDamaged = true;
+            }
+        }
+        // A log rotated by an interrupted compaction still holds records the snapshot may lack
+        replayLog(logFile + ".old", false);
+        replayLog(logFile, true);
+
+        lookup.clear();
+        lookup.putAll(entries);
+        fileNamesView = null;
+        titles.clear();
+        titlesBuilt = false;
+        fileTitles = null;
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Check whether load() found the snapshot damaged, so the index lacks the notes it held
+     * @return true if rebuild() has to be called
+     */
+    public synchronized boolean needsRebuild() {
+        return snapshotDamaged;
+    }
+
+    /**
+     * Add the notes found in storage to an index whose snapshot could not be read
+     * Titles the logs already index keep their file; the others are logged as upserts. A new
+     * snapshot should be written with compact() afterwards.
+     * @param stored Titles and file paths of the notes in storage
+     * @return Number of titles added
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized int rebuild(Map<String, String> stored) throws IOException {
+        Map<String, String> added = new LinkedHashMap<>();
+        List<String> records = new ArrayList<>();
+        for (Map.Entry<String, String> note : stored.entrySet()) {
+            if (!entries.containsKey(note.getKey())) {
+                added.put(note.getKey(), note.getValue());
+                records.add(UPSERT_RECORD + "\t" + escape(note.getKey()) + "\t" + note.getValue());
+            }
+        }
+        if (!records.isEmpty()) {
+            appendRecords(records, true);
+        }
+        for (Map.Entry<String, String> note : added.entrySet()) {
+            track(note.getKey(), entries.put(note.getKey(), note.getValue()), note.getValue());
+            lookup.put(note.getKey(), note.getValue());
+        }
+        fileNamesView = null;
+        snapshotDamaged = false;
+        return added.size();
+    }
+
+    /**
+     * Settle the intents a crash left open, after load()
+     * A write intent is committed if its file holds the note, a delete intent if its file is
+     * gone; any other intent is aborted. Each outcome is logged, so it is settled only once.
+     * @param stored Tells whether a file holds the note with a title (title, file name)
+     * @return Files of the committed intents, whose notes were written or deleted
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized List<String> recover(BiPredicate<String, String> stored) throws IOException {
+        if (openIntents.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> committed = new ArrayList<>();
+        Map<String, String> upserts = new LinkedHashMap<>();
+        List<String> deletes = new ArrayList<>();
+        List<String> records = new ArrayList<>();
+        for (Map.Entry<String, String> intent : openIntents.entrySet()) {
+            String title = intent.getKey();
+            String[] parts = intent.getValue().split("\t", 3);
+            boolean exists = stored.test(title, parts[2]);
+            if (parts[0].equals(WRITE_INTENT_RECORD) && exists) {
+                upserts.put(title, parts[2]);
+                committed.add(parts[2]);
+                records.add(UPSERT_RECORD + "\t" + escape(title) + "\t" + parts[2]);
+            } else if (parts[0].equals(DELETE_INTENT_RECORD) && !exists && parts[2].equals(entries.get(title))) {
+                deletes.add(title);
+                committed.add(parts[2]);
+                records.add(DELETE_RECORD + "\t" + escape(title));
+            } else {
+                records.add(ABORT_RECORD + "\t" + escape(title));
+            }
+        }
+        appendRecords(records, true);
+
+        for (Map.Entry<String, String> upsert : upserts.entrySet()) {
+            track(upsert.getKey(), entries.put(upsert.getKey(), upsert.getValue()), upsert.getValue());
+            lookup.put(upsert.getKey(), upsert.getValue());
+        }
+        for (String title : deletes) {
+            track(title, entries.remove(title), null);
+            lookup.remove(title);
+        }
+        openIntents.clear();
+        fileNamesView = null;
+        return committed;
+    }
+
+    /**
+     * Log the intent to create note files for titles that are new or move to another file
+     * Must be called before the files are written; putAll() commits the intents.
+     * @param writes Note titles and the file paths about to be written
+     * @param sync Whether to force the log to disk before returning
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void logWriteIntents(Map<String, String> writes, boolean sync) throws IOException {
+        Map<String, String> records = new LinkedHashMap<>();
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            String title = write.getKey();
+            String record = WRITE_INTENT_RECORD + "\t" + escape(title) + "\t" + write.getValue();
+            if (!write.getValue().equals(entries.get(title)) && !record.equals(openIntents.get(title))) {
+                records.put(title, record);
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        appendRecords(new ArrayList<>(records.values()), sync);
+        openIntents.putAll(records);
+    }
+
+    /**
+     * Log the intent to delete a note's file; remove() commits it
+     * @param title Note title
+     * @param sync Whether to force the log to disk before returning
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void logDeleteIntent(String title, boolean sync) throws IOException {
+        String fileName = entries.get(title);
+        if (fileName == null) {
+            return;
+        }
+        String record = DELETE_INTENT_RECORD + "\t" + escape(title) + "\t" + fileName;
+        appendRecords(Collections.singletonList(record), sync);
+        openIntents.put(title, record);
+    }
+
+    /**
+     * Look up the file of a note
+     * @param title Note title
+     * @return File path or null if the title is not indexed
+     */
+    public String get(String title) {
+        return lookup.get(title);
+    }
+
+    /**
+     * File name for a title: its indexed file, or a new name no other title uses
+     * The new name is reserved until the title is indexed or removed.
+     * @param title Note title
+     * @param baseName Sanitized title to build the file name from
+     * @return File path of the note
+     */
+    public synchronized String resolveFileName(String title, String baseName) {
+        String fileName = entries.get(title);
+        if (fileName == null) {
+            fileName = reserved.get(title);
+        }
+        if (fileName != null) {
+            return fileName;
+        }
+
+        String stem = notesDirectory + "/" + baseName;
+        fileName = stem + ".txt";
+        Map<String, Set<String>> taken = fileTitles();
+        for (int suffix = 2; taken.containsKey(fileName) || reservedFiles.contains(fileName); suffix++) {
+            fileName = stem + "-" + suffix + ".txt";
+        }
+        reserved.put(title, fileName);
+        reservedFiles.add(fileName);
+        return fileName;
+    }
+
+    /**
+     * Titles indexed to a file; more than one only for notes saved before titles got their
+     * own file names
+     * @param fileName File path of the note
+     * @return The titles, possibly none
+     */
+    public synchronized List<String> titlesOf(String fileName) {
+        Set<String> fileNameTitles = fileTitles().get(fileName);
+        return fileNameTitles != null ? new ArrayList<>(fileNameTitles) : Collections.emptyList();
+    }
+
+    /**
+     * Titles starting with a prefix, ignoring case
+     * @param prefix Start of the title
+     * @param limit Maximum number of titles
+     * @return Matching titles in alphabetical order
+     */
+    public List<String> completeTitle(String prefix, int limit) {
+        return titles().complete(prefix, limit);
+    }
+
+    /**
+     * Titles within a number of edits of a query, ignoring case
+     * @param query Title as typed
+     * @param maxEdits Largest edit distance to accept
+     * @param limit Maximum number of titles
+     * @return Matching titles, closest first
+     */
+    public List<String> findSimilarTitles(String query, int maxEdits, int limit) {
+        return titles().findSimilar(query, maxEdits, limit);
+    }
+
+    /**
+     * Add or update an entry; unchanged entries are not logged again
+     * @param title Note title
+     * @param fileName File path of the note
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void put(String title, String fileName) throws IOException {
+        putAll(Collections.singletonMap(title, fileName), false);
+    }
+
+    /**
+     * Add or update several entries with a single log write
+     * @param updates Note titles and their file paths
+     * @param sync Whether to force the log to disk before returning
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void putAll(Map<String, String> updates, boolean sync) throws IOException {
+        List<String> records = new ArrayList<>();
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            if (!update.getValue().equals(entries.get(update.getKey()))) {
+                records.add(UPSERT_RECORD + "\t" + escape(update.getKey()) + "\t" + update.getValue());
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        appendRecords(records, sync);
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            track(update.getKey(), entries.put(update.getKey(), update.getValue()), update.getValue());
+            lookup.put(update.getKey(), update.getValue());
+            openIntents.remove(update.getKey());
+        }
+        fileNamesView = null;
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Remove an entry
+     * @param title Note title
+     * @return true if the title was indexed
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized boolean remove(String title) throws IOException {
+        String reservation = reserved.remove(title);
+        if (reservation != null) {
+            reservedFiles.remove(reservation);
+        }
+        if (!entries.containsKey(title)) {
+            return false;
+        }
+        appendRecords(Collections.singletonList(DELETE_RECORD + "\t" + escape(title)), false);
+        track(title, entries.remove(title), null);
+        lookup.remove(title);
+        openIntents.remove(title);
+        fileNamesView = null;
+        scheduleCompactionIfNeeded();
+        return true;
+    }
+
+    /**
+     * Distinct note files in index order
+     * The list is shared between callers until the index changes, so it is read-only.
+     * @return List of file paths
+     */
+    public List<String> fileNames() {
+        List<String> view = fileNamesView;
+        if (view == null) {
+            synchronized (this) {
+                view = fileNamesView;
+                if (view == null) {
+                    view = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(entries.values())));
+                    fileNamesView = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Number of indexed titles
+     * @return entry count
+     */
+    public int size() {
+        return lookup.size();
+    }
+
+    /**
+     * Fold the log into a new snapshot
+     * The log is rotated under the lock so writers are only blocked while the entries are copied.
+     * Open intents are carried over into the new log, since the snapshot does not hold them.
+     * The rotated log is only deleted once the new snapshot and its name are on disk.
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void compact() throws IOException {
+        Map<String, String> copy;
+        File rotatedLog = new File(logFile + ".old");
+        synchronized (this) {
+            compactionScheduled = false;
+            if (snapshotDamaged) {
+                throw new IOException("Notes index has to be rebuilt before it is compacted");
+            }
+            copy = new LinkedHashMap<>(entries);
+            File log = new File(logFile);
+            logRecords = 0;
+            if (log.exists() && !rotatedLog.exists()) {
+                Files.move(log.toPath(), rotatedLog.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                if (!openIntents.isEmpty()) {
+                    appendRecords(new ArrayList<>(openIntents.values()), false);
+                }
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(body);
+        entryOut.writeInt(copy.size());
+        for (Map.Entry<String, String> entry : copy.entrySet()) {
+            writeString(entryOut, entry.getKey());
+            writeString(entryOut, entry.getValue());
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray());
+
+        File tempFile = new File(snapshotFile + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            body.writeTo(out);
+            out.writeInt((int) checksum.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), Paths.get(snapshotFile),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(new File(snapshotFile).getAbsoluteFile().getParentFile());
+        Files.deleteIfExists(rotatedLog.toPath());
+    }
+
+    // Keep the trie, titles per file and reservations in line with a changed entry
+    private void track(String title, String previousFile, String newFile) {
+        if (previousFile != null && fileTitles != null) {
+            Set<String> previousTitles = fileTitles.get(previousFile);
+            if (previousTitles != null && previousTitles.remove(title) && previousTitles.isEmpty()) {
+                fileTitles.remove(previousFile);
+            }
+        }
+        if (newFile != null) {
+            if (fileTitles != null) {
+                fileTitles.computeIfAbsent(newFile, file -> new HashSet<>(1)).add(title);
+            }
+            if (titlesBuilt) {
+                titles.add(title);
+            }
+            String reservation = reserved.remove(title);
+            if (reservation != null) {
+                reservedFiles.remove(reservation);
+            }
+        } else if (titlesBuilt) {
+            titles.remove(title);
+        }
+    }
+
+    private TitleTrie titles() {
+        if (!titlesBuilt) {
+            synchronized (this) {
+                if (!titlesBuilt) {
+                    for (String title : entries.keySet()) {
+                        titles.add(title);
+                    }
+                    titlesBuilt = true;
+                }
+            }
+        }
+        return titles;
+    }
+
+    private Map<String, Set<String>> fileTitles() {
+        if (fileTitles == null) {
+            fileTitles = new HashMap<>();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                fileTitles.computeIfAbsent(entry.getValue(), file -> new HashSet<>(1)).add(entry.getKey());
+            }
+        }
+        return fileTitles;
+    }
+
+    private void readSnapshot() throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(snapshotFile));
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != SNAPSHOT_MAGIC || (version != 1 && version != SNAPSHOT_VERSION)) {
+                throw new IOException("Invalid notes index snapshot: " + snapshotFile);
+            }
+            if (version == SNAPSHOT_VERSION) {
+                CRC32 checksum = new CRC32();
+                checksum.update(data, 8, Math.max(0, data.length - 12));
+                if (data.length < 16 || (int) checksum.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+                    throw new IOException("Notes index snapshot checksum does not match: " + snapshotFile);
+                }
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String title = version == 1 ? in.readUTF() : readString(in);
+                entries.put(title, version == 1 ? in.readUTF() : readString(in));
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length in notes index snapshot: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Renames and deletes are only durable once the directory itself is forced
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory; their file systems order this themselves
+        }
+    }
+
+    private void replayLog(String fileName, boolean countRecords) throws IOException {
+        if (!new File(fileName).exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t", 3);
+                if (parts.length == 3 && parts[0].equals(UPSERT_RECORD)) {
+                    String title = unescape(parts[1]);
+                    entries.put(title, parts[2]);
+                    openIntents.remove(title);
+                } else if (parts.length == 2 && (parts[0].equals(DELETE_RECORD) || parts[0].equals(ABORT_RECORD))) {
+                    String title = unescape(parts[1]);
+                    if (parts[0].equals(DELETE_RECORD)) {
+                        entries.remove(title);
+                    }
+                    openIntents.remove(title);
+                } else if (parts.length == 3 && (parts[0].equals(WRITE_INTENT_RECORD)
+                           || parts[0].equals(DELETE_INTENT_RECORD))) {
+                    openIntents.put(unescape(parts[1]), line);
+                } else {
+                    replayLegacyLine(line);
+                }
+                if (countRecords) {
+                    logRecords++;
+                }
+            }
+        }
+    }
+
+    // Legacy lines are "title:fileName"; the title itself may contain colons
+    private void replayLegacyLine(String line) {
+        int separator = line.lastIndexOf(":" + notesDirectory + "/");
+        if (separator > 0) {
+            entries.put(line.substring(0, separator), line.substring(separator + 1).trim());
+        }
+    }
+
+    private void appendRecords(List<String> records, boolean sync) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String record : records) {
+            text.append(record).append('\n');
+        }
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        logRecords += records.size();
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (compactionScheduled || snapshotDamaged || logRecords < MIN_RECORDS_BEFORE_COMPACTION
+            || (logRecords <= entries.size() && logRecords < snapshotRecords)) {
+            return;
+        }
+        compactionScheduled = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Failed to compact notes index: " + e.getMessage());
+            }
+        });
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,514 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP API for the notes store, bound to the loopback interface only
+ * Every request runs on its own virtual thread where the JVM has them (a bounded pool
+ * otherwise) and calls the same FileManager operations as the console menu.
+ *
+ *   POST   /notes                  {"title", "content"}       create; 409 if the title exists
+ *   GET    /notes?order=&amp;limit=&amp;token=                         list one page of note headers
+ *   GET    /notes/{title}                                      read
+ *   PUT    /notes/{title}          {"content", "version"?}    update; with a version, 409 if it moved
+ *   POST   /notes/{title}/append   {"content"}                append
+ *   DELETE /notes/{title}                                      delete
+ *   GET    /search?q=&amp;limit=                               ranked search with highlighted snippets
+ *   GET    /search?q=&amp;mode=text|regex&amp;matchCase=           scan every note for exact text or a regex
+ *   POST   /export                 {"fileName", "compression"?, "modifiedSince"?}
+ *   GET    /stats                                              store statistics, operation and endpoint latencies
+ *
+ * Titles in paths are URL-encoded. Responses have a known length, so connections are kept
+ * alive between requests. Request bodies over notes.http.maxBodyBytes are refused with 413.
+ */
+public class NotesServer {
+    // Same logger as FileManager, so server records go to the app log
+    private static final Logger logger = Logger.getLogger(FileManager.class.getName());
+    private static final int MAX_BODY_BYTES = Integer.getInteger("notes.http.maxBodyBytes", 1024 * 1024);
+    private static final int PLATFORM_THREADS = Integer.getInteger("notes.http.threads", 64);
+    private static final int BACKLOG = 1024;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    static {
+        // Headers and body go out as separate writes; with Nagle's algorithm on, each
+        // keep-alive response waits for the client's delayed ACK (about 40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final EndpointMetrics metrics = new EndpointMetrics();
+
+    /**
+     * Error reported to the client with a status code and a JSON message
+     */
+    static class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param port Port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public NotesServer(int port) throws IOException {
+        // Load the store before taking requests, so the first ones do not pay for it
+        FileManager.flushWrites();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        executor = NoteLoader.newIoExecutor("notes-http", PLATFORM_THREADS);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Notes API listening on " + getAddress());
+    }
+
+    /**
+     * Stop accepting requests, give running ones a moment to finish and flush queued saves
+     * @param delaySeconds Longest time to wait for running requests
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        FileManager.flushWrites();
+        logger.info("Notes API stopped");
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public EndpointMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String endpoint = "unknown";
+        int status;
+        String body;
+        try {
+            String[] route = route(exchange);
+            endpoint = route[0];
+            body = dispatch(exchange, endpoint, route[1]);
+            status = "create".equals(endpoint) ? 201 : 200;
+        } catch (ApiException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (Exception e) {
+            status = 500;
+            body = error("Internal error: " + e.getMessage());
+            logger.log(Level.SEVERE, "HTTP request failed: " + exchange.getRequestURI(), e);
+        }
+
+        try {
+            send(exchange, status, body);
+        } finally {
+            metrics.record(endpoint, System.nanoTime() - start, status);
+        }
+    }
+
+    /**
+     * Map a request to an endpoint name and the title in its path
+     * @return Endpoint name and title (or null)
+     */
+    private static String[] route(HttpExchange exchange) {
+        String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+        String path = exchange.getRequestURI().getRawPath();
+
+        if (path.equals("/notes") || path.equals("/notes/")) {
+            return new String[] {endpoint(method, "GET", "list", "POST", "create"), null};
+        }
+        if (path.startsWith("/notes/")) {
+            String rest = path.substring("/notes/".length());
+            if (rest.endsWith("/append")) {
+                String title = decode(rest.substring(0, rest.length() - "/append".length()));
+                return new String[] {endpoint(method, "POST", "append"), title};
+            }
+            if (rest.indexOf('/') >= 0) {
+                throw new ApiException(404, "No such endpoint: " + path);
+            }
+            return new String[] {endpoint(method, "GET", "read", "PUT", "update", "DELETE", "delete"), decode(rest)};
+        }
+        switch (path) {
+            case "/search":
+                return new String[] {endpoint(method, "GET", "search"), null};
+            case "/export":
+                return new String[] {endpoint(method, "POST", "export"), null};
+            case "/stats":
+                return new String[] {endpoint(method, "GET", "stats"), null};
+            default:
+                throw new ApiException(404, "No such endpoint: " + path);
+        }
+    }
+
+    // Pairs of method and endpoint name; anything else is 405
+    private static String endpoint(String method, String... methodsAndNames) {
+        for (int i = 0; i < methodsAndNames.length; i += 2) {
+            if (methodsAndNames[i].equals(method)) {
+                return methodsAndNames[i + 1];
+            }
+        }
+        throw new ApiException(405, "Method not allowed: " + method);
+    }
+
+    private String dispatch(HttpExchange exchange, String endpoint, String title) throws IOException {
+        switch (endpoint) {
+            case "create":
+                return create(readObject(exchange));
+            case "list":
+                return list(query(exchange));
+            case "read":
+                return noteJson(requireNote(title), true);
+            case "update":
+                return update(title, readObject(exchange));
+            case "append":
+                return append(title, readObject(exchange));
+            case "delete":
+                return delete(title);
+            case "search":
+                return search(query(exchange));
+            case "export":
+                return export(readObject(exchange));
+            case "stats":
+                return stats();
+            default:
+                throw new ApiException(404, "No such endpoint");
+        }
+    }
+
+    private String create(Map<String, Object> request) {
+        String title = requireString(request, "title");
+        if (title.trim().isEmpty()) {
+            throw new IllegalArgumentException("Note title cannot be empty");
+        }
+        Note note = new Note(title, optionalString(request, "content", ""));
+        // A new note has version 0, so this only succeeds while the title is free
+        if (!FileManager.saveNoteIfUnchanged(note)) {
+            throw new ApiException(409, "A note with this title already exists");
+        }
+        return noteJson(note, true);
+    }
+
+    private String update(String title, Map<String, Object> request) {
+        Note note = requireNote(title);
+        note.setContent(requireString(request, "content"));
+        Object version = request.get("version");
+        if (version == null) {
+            if (!FileManager.saveNote(note, false)) {
+                throw new ApiException(500, "Failed to save note");
+            }
+            return noteJson(note, true);
+        }
+        if (!(version instanceof Long)) {
+            throw new IllegalArgumentException("version must be an integer");
+        }
+        note.setVersion((Long) version);
+        if (!FileManager.saveNoteIfUnchanged(note)) {
+            throw new ApiException(409, "The note changed since version " + version);
+        }
+        return noteJson(note, true);
+    }
+
+    private String append(String title, Map<String, Object> request) {
+        requireNote(title);
+        if (!FileManager.saveNote(new Note(title, requireString(request, "content")), true)) {
+            throw new ApiException(500, "Failed to append to note");
+        }
+        return noteJson(requireNote(title), true);
+    }
+
+    private String delete(String title) {
+        if (!FileManager.noteExists(title) || !FileManager.deleteNote(title)) {
+            throw new ApiException(404, "No note with this title");
+        }
+        StringBuilder json = new StringBuilder("{\"deleted\":");
+        return Json.quote(json, title).append('}').toString();
+    }
+
+    private String list(Map<String, String> query) {
+        NoteOrderIndex.Order order = parseOrder(query.getOrDefault("order", "title"));
+        int limit = Math.min(MAX_PAGE_SIZE, parseInt(query.get("limit"), DEFAULT_PAGE_SIZE));
+        NotePage page = FileManager.listNotes(order, query.get("token"), Math.max(1, limit));
+
+        StringBuilder json = new StringBuilder("{\"notes\":[");
+        appendNotes(json, page.getNotes());
+        json.append("],\"nextToken\":");
+        Json.quote(json, page.getNextToken());
+        return json.append(",\"total\":").append(page.getTotalNotes()).append('}').toString();
+    }
+
+    private String search(Map<String, String> query) {
+        String words = query.get("q");
+        if (words == null || words.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query parameter q is required");
+        }
+        int limit = Math.min(MAX_PAGE_SIZE, parseInt(query.get("limit"), DEFAULT_PAGE_SIZE));
+        String mode = query.getOrDefault("mode", "words");
+        if (mode.equals("text") || mode.equals("regex")) {
+            return scan(words, mode, Boolean.parseBoolean(query.get("matchCase")), limit);
+        }
+        if (!mode.equals("words")) {
+            throw new IllegalArgumentException("mode must be words, text or regex");
+        }
+        SearchReport report = FileManager.searchRanked(words, limit);
+        StringBuilder json = new StringBuilder("{\"query\":");
+        Json.quote(json, words).append(",\"count\":").append(report.getHits().size())
+            .append(",\"matches\":").append(report.getTotalMatches())
+            .append(",\"tookMicros\":").append(report.getElapsedMicros())
+            .append(",\"notes\":[");
+        for (int i = 0; i < report.getHits().size(); i++) {
+            SearchHit hit = report.getHits().get(i);
+            String note = noteJson(hit.getNote(), false);
+            if (i > 0) {
+                json.append(',');
+            }
+            // The note's listing fields, plus its score and snippet
+            json.append(note, 0, note.length() - 1)
+                .append(",\"score\":").append(String.format(Locale.ROOT, "%.4f", hit.getScore()));
+            appendSnippet(json, hit.getSnippet()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    // Text and regex searches read every note, so only the title and the matched line are returned
+    private String scan(String pattern, String mode, boolean matchCase, int limit) {
+        ScanReport report = FileManager.scanNotes(pattern, mode.equals("regex"), !matchCase, limit);
+        if (report == null) {
+            throw new ApiException(500, "Failed to scan notes");
+        }
+        StringBuilder json = new StringBuilder("{\"query\":");
+        Json.quote(json, pattern).append(",\"mode\":");
+        Json.quote(json, mode).append(",\"count\":").append(report.getHits().size())
+            .append(",\"matches\":").append(report.getNotesMatched())
+            .append(",\"occurrences\":").append(report.getMatches())
+            .append(",\"notesScanned\":").append(report.getNotesScanned())
+            .append(",\"bytesScanned\":").append(report.getBytesScanned())
+            .append(",\"tookMicros\":").append(report.getElapsedMicros())
+            .append(",\"notes\":[");
+        for (int i = 0; i < report.getHits().size(); i++) {
+            ScanHit hit = report.getHits().get(i);
+            json.append(i > 0 ? ",{\"title\":" : "{\"title\":");
+            Json.quote(json, hit.getTitle()).append(",\"matchCount\":").append(hit.getMatchCount());
+            appendSnippet(json, hit.getSnippet()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static StringBuilder appendSnippet(StringBuilder json, NoteSnippet snippet) {
+        json.append(",\"snippet\":");
+        Json.quote(json, snippet.getText()).append(",\"highlights\":[");
+        List<int[]> highlights = snippet.getHighlights();
+        for (int h = 0; h < highlights.size(); h++) {
+            json.append(h > 0 ? ",[" : "[").append(highlights.get(h)[0]).append(',')
+                .append(highlights.get(h)[1]).append(']');
+        }
+        return json.append(']');
+    }
+
+    private String export(Map<String, Object> request) {
+        String fileName = requireString(request, "fileName");
+        if (!fileName.matches("[a-zA-Z0-9._-]+")) {
+            throw new IllegalArgumentException("fileName may only hold letters, digits, '.', '_' and '-'");
+        }
+        NoteExporter.Compression compression;
+        try {
+            compression = NoteExporter.Compression.valueOf(
+                optionalString(request, "compression", "none").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("compression must be none, gzip or deflate");
+        }
+        Object since = request.get("modifiedSince");
+        if (since != null && !(since instanceof Long)) {
+            throw new IllegalArgumentException("modifiedSince must be epoch milliseconds");
+        }
+
+        ExportReport report = FileManager.exportNotes(fileName, compression, since != null ? (Long) since : 0);
+        if (report == null) {
+            throw new ApiException(500, "Export failed");
+        }
+        StringBuilder json = new StringBuilder("{\"exportPath\":");
+        Json.quote(json, report.getExportPath())
+            .append(",\"notesExported\":").append(report.getNotesExported())
+            .append(",\"notesFailed\":").append(report.getNotesFailed())
+            .append(",\"bytesRead\":").append(report.getBytesRead())
+            .append(",\"bytesWritten\":").append(report.getBytesWritten())
+            .append(",\"elapsedMillis\":").append(report.getElapsedMillis());
+        return json.append('}').toString();
+    }
+
+    private String stats() {
+        StringBuilder json = new StringBuilder("{\"statistics\":");
+        Json.quote(json, FileManager.getAppStatistics());
+        json.append(",\"operations\":").append(FileManager.getMetrics().toJson());
+        return json.append(",\"endpoints\":").append(metrics.toJson()).append('}').toString();
+    }
+
+    private static Note requireNote(String title) {
+        Note note = FileManager.findNote(title);
+        if (note == null) {
+            throw new ApiException(404, "No note with this title");
+        }
+        return note;
+    }
+
+    private static void appendNotes(StringBuilder json, List<Note> notes) {
+        for (int i = 0; i < notes.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            // Listings leave the content out, so notes read header-first stay unread
+            json.append(noteJson(notes.get(i), false));
+        }
+    }
+
+    private static String noteJson(Note note, boolean withContent) {
+        StringBuilder json = new StringBuilder("{\"title\":");
+        Json.quote(json, note.getTitle());
+        NoteCodec.appendTimestamp(json.append(",\"created\":\""), note.getCreatedAt()).append('"');
+        NoteCodec.appendTimestamp(json.append(",\"modified\":\""), note.getModifiedAt()).append('"');
+        json.append(",\"version\":").append(note.getVersion());
+        if (withContent) {
+            Json.quote(json.append(",\"content\":"), note.getContent());
+        }
+        return json.append('}').toString();
+    }
+
+    private static String error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+
+    /**
+     * Read the request body as a JSON object, refusing bodies over the size limit
+     */
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null && parseLong(declared) > MAX_BODY_BYTES) {
+            throw new ApiException(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+        }
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            // Bodies without a length (chunked) are cut off one byte past the limit
+            body = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            throw new ApiException(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+        }
+        return Json.parseObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        if (status == 413) {
+            // The rest of an oversized body is not read, so the connection cannot be reused
+            headers.set("Connection", "close");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : raw.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+            } else if (!pair.isEmpty()) {
+                parameters.put(decode(pair), "");
+            }
+        }
+        return parameters;
+    }
+
+    private static NoteOrderIndex.Order parseOrder(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "title":
+                return NoteOrderIndex.Order.TITLE;
+            case "created":
+                return NoteOrderIndex.Order.CREATED;
+            case "modified":
+                return NoteOrderIndex.Order.MODIFIED;
+            case "recent":
+                return NoteOrderIndex.Order.RECENTLY_MODIFIED;
+            default:
+                throw new IllegalArgumentException("order must be title, created, modified or recent");
+        }
+    }
+
+    private static String requireString(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " is required and must be a string");
+        }
+        return (String) value;
+    }
+
+    private static String optionalString(Map<String, Object> request, String name, String fallback) {
+        Object value = request.get(name);
+        if (value == null) {
+            return fallback;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid Content-Length: " + value);
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * One note found by a text or pattern scan: how often it matched and where first
+ */
+public class ScanHit {
+    private final String fileName;
+    private final String title;
+    private final int matchCount;
+    private final NoteSnippet snippet;
+
+    public ScanHit(String fileName, String title, int matchCount, NoteSnippet snippet) {
+        this.fileName = fileName;
+        this.title = title;
+        this.matchCount = matchCount;
+        this.snippet = snippet;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Number of non-overlapping matches in the title, body and appended text
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * The line holding the first match, with the matches in it highlighted
+     */
+    public NoteSnippet getSnippet() {
+        return snippet;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d match%s)%n%s", title, matchCount, matchCount == 1 ? "" : "es", snippet);
+    }
+}
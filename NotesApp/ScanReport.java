@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a text or pattern scan: the notes found and how fast the store was read
+ */
+public class ScanReport {
+    private final String pattern;
+    private final List<ScanHit> hits = new ArrayList<>();
+    private int notesScanned;
+    private int notesMatched;
+    private int notesFailed;
+    private long matches;
+    private long bytesScanned;
+    private long elapsedNanos;
+
+    public ScanReport(String pattern) {
+        this.pattern = pattern;
+    }
+
+    void add(int scanned, int matched, int failed, long matchCount, long bytes) {
+        notesScanned += scanned;
+        notesMatched += matched;
+        notesFailed += failed;
+        matches += matchCount;
+        bytesScanned += bytes;
+    }
+
+    void addHit(ScanHit hit) {
+        hits.add(hit);
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Matching notes in notes index order, up to the limit the scan was given
+     */
+    public List<ScanHit> getHits() {
+        return hits;
+    }
+
+    public int getNotesScanned() {
+        return notesScanned;
+    }
+
+    /**
+     * Number of notes that matched, of which getHits() holds the first
+     */
+    public int getNotesMatched() {
+        return notesMatched;
+    }
+
+    public int getNotesFailed() {
+        return notesFailed;
+    }
+
+    public long getMatches() {
+        return matches;
+    }
+
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    public long getElapsedMicros() {
+        return elapsedNanos / 1000;
+    }
+
+    /**
+     * Rate at which stored note bytes were searched
+     * @return Throughput in MB/s
+     */
+    public double getThroughputMBps() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return (bytesScanned / (1024.0 * 1024.0)) / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "Scan for '" + pattern + "' matched " + matches + " time(s) in " + notesMatched + " of " +
+               notesScanned + " note(s)" + (notesFailed > 0 ? " (" + notesFailed + " failed)" : "") +
+               String.format(" in %.2f ms: %d bytes, %.2f MB/s", elapsedNanos / 1e6, bytesScanned, getThroughputMBps());
+    }
+}
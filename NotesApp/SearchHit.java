@@ -0,0 +1,31 @@
+/**
+ * One ranked search result: the note, its BM25 score and a highlighted excerpt
+ */
+public class SearchHit {
+    private final Note note;
+    private final double score;
+    private final NoteSnippet snippet;
+
+    public SearchHit(Note note, double score, NoteSnippet snippet) {
+        this.note = note;
+        this.score = score;
+        this.snippet = snippet;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public NoteSnippet getSnippet() {
+        return snippet;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (score %.2f)%n%s", note.getTitle(), score, snippet);
+    }
+}
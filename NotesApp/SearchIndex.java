@@ -0,0 +1,632 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Token-level inverted index used to answer note searches
+ * Each term maps to the note files that contain it, so a query only opens the matching files.
+ * Changes are appended to a log file and replayed on load; the log is compacted when it
+ * holds more stale records than live ones.
+ * The log can be replayed on a background thread; searches and updates made meanwhile wait
+ * for it to finish.
+ * Each note also keeps how often every term occurs in its title and body, and how many
+ * tokens each holds, so matches can be ranked with BM25. Title occurrences count
+ * titleBoost times, as if the title were repeated in the body (the BM25F simplification).
+ */
+public class SearchIndex {
+    // First line of the log; logs written before term frequencies were kept have none, and
+    // version 2 logs were written in the platform charset, which can lose non-ASCII terms
+    private static final String FORMAT_HEADER = "#search-index 3";
+    private static final String ADD_RECORD = "+";
+    private static final String REMOVE_RECORD = "-";
+    private static final String OR_OPERATOR = "OR";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+    // Frequencies are packed as (body << TITLE_BITS) | title, so small counts share cached Integers
+    private static final int TITLE_BITS = 3;
+    private static final int MAX_TITLE_FREQUENCY = (1 << TITLE_BITS) - 1;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Candidates scored by one fork-join task before it stops splitting
+    private static final int SCORE_BATCH = 2048;
+
+    private final String indexFile;
+    private final double titleBoost;
+    private final Map<String, Set<String>> postings = new HashMap<>();
+    private final Map<String, Document> documents = new HashMap<>();
+    private long totalTitleLength;
+    private long totalBodyLength;
+    private int logRecords;
+    private boolean headerWritten;
+    private StringBuilder pendingRecords;
+    private int pendingCount;
+    private boolean loading;
+
+    /**
+     * Term frequencies and token counts of one note
+     */
+    private static class Document {
+        final Map<String, Integer> frequencies;
+        final int titleLength;
+        final int bodyLength;
+
+        Document(Map<String, Integer> frequencies, int titleLength, int bodyLength) {
+            this.frequencies = frequencies;
+            this.titleLength = titleLength;
+            this.bodyLength = bodyLength;
+        }
+    }
+
+    /**
+     * A note file and its BM25 score
+     */
+    public static class Match {
+        private final String fileName;
+        private final double score;
+
+        Match(String fileName, double score) {
+            this.fileName = fileName;
+            this.score = score;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * The best matches of a query, best first
+     */
+    public static class Ranking {
+        private final List<Match> matches;
+        private final int totalMatches;
+        private final Set<String> terms;
+
+        Ranking(List<Match> matches, int totalMatches, Set<String> terms) {
+            this.matches = matches;
+            this.totalMatches = totalMatches;
+            this.terms = terms;
+        }
+
+        public List<Match> getMatches() {
+            return matches;
+        }
+
+        /**
+         * Number of notes that matched, of which getMatches() holds the best
+         */
+        public int getTotalMatches() {
+            return totalMatches;
+        }
+
+        /**
+         * Tokens of the query, for highlighting
+         */
+        public Set<String> getTerms() {
+            return terms;
+        }
+    }
+
+    // Worst match first, so a bounded queue drops it; equal scores keep the first file name
+    private static final Comparator<Match> RANK_ORDER = Comparator.comparingDouble(Match::getScore)
+        .thenComparing(Match::getFileName, Comparator.reverseOrder());
+
+    /**
+     * @param indexFile Log file of the index
+     * @param titleBoost How many body occurrences a title occurrence of a term is worth
+     */
+    public SearchIndex(String indexFile, double titleBoost) {
+        this.indexFile = indexFile;
+        this.titleBoost = titleBoost;
+    }
+
+    /**
+     * Check whether the index has been persisted before
+     * @return true if the index file exists
+     */
+    public boolean exists() {
+        return new File(indexFile).exists();
+    }
+
+    /**
+     * Check whether the log was written with term frequencies
+     * Older logs only list the terms of each note and must be rebuilt with clear().
+     * @return true if the log starts with the current format header
+     */
+    public boolean hasCurrentFormat() {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(indexFile), StandardCharsets.UTF_8)) {
+            return FORMAT_HEADER.equals(reader.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Drop every note and delete the log, so the index can be rebuilt
+     */
+    public synchronized void clear() {
+        awaitLoad();
+        postings.clear();
+        documents.clear();
+        totalTitleLength = 0;
+        totalBodyLength = 0;
+        logRecords = 0;
+        headerWritten = false;
+        new File(indexFile).delete();
+    }
+
+    /**
+     * Load the index by replaying the log file
+     * @throws IOException if the index file cannot be read
+     */
+    public synchronized void load() throws IOException {
+        postings.clear();
+        documents.clear();
+        totalTitleLength = 0;
+        totalBodyLength = 0;
+        logRecords = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(indexFile), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    headerWritten |= line.equals(FORMAT_HEADER);
+                    continue;
+                }
+                String[] parts = line.split("\t", 4);
+                if (parts[0].equals(ADD_RECORD) && parts.length >= 3) {
+                    replaceDocument(parts[1], parseDocument(parts[2], parts.length == 4 ? parts[3] : ""));
+                } else if (parts[0].equals(REMOVE_RECORD) && parts.length >= 2) {
+                    replaceDocument(parts[1], null);
+                }
+                logRecords++;
+            }
+        }
+    }
+
+    /**
+     * Load the index on a background thread, so startup does not wait for the replay
+     */
+    public synchronized void loadInBackground() {
+        loading = true;
+        Thread loader = new Thread(() -> {
+            synchronized (this) {
+                try {
+                    load();
+                } catch (IOException e) {
+                    System.err.println("Failed to load search index: " + e.getMessage());
+                } finally {
+                    loading = false;
+                    notifyAll();
+                }
+            }
+        }, "search-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Add or update the terms of a note
+     * @param fileName File path of the note
+     * @param note The note to index
+     * @param merge Whether to keep the terms already indexed for the file (append mode)
+     */
+    public synchronized void indexNote(String fileName, Note note, boolean merge) {
+        awaitLoad();
+        Document previous = merge ? documents.get(fileName) : null;
+        Map<String, Integer> frequencies = previous != null ? new HashMap<>(previous.frequencies) : new HashMap<>();
+        List<String> body = tokenize(note.getContent());
+        for (String term : body) {
+            frequencies.merge(term, 1 << TITLE_BITS, Integer::sum);
+        }
+
+        Document document;
+        if (previous != null) {
+            // An append only adds to the body; the title was counted when the note was indexed
+            document = new Document(frequencies, previous.titleLength, previous.bodyLength + body.size());
+        } else {
+            List<String> title = tokenize(note.getTitle());
+            for (String term : title) {
+                frequencies.merge(term, 1, (old, one) -> (old & MAX_TITLE_FREQUENCY) == MAX_TITLE_FREQUENCY ? old : old + one);
+            }
+            document = new Document(frequencies, title.size(), body.size());
+        }
+
+        replaceDocument(fileName, document);
+        appendRecord(ADD_RECORD + "\t" + fileName + "\t" + formatDocument(document));
+    }
+
+    /**
+     * Remove a note from the index
+     * @param fileName File path of the note
+     */
+    public synchronized void removeNote(String fileName) {
+        awaitLoad();
+        if (!documents.containsKey(fileName)) {
+            return;
+        }
+        replaceDocument(fileName, null);
+        appendRecord(REMOVE_RECORD + "\t" + fileName);
+    }
+
+    /**
+     * Buffer log records until endBatch() so a group of changes costs one write
+     */
+    public synchronized void beginBatch() {
+        if (pendingRecords == null) {
+            pendingRecords = new StringBuilder();
+        }
+    }
+
+    /**
+     * Write the records buffered since beginBatch()
+     */
+    public synchronized void endBatch() {
+        awaitLoad();
+        StringBuilder records = pendingRecords;
+        pendingRecords = null;
+        if (records != null && pendingCount > 0) {
+            writeRecords(records.toString(), pendingCount);
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Find the files matching a query
+     * Words are combined with AND; groups separated by the keyword OR are combined with OR,
+     * so "java io OR python" matches (java AND io) OR python.
+     * @param query The search query
+     * @return Sorted file paths of the matching notes
+     */
+    public synchronized Set<String> search(String query) {
+        awaitLoad();
+        return new TreeSet<>(match(query, new HashSet<>()));
+    }
+
+    /**
+     * Find the files matching a query, as search() does, and rank them with BM25
+     * Matches are scored in parallel on the common fork-join pool. Each task keeps only its
+     * best matches in a bounded queue and the queues are merged, so only the best are sorted.
+     * @param query The search query
+     * @param limit Maximum number of matches to return
+     * @return The best matches, best first
+     */
+    public synchronized Ranking rank(String query, int limit) {
+        awaitLoad();
+        Set<String> terms = new LinkedHashSet<>();
+        Set<String> matches = match(query, terms);
+        if (matches.isEmpty() || limit <= 0) {
+            return new Ranking(Collections.emptyList(), matches.size(), terms);
+        }
+
+        String[] queryTerms = terms.toArray(new String[0]);
+        double[] weights = new double[queryTerms.length];
+        for (int i = 0; i < queryTerms.length; i++) {
+            Set<String> files = postings.get(queryTerms[i]);
+            int documentFrequency = files != null ? files.size() : 0;
+            weights[i] = Math.log(1 + (documents.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        }
+        double averageLength = (totalBodyLength + titleBoost * totalTitleLength) / documents.size();
+
+        // The tasks only read the index, and this thread holds its lock until they are done
+        ScoreTask task = new ScoreTask(matches.toArray(new String[0]), 0, matches.size(), limit,
+            queryTerms, weights, Math.max(1, averageLength));
+        PriorityQueue<Match> best = matches.size() <= SCORE_BATCH ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+
+        List<Match> ranked = new ArrayList<>(best);
+        ranked.sort(RANK_ORDER.reversed());
+        return new Ranking(ranked, matches.size(), terms);
+    }
+
+    /**
+     * Number of indexed notes
+     * @return note count
+     */
+    public synchronized int size() {
+        awaitLoad();
+        return documents.size();
+    }
+
+    /**
+     * Split text into lowercase letter/digit tokens
+     * @param text Text to tokenize
+     * @return List of tokens in order of appearance
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Called holding the lock; wait() lets the loader thread take it
+    private void awaitLoad() {
+        boolean interrupted = false;
+        while (loading) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Find the files matching a query and collect the query's tokens
+     * Words are combined with AND; groups separated by the keyword OR are combined with OR.
+     * @return The matching files, not to be modified
+     */
+    private Set<String> match(String query, Set<String> terms) {
+        List<Set<String>> groups = new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals(OR_OPERATOR)) {
+                groups.add(matchAll(group));
+                group = new ArrayList<>();
+            } else {
+                List<String> tokens = tokenize(word);
+                group.addAll(tokens);
+                terms.addAll(tokens);
+            }
+        }
+        groups.add(matchAll(group));
+        if (groups.size() == 1) {
+            return groups.get(0);
+        }
+        Set<String> files = new HashSet<>();
+        for (Set<String> matches : groups) {
+            files.addAll(matches);
+        }
+        return files;
+    }
+
+    /**
+     * BM25 score of one note for the query terms
+     */
+    private double score(Document document, String[] terms, double[] weights, double averageLength) {
+        double length = document.bodyLength + titleBoost * document.titleLength;
+        double norm = K1 * (1 - B + B * length / averageLength);
+        double score = 0;
+        for (int i = 0; i < terms.length; i++) {
+            Integer packed = document.frequencies.get(terms[i]);
+            if (packed == null) {
+                continue;
+            }
+            double frequency = (packed >>> TITLE_BITS) + titleBoost * (packed & MAX_TITLE_FREQUENCY);
+            score += weights[i] * frequency * (K1 + 1) / (frequency + norm);
+        }
+        return score;
+    }
+
+    /**
+     * Scores a range of matches, splitting it in half until it is small enough
+     */
+    private class ScoreTask extends RecursiveTask<PriorityQueue<Match>> {
+        private static final long serialVersionUID = 1L;
+        private final String[] files;
+        private final int from;
+        private final int to;
+        private final int limit;
+        private final String[] terms;
+        private final double[] weights;
+        private final double averageLength;
+
+        ScoreTask(String[] files, int from, int to, int limit, String[] terms, double[] weights, double averageLength) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+            this.terms = terms;
+            this.weights = weights;
+            this.averageLength = averageLength;
+        }
+
+        @Override
+        protected PriorityQueue<Match> compute() {
+            if (to - from <= SCORE_BATCH) {
+                PriorityQueue<Match> best = new PriorityQueue<>(Math.min(limit, to - from) + 1, RANK_ORDER);
+                for (int i = from; i < to; i++) {
+                    offer(best, new Match(files[i], score(documents.get(files[i]), terms, weights, averageLength)));
+                }
+                return best;
+            }
+            int middle = (from + to) >>> 1;
+            ScoreTask left = new ScoreTask(files, from, middle, limit, terms, weights, averageLength);
+            left.fork();
+            PriorityQueue<Match> best = new ScoreTask(files, middle, to, limit, terms, weights, averageLength).compute();
+            for (Match match : left.join()) {
+                offer(best, match);
+            }
+            return best;
+        }
+
+        private void offer(PriorityQueue<Match> best, Match match) {
+            if (best.size() < limit) {
+                best.add(match);
+            } else if (RANK_ORDER.compare(match, best.peek()) > 0) {
+                best.poll();
+                best.add(match);
+            }
+        }
+    }
+
+    /**
+     * Intersect the postings of all terms, starting from the shortest list
+     */
+    private Set<String> matchAll(List<String> terms) {
+        if (terms.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        List<Set<String>> lists = new ArrayList<>();
+        for (String term : terms) {
+            Set<String> files = postings.get(term);
+            if (files == null) {
+                return Collections.emptySet();
+            }
+            lists.add(files);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        if (lists.size() == 1) {
+            return Collections.unmodifiableSet(lists.get(0));
+        }
+
+        Set<String> matches = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !matches.isEmpty(); i++) {
+            matches.retainAll(lists.get(i));
+        }
+        return matches;
+    }
+
+    private void replaceDocument(String fileName, Document document) {
+        Document old = documents.remove(fileName);
+        if (old != null) {
+            totalTitleLength -= old.titleLength;
+            totalBodyLength -= old.bodyLength;
+            for (String term : old.frequencies.keySet()) {
+                Set<String> files = postings.get(term);
+                if (files != null) {
+                    files.remove(fileName);
+                    if (files.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+
+        if (document == null || document.frequencies.isEmpty()) {
+            return;
+        }
+        documents.put(fileName, document);
+        totalTitleLength += document.titleLength;
+        totalBodyLength += document.bodyLength;
+        for (String term : document.frequencies.keySet()) {
+            postings.computeIfAbsent(term, t -> new HashSet<>()).add(fileName);
+        }
+    }
+
+    /**
+     * Log form of a note: "titleLength bodyLength" and "term:body[:title]" per term
+     */
+    private static String formatDocument(Document document) {
+        StringBuilder record = new StringBuilder();
+        record.append(document.titleLength).append(' ').append(document.bodyLength).append('\t');
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : document.frequencies.entrySet()) {
+            if (!first) {
+                record.append(' ');
+            }
+            first = false;
+            int packed = entry.getValue();
+            record.append(entry.getKey()).append(':').append(packed >>> TITLE_BITS);
+            if ((packed & MAX_TITLE_FREQUENCY) != 0) {
+                record.append(':').append(packed & MAX_TITLE_FREQUENCY);
+            }
+        }
+        return record.toString();
+    }
+
+    private static Document parseDocument(String lengths, String terms) {
+        int space = lengths.indexOf(' ');
+        int titleLength = Integer.parseInt(lengths.substring(0, space));
+        int bodyLength = Integer.parseInt(lengths.substring(space + 1));
+        Map<String, Integer> frequencies = new HashMap<>();
+        if (!terms.isEmpty()) {
+            for (String entry : terms.split(" ")) {
+                int colon = entry.indexOf(':');
+                int titleColon = entry.indexOf(':', colon + 1);
+                int body = Integer.parseInt(titleColon < 0 ? entry.substring(colon + 1) : entry.substring(colon + 1, titleColon));
+                int title = titleColon < 0 ? 0 : Integer.parseInt(entry.substring(titleColon + 1));
+                frequencies.put(entry.substring(0, colon), (body << TITLE_BITS) | Math.min(title, MAX_TITLE_FREQUENCY));
+            }
+        }
+        return new Document(frequencies, titleLength, bodyLength);
+    }
+
+    private void appendRecord(String record) {
+        if (pendingRecords != null) {
+            pendingRecords.append(record).append('\n');
+            pendingCount++;
+            return;
+        }
+        writeRecords(record + "\n", 1);
+    }
+
+    private void writeRecords(String records, int count) {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(indexFile), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (!headerWritten && new File(indexFile).length() == 0) {
+                writer.write(FORMAT_HEADER + "\n");
+            }
+            headerWritten = true;
+            writer.write(records);
+            logRecords += count;
+        } catch (IOException e) {
+            System.err.println("Failed to update search index: " + e.getMessage());
+            return;
+        }
+
+        if (logRecords > MIN_RECORDS_BEFORE_COMPACTION && logRecords > 2 * documents.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the log with one record per live note
+     */
+    private void compact() {
+        File tempFile = new File(indexFile + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(FORMAT_HEADER + "\n");
+            for (Map.Entry<String, Document> entry : documents.entrySet()) {
+                writer.write(ADD_RECORD + "\t" + entry.getKey() + "\t" + formatDocument(entry.getValue()) + "\n");
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to compact search index: " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), Paths.get(indexFile), StandardCopyOption.REPLACE_EXISTING);
+            logRecords = documents.size();
+            headerWritten = true;
+        } catch (IOException e) {
+            System.err.println("Failed to replace search index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.List;
+
+/**
+ * Outcome of a ranked search: the best notes, how many matched and how long it took
+ */
+public class SearchReport {
+    private final String query;
+    private final List<SearchHit> hits;
+    private final int totalMatches;
+    private final long elapsedNanos;
+
+    public SearchReport(String query, List<SearchHit> hits, int totalMatches, long elapsedNanos) {
+        this.query = query;
+        this.hits = hits;
+        this.totalMatches = totalMatches;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * The best matches, best first
+     */
+    public List<SearchHit> getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of notes that matched the query, of which getHits() holds the best
+     */
+    public int getTotalMatches() {
+        return totalMatches;
+    }
+
+    public long getElapsedMicros() {
+        return elapsedNanos / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "Search for '" + query + "' matched " + totalMatches + " note(s), showing " + hits.size() +
+               String.format(", in %.2f ms", elapsedNanos / 1e6);
+    }
+}
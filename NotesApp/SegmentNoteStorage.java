@@ -0,0 +1,579 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Storage backend that packs notes into large append-only segment files
+ * Every write, append and delete adds a record to the active segment; an in-memory offset
+ * table points each key at the records holding its bytes. Sealed segments are read through
+ * memory maps, the active one with positional channel reads. Deletes write a tombstone and
+ * a new segment is started once the active one reaches notes.segment.maxBytes.
+ * Reads share a read lock, so they run in parallel; writes take the write lock.
+ *
+ * Superseded records and tombstones are reclaimed by compaction. Once less than
+ * notes.segment.compactRatio (default 0.5) of the sealed segments' bytes belong to live
+ * records, every live note with a record in a sealed segment is copied to the active segment
+ * and the sealed segments are deleted, oldest first. A crash part way leaves older copies in
+ * the remaining segments, which the newer ones supersede when the segments are replayed.
+ *
+ * Record layout: type (1 byte), key length (4), data length (4), timestamp (8),
+ * CRC32 of key and data (4), key bytes, data bytes.
+ */
+public class SegmentNoteStorage implements NoteStorage {
+    private static final byte PUT_RECORD = 1;
+    private static final byte APPEND_RECORD = 2;
+    private static final byte TOMBSTONE_RECORD = 3;
+    private static final int HEADER_SIZE = 21;
+    // Segments are addressed with int offsets when scanned, so they stay below 2 GB
+    private static final long MAX_SEGMENT_BYTES =
+        Math.min(Long.getLong("notes.segment.maxBytes", 64L * 1024 * 1024), Integer.MAX_VALUE);
+    private static final double COMPACT_RATIO =
+        Double.parseDouble(System.getProperty("notes.segment.compactRatio", "0.5"));
+
+    private final Path directory;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+    private final Map<String, Entry> offsets = new HashMap<>();
+    private final TreeMap<Integer, Long> segmentSizes = new TreeMap<>();
+    // Record bytes (header, key and data) of live notes in each segment
+    private final Map<Integer, Long> segmentLiveBytes = new HashMap<>();
+    // Every sealed segment is mapped when it is sealed, so readers never add to this map
+    private final Map<Integer, MappedByteBuffer> sealedMaps = new HashMap<>();
+    private FileChannel activeChannel;
+    private int activeSegment;
+    private long liveBytes;
+    // After a failed compaction, wait for the next sealed segment before trying again
+    private int compactAfterSegment;
+    private int compactions;
+
+    private static class Extent {
+        final int segment;
+        final long offset;
+        final int length;
+        final int recordLength;
+
+        Extent(int segment, long offset, int length, int recordLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+
+    private static class Entry {
+        final List<Extent> extents = new ArrayList<>(1);
+        long lastModified;
+        long size;
+    }
+
+    public SegmentNoteStorage(String directory) throws IOException {
+        this.directory = Paths.get(directory);
+        File dir = this.directory.toFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create segment directory: " + directory);
+        }
+        open();
+    }
+
+    @Override
+    public void write(String key, byte[] data) throws IOException {
+        writeLock.lock();
+        try {
+            Entry entry = new Entry();
+            addExtent(entry, writeRecord(PUT_RECORD, key, data, System.currentTimeMillis()));
+            replaceEntry(key, entry);
+            compactIfNeeded();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void append(String key, byte[] data) throws IOException {
+        writeLock.lock();
+        try {
+            Extent extent = writeRecord(APPEND_RECORD, key, data, System.currentTimeMillis());
+            Entry entry = offsets.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                offsets.put(key, entry);
+            }
+            addExtent(entry, extent);
+            countLive(extent, 1);
+            compactIfNeeded();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        readLock.lock();
+        try {
+            return readEntry(key, Integer.MAX_VALUE);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] readPrefix(String key, int maxBytes) throws IOException {
+        readLock.lock();
+        try {
+            return readEntry(key, maxBytes);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private byte[] readEntry(String key, int maxBytes) throws IOException {
+        Entry entry = offsets.get(key);
+        if (entry == null) {
+            throw new FileNotFoundException(key + " (not found in segment storage)");
+        }
+
+        // Copy the extents straight into one array of the final size
+        byte[] data = new byte[(int) Math.min(entry.size, maxBytes)];
+        int position = 0;
+        for (Extent extent : entry.extents) {
+            if (position >= data.length) {
+                break;
+            }
+            int length = Math.min(extent.length, data.length - position);
+            if (extent.segment == activeSegment) {
+                // Positional reads do not move the channel, so readers can share it
+                ByteBuffer target = ByteBuffer.wrap(data, position, length);
+                long offset = extent.offset;
+                while (target.hasRemaining()) {
+                    int read = activeChannel.read(target, offset);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of segment " + extent.segment);
+                    }
+                    offset += read;
+                }
+            } else {
+                sealedMap(extent.segment).get((int) extent.offset, data, position, length);
+            }
+            position += length;
+        }
+        return data;
+    }
+
+    /**
+     * The stored bytes of a key as a slice of its mapped segment, without copying them
+     * Sealed segments are never written again, so the slice stays valid after later writes;
+     * a segment deleted by compaction stays mapped until the slices are garbage collected.
+     * @param key Note key
+     * @return Read-only buffer holding the value, or null if the key does not exist, lives in
+     *         the active segment or has appends in other records; read() it instead
+     * @throws IOException if the segment is not mapped
+     */
+    public ByteBuffer mappedView(String key) throws IOException {
+        readLock.lock();
+        try {
+            Entry entry = offsets.get(key);
+            if (entry == null || entry.extents.size() != 1 || entry.extents.get(0).segment == activeSegment) {
+                return null;
+            }
+            Extent extent = entry.extents.get(0);
+            return sealedMap(extent.segment).slice((int) extent.offset, extent.length).asReadOnlyBuffer();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        writeLock.lock();
+        try {
+            if (!offsets.containsKey(key)) {
+                return false;
+            }
+            writeRecord(TOMBSTONE_RECORD, key, new byte[0], System.currentTimeMillis());
+            replaceEntry(key, null);
+            compactIfNeeded();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        readLock.lock();
+        try {
+            return offsets.containsKey(key);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Keys of all stored notes, for rebuilding an index that was lost
+     * @return The keys, in no particular order
+     */
+    public List<String> keys() {
+        readLock.lock();
+        try {
+            return new ArrayList<>(offsets.keySet());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Force the active segment to disk; sealed segments were forced when they were rolled
+     * @param keys Ignored, every record lives in the active or a sealed segment
+     */
+    @Override
+    public void sync(Collection<String> keys) throws IOException {
+        // The read lock keeps the active segment from being rolled; force() runs beside writes
+        readLock.lock();
+        try {
+            activeChannel.force(false);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public long lastModified(String key) {
+        readLock.lock();
+        try {
+            Entry entry = offsets.get(key);
+            return entry != null ? entry.lastModified : 0;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public long size(String key) {
+        readLock.lock();
+        try {
+            Entry entry = offsets.get(key);
+            return entry != null ? entry.size : 0;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int fileCount() {
+        readLock.lock();
+        try {
+            return segmentSizes.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public long totalBytes() {
+        readLock.lock();
+        try {
+            long total = 0;
+            for (long size : segmentSizes.values()) {
+                total += size;
+            }
+            return total;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Bytes referenced by live notes; the rest of totalBytes() is superseded or deleted data
+     * and record headers
+     * @return live byte count
+     */
+    public long liveBytes() {
+        readLock.lock();
+        try {
+            return liveBytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Number of compactions run since the storage was opened
+     * @return compaction count
+     */
+    public int compactions() {
+        readLock.lock();
+        try {
+            return compactions;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Copy the live notes out of the sealed segments and delete them
+     * Runs on its own once enough of the sealed bytes are dead; see the class comment.
+     * @throws IOException if a note cannot be copied or a segment deleted
+     */
+    public void compact() throws IOException {
+        writeLock.lock();
+        try {
+            compactSealedSegments();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "segment";
+    }
+
+    /**
+     * Rebuild the offset table by scanning every segment in order
+     */
+    private void open() throws IOException {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".seg"));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                segmentSizes.put(Integer.parseInt(name.substring(8, name.length() - 4)), file.length());
+            }
+        }
+
+        for (int segment : new ArrayList<>(segmentSizes.keySet())) {
+            boolean last = segment == segmentSizes.lastKey();
+            long validEnd = scanSegment(segment, last);
+            if (last && validEnd < segmentSizes.get(segment)) {
+                // Drop a record torn by a crash in the middle of a write
+                try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE)) {
+                    channel.truncate(validEnd);
+                }
+                segmentSizes.put(segment, validEnd);
+            }
+        }
+
+        activeSegment = segmentSizes.isEmpty() ? 1 : segmentSizes.lastKey();
+        openActiveSegment();
+    }
+
+    private long scanSegment(int segment, boolean verifyChecksums) throws IOException {
+        long size = segmentSizes.get(segment);
+        if (size == 0) {
+            return 0;
+        }
+
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        int position = 0;
+        while (position + HEADER_SIZE <= size) {
+            byte type = map.get(position);
+            int keyLength = map.getInt(position + 1);
+            int dataLength = map.getInt(position + 5);
+            long timestamp = map.getLong(position + 9);
+            int checksum = map.getInt(position + 17);
+            long end = (long) position + HEADER_SIZE + keyLength + dataLength;
+            if (type < PUT_RECORD || type > TOMBSTONE_RECORD || keyLength < 0 || dataLength < 0 || end > size) {
+                break;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            map.get(position + HEADER_SIZE, keyBytes);
+            int dataOffset = position + HEADER_SIZE + keyLength;
+            if (verifyChecksums && checksum != checksum(keyBytes, map, dataOffset, dataLength)) {
+                break;
+            }
+
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            Extent extent = new Extent(segment, dataOffset, dataLength, (int) (end - position));
+            if (type == TOMBSTONE_RECORD) {
+                replaceEntry(key, null);
+            } else if (type == PUT_RECORD || !offsets.containsKey(key)) {
+                Entry entry = new Entry();
+                addExtent(entry, extent);
+                replaceEntry(key, entry);
+            } else {
+                addExtent(offsets.get(key), extent);
+                countLive(extent, 1);
+            }
+            offsets.computeIfPresent(key, (k, entry) -> {
+                entry.lastModified = timestamp;
+                return entry;
+            });
+            position = (int) end;
+        }
+
+        if (!verifyChecksums) {
+            sealedMaps.put(segment, map);
+        }
+        return position;
+    }
+
+    private Extent writeRecord(byte type, String key, byte[] data, long timestamp) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + keyBytes.length + data.length;
+        long position = segmentSizes.get(activeSegment);
+        if (position > 0 && position + recordSize > MAX_SEGMENT_BYTES) {
+            rollSegment();
+            position = 0;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(data);
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.put(type).putInt(keyBytes.length).putInt(data.length)
+            .putLong(timestamp).putInt((int) crc.getValue())
+            .put(keyBytes).put(data).flip();
+        long writePosition = position;
+        while (record.hasRemaining()) {
+            writePosition += activeChannel.write(record, writePosition);
+        }
+
+        segmentSizes.put(activeSegment, position + recordSize);
+        return new Extent(activeSegment, position + HEADER_SIZE + keyBytes.length, data.length, recordSize);
+    }
+
+    private void rollSegment() throws IOException {
+        activeChannel.force(false);
+        sealedMaps.put(activeSegment, activeChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSizes.get(activeSegment)));
+        activeChannel.close();
+        activeSegment++;
+        openActiveSegment();
+    }
+
+    private void compactIfNeeded() {
+        if (activeSegment <= compactAfterSegment) {
+            return;
+        }
+        long sealedBytes = 0;
+        long sealedLiveBytes = 0;
+        for (Map.Entry<Integer, Long> segment : segmentSizes.entrySet()) {
+            if (segment.getKey() != activeSegment) {
+                sealedBytes += segment.getValue();
+                sealedLiveBytes += segmentLiveBytes.getOrDefault(segment.getKey(), 0L);
+            }
+        }
+        if (sealedBytes == 0 || sealedLiveBytes >= sealedBytes * COMPACT_RATIO) {
+            return;
+        }
+        try {
+            compactSealedSegments();
+        } catch (IOException e) {
+            // The write that triggered it succeeded; try again once another segment is sealed
+            compactAfterSegment = activeSegment;
+            System.err.println("Failed to compact note segments: " + e.getMessage());
+        }
+    }
+
+    // Called holding the write lock
+    private void compactSealedSegments() throws IOException {
+        int firstUnsealed = activeSegment;
+        List<Integer> sealed = new ArrayList<>(segmentSizes.headMap(firstUnsealed).keySet());
+        if (sealed.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : offsets.entrySet()) {
+            for (Extent extent : entry.getValue().extents) {
+                if (extent.segment < firstUnsealed) {
+                    keys.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+
+        // Copies go to the active segment, and to new ones if it fills up; they supersede
+        // every earlier record of the note
+        for (String key : keys) {
+            Entry previous = offsets.get(key);
+            byte[] data = readEntry(key, Integer.MAX_VALUE);
+            Entry entry = new Entry();
+            addExtent(entry, writeRecord(PUT_RECORD, key, data, previous.lastModified));
+            entry.lastModified = previous.lastModified;
+            replaceEntry(key, entry);
+        }
+        activeChannel.force(false);
+
+        // Oldest first, so a tombstone is never deleted before the record it cancels
+        for (int segment : sealed) {
+            sealedMaps.remove(segment);
+            segmentSizes.remove(segment);
+            segmentLiveBytes.remove(segment);
+            Files.deleteIfExists(segmentPath(segment));
+        }
+        compactions++;
+    }
+
+    private void openActiveSegment() throws IOException {
+        activeChannel = FileChannel.open(segmentPath(activeSegment),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentSizes.put(activeSegment, activeChannel.size());
+    }
+
+    private MappedByteBuffer sealedMap(int segment) throws IOException {
+        MappedByteBuffer map = sealedMaps.get(segment);
+        if (map == null) {
+            throw new IOException("Segment " + segment + " is not mapped");
+        }
+        return map;
+    }
+
+    private void addExtent(Entry entry, Extent extent) {
+        entry.extents.add(extent);
+        entry.size += extent.length;
+        entry.lastModified = System.currentTimeMillis();
+    }
+
+    private void replaceEntry(String key, Entry entry) {
+        Entry previous = entry != null ? offsets.put(key, entry) : offsets.remove(key);
+        if (previous != null) {
+            for (Extent extent : previous.extents) {
+                countLive(extent, -1);
+            }
+        }
+        if (entry != null) {
+            for (Extent extent : entry.extents) {
+                countLive(extent, 1);
+            }
+        }
+    }
+
+    private void countLive(Extent extent, int sign) {
+        liveBytes += sign * extent.length;
+        segmentLiveBytes.merge(extent.segment, (long) sign * extent.recordLength, Long::sum);
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("segment-%08d.seg", segment));
+    }
+
+    private static int checksum(byte[] keyBytes, ByteBuffer map, int dataOffset, int dataLength) {
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        ByteBuffer data = map.duplicate();
+        data.position(dataOffset).limit(dataOffset + dataLength);
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,345 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compressed (radix) trie of note titles for completion and fuzzy lookup
+ * Titles are keyed case-insensitively; each edge carries a run of characters, so a chain
+ * of single-child nodes costs one node. Fuzzy lookup walks the trie with one row of the
+ * Levenshtein matrix per character, which is what a Levenshtein automaton computes, and
+ * drops a subtree as soon as every entry of its row is over the edit budget.
+ */
+public class TitleTrie {
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root = new Node("");
+    private int size;
+
+    private static final class Node {
+        String label;
+        Node[] children = NO_CHILDREN;
+        // Original titles whose key ends here; usually one, more when titles differ only in case
+        List<String> titles;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        int childIndex(char first) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char c = children[middle].label.charAt(0);
+                if (c < first) {
+                    low = middle + 1;
+                } else if (c > first) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void insertChild(int index, Node child) {
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, index);
+            grown[index] = child;
+            System.arraycopy(children, index, grown, index + 1, children.length - index);
+            children = grown;
+        }
+
+        void removeChild(int index) {
+            Node[] shrunk = new Node[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, index);
+            System.arraycopy(children, index + 1, shrunk, index, children.length - index - 1);
+            children = shrunk;
+        }
+    }
+
+    /**
+     * Add a title
+     * @param title Original note title
+     */
+    public synchronized void add(String title) {
+        String key = key(title);
+        Node node = root;
+        int position = 0;
+
+        while (position < key.length()) {
+            int index = node.childIndex(key.charAt(position));
+            if (index < 0) {
+                node.insertChild(-index - 1, new Node(key.substring(position)));
+                node = node.children[-index - 1];
+                position = key.length();
+                break;
+            }
+
+            Node child = node.children[index];
+            int common = commonPrefix(child.label, key, position);
+            if (common < child.label.length()) {
+                // Split the edge where the new key leaves it
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.children = new Node[] {child};
+                node.children[index] = split;
+                child = split;
+            }
+            node = child;
+            position += common;
+        }
+
+        if (node.titles == null) {
+            node.titles = new ArrayList<>(1);
+        }
+        if (!node.titles.contains(title)) {
+            node.titles.add(title);
+            size++;
+        }
+    }
+
+    /**
+     * Remove a title
+     * @param title Original note title
+     * @return true if the title was present
+     */
+    public synchronized boolean remove(String title) {
+        String key = key(title);
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        int position = 0;
+        path.add(node);
+
+        while (position < key.length()) {
+            int index = node.childIndex(key.charAt(position));
+            if (index < 0) {
+                return false;
+            }
+            node = node.children[index];
+            if (!key.startsWith(node.label, position)) {
+                return false;
+            }
+            position += node.label.length();
+            path.add(node);
+        }
+
+        if (node.titles == null || !node.titles.remove(title)) {
+            return false;
+        }
+        size--;
+        if (node.titles.isEmpty()) {
+            node.titles = null;
+        }
+
+        // Drop empty leaves and merge nodes left with a single child back into their edge
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node current = path.get(i);
+            Node parent = path.get(i - 1);
+            if (current.titles != null) {
+                break;
+            }
+            if (current.children.length == 0) {
+                parent.removeChild(parent.childIndex(current.label.charAt(0)));
+            } else if (current.children.length == 1) {
+                Node only = current.children[0];
+                current.label = current.label + only.label;
+                current.children = only.children;
+                current.titles = only.titles;
+                break;
+            } else {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove every title
+     */
+    public synchronized void clear() {
+        root.children = NO_CHILDREN;
+        root.titles = null;
+        size = 0;
+    }
+
+    /**
+     * Check whether a title is present
+     * @param title Original note title
+     * @return true if the exact title was added
+     */
+    public synchronized boolean contains(String title) {
+        Node node = find(key(title));
+        return node != null && node.titles != null && node.titles.contains(title);
+    }
+
+    /**
+     * Titles starting with a prefix, ignoring case, in key order
+     * @param prefix Start of the title
+     * @param limit Maximum number of titles
+     * @return Matching titles
+     */
+    public synchronized List<String> complete(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        String key = key(prefix);
+        Node node = root;
+        int position = 0;
+
+        while (position < key.length()) {
+            int index = node.childIndex(key.charAt(position));
+            if (index < 0) {
+                return result;
+            }
+            Node child = node.children[index];
+            int common = commonPrefix(child.label, key, position);
+            if (position + common == key.length()) {
+                // The prefix ends inside or at the end of this edge
+                node = child;
+                break;
+            }
+            if (common < child.label.length()) {
+                return result;
+            }
+            node = child;
+            position += common;
+        }
+
+        collect(node, result, limit);
+        return result;
+    }
+
+    /**
+     * Titles within a number of edits of a query, ignoring case
+     * @param query Title as typed
+     * @param maxEdits Largest Levenshtein distance to accept
+     * @param limit Maximum number of titles
+     * @return Matching titles, closest first
+     */
+    public synchronized List<String> findSimilar(String query, int maxEdits, int limit) {
+        String key = key(query);
+        int[] firstRow = new int[key.length() + 1];
+        for (int i = 0; i < firstRow.length; i++) {
+            firstRow[i] = i;
+        }
+
+        List<Match> matches = new ArrayList<>();
+        if (root.titles != null && firstRow[key.length()] <= maxEdits) {
+            addMatches(root, firstRow[key.length()], matches);
+        }
+        for (Node child : root.children) {
+            walk(child, key, firstRow, maxEdits, matches);
+        }
+
+        matches.sort(Comparator.comparingInt((Match match) -> match.distance).thenComparing(match -> match.title));
+        List<String> result = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && result.size() < limit; i++) {
+            result.add(matches.get(i).title);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static final class Match {
+        final String title;
+        final int distance;
+
+        Match(String title, int distance) {
+            this.title = title;
+            this.distance = distance;
+        }
+    }
+
+    private static void walk(Node node, String key, int[] previousRow, int maxEdits, List<Match> matches) {
+        int[] row = previousRow;
+        for (int i = 0; i < node.label.length(); i++) {
+            row = nextRow(row, node.label.charAt(i), key);
+            if (min(row) > maxEdits) {
+                return;
+            }
+        }
+
+        int distance = row[key.length()];
+        if (node.titles != null && distance <= maxEdits) {
+            addMatches(node, distance, matches);
+        }
+        for (Node child : node.children) {
+            walk(child, key, row, maxEdits, matches);
+        }
+    }
+
+    private static int[] nextRow(int[] previous, char c, String key) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            int substitution = previous[j - 1] + (key.charAt(j - 1) == c ? 0 : 1);
+            row[j] = Math.min(substitution, Math.min(previous[j] + 1, row[j - 1] + 1));
+        }
+        return row;
+    }
+
+    private static int min(int[] row) {
+        int min = Integer.MAX_VALUE;
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static void addMatches(Node node, int distance, List<Match> matches) {
+        for (String title : node.titles) {
+            matches.add(new Match(title, distance));
+        }
+    }
+
+    private static void collect(Node node, List<String> result, int limit) {
+        if (result.size() >= limit) {
+            return;
+        }
+        if (node.titles != null) {
+            List<String> titles = new ArrayList<>(node.titles);
+            titles.sort(null);
+            for (String title : titles) {
+                if (result.size() < limit) {
+                    result.add(title);
+                }
+            }
+        }
+        for (Node child : node.children) {
+            collect(child, result, limit);
+        }
+    }
+
+    private Node find(String key) {
+        Node node = root;
+        int position = 0;
+        while (position < key.length()) {
+            int index = node.childIndex(key.charAt(position));
+            if (index < 0) {
+                return null;
+            }
+            node = node.children[index];
+            if (!key.startsWith(node.label, position)) {
+                return null;
+            }
+            position += node.label.length();
+        }
+        return node;
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String key(String title) {
+        return title.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,246 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind queue that commits saves in groups
+ * Saves to the same note are coalesced while they wait: an overwrite replaces everything
+ * queued before it and later appends are folded into it. A single background thread takes
+ * all pending saves as one batch, writes them, updates the notes index once and applies the
+ * durability policy to the whole batch before completing the callers' futures.
+ */
+public class WriteBehindQueue {
+    private final Durability durability;
+    private final long lingerMillis;
+    private final int maxPending;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private final Thread drainer;
+    private LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+    private Map<String, PendingWrite> inFlight = Collections.emptyMap();
+    private long submittedSequence;
+    private long committedSequence;
+    private boolean flushRequested;
+    private boolean closed;
+
+    /**
+     * Saves queued for one note
+     */
+    static class PendingWrite {
+        final String fileName;
+        final String title;
+        Note base;
+        final List<Note> appends = new ArrayList<>();
+        final List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+        boolean failed;
+
+        PendingWrite(String fileName, String title) {
+            this.fileName = fileName;
+            this.title = title;
+        }
+    }
+
+    public WriteBehindQueue(Durability durability, long lingerMillis, int maxPending) {
+        this.durability = durability;
+        this.lingerMillis = lingerMillis;
+        this.maxPending = Math.max(1, maxPending);
+        this.drainer = new Thread(this::drain, "notes-write-behind");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Queue a save
+     * @param fileName File path of the note
+     * @param note The note to save (copied, so the caller may keep changing it)
+     * @param append Whether to append to the stored note
+     * @return Completes with the save's outcome once the durability policy is met; with false
+     *         at once if the queue has been closed
+     */
+    public CompletableFuture<Boolean> submit(String fileName, Note note, boolean append) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed) {
+                System.err.println("Write-behind queue is closed, not saving: " + note.getTitle());
+                future.complete(false);
+                return future;
+            }
+            while (pending.size() >= maxPending && !pending.containsKey(fileName)) {
+                notFull.awaitUninterruptibly();
+            }
+
+            PendingWrite write = pending.computeIfAbsent(fileName, key -> new PendingWrite(key, note.getTitle()));
+            if (!append) {
+                write.base = new Note(note);
+                write.appends.clear();
+            } else if (write.base != null) {
+                write.base.addAppend(note.getContent(), LocalDateTime.now());
+            } else {
+                write.appends.add(new Note(note));
+            }
+
+            if (durability == Durability.NONE) {
+                future.complete(true);
+            } else {
+                write.waiters.add(future);
+            }
+            submittedSequence++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Return the note a queued overwrite will store, so reads see their own writes
+     * If only appends are queued for the note, they are committed first and null is returned.
+     * @param fileName File path of the note
+     * @return Copy of the queued note, or null if storage is up to date
+     */
+    public Note pendingNote(String fileName) {
+        boolean needsFlush;
+        lock.lock();
+        try {
+            PendingWrite write = pending.get(fileName);
+            if (write == null) {
+                write = inFlight.get(fileName);
+            }
+            if (write == null) {
+                return null;
+            }
+            if (write.base != null && write.appends.isEmpty()) {
+                return new Note(write.base);
+            }
+            needsFlush = Thread.currentThread() != drainer;
+        } finally {
+            lock.unlock();
+        }
+        if (needsFlush) {
+            flush();
+        }
+        return null;
+    }
+
+    /**
+     * Wait until every save queued so far has been committed
+     */
+    public void flush() {
+        if (Thread.currentThread() == drainer) {
+            return;
+        }
+        lock.lock();
+        try {
+            long target = submittedSequence;
+            if (committedSequence >= target) {
+                return;
+            }
+            flushRequested = true;
+            notEmpty.signal();
+            while (committedSequence < target) {
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commit every queued save and stop the background thread
+     * Saves submitted afterwards are refused. Called at exit, since the thread is a daemon
+     * and would otherwise be stopped with saves still queued.
+     */
+    public void close() {
+        if (Thread.currentThread() == drainer) {
+            return;
+        }
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (drainer.isAlive()) {
+            try {
+                drainer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    private void drain() {
+        while (true) {
+            List<PendingWrite> batch;
+            long batchSequence;
+            lock.lock();
+            try {
+                while (pending.isEmpty()) {
+                    if (closed) {
+                        return;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+                // Linger briefly so bursts of saves share one commit
+                if (!flushRequested && !closed && pending.size() < maxPending && lingerMillis > 0) {
+                    try {
+                        notEmpty.await(lingerMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                batch = new ArrayList<>(pending.values());
+                inFlight = pending;
+                pending = new LinkedHashMap<>();
+                batchSequence = submittedSequence;
+                flushRequested = false;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                FileManager.commitBatch(batch, durability);
+            } catch (RuntimeException e) {
+                for (PendingWrite write : batch) {
+                    write.failed = true;
+                }
+                System.err.println("Write-behind batch failed: " + e.getMessage());
+            }
+
+            lock.lock();
+            try {
+                inFlight = Collections.emptyMap();
+                committedSequence = batchSequence;
+                committed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            for (PendingWrite write : batch) {
+                for (CompletableFuture<Boolean> waiter : write.waiters) {
+                    waiter.complete(!write.failed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures what the FileManager metrics cost on the hot path
+ * Builds a store in ./notes, then runs blocks of cached reads (with the occasional save if
+ * asked) while switching the metrics on and off between blocks, so both settings share the
+ * same JIT state, cache and machine load. The overhead is the median ratio between the two
+ * blocks of each adjacent pair, which cancels slow drift in the machine's speed, and the
+ * harness exits with status 1 if it is above --max-overhead. NoteMetrics.record() and
+ * System.nanoTime() are also timed on their own.
+ *
+ * Run from an empty scratch directory, for example:
+ *   javac -d out NotesApp/*.java NotesApp/benchmark/*.java
+ *   mkdir /tmp/overhead && cd /tmp/overhead
+ *   java -cp /path/to/out MetricsOverhead --blocks 40 --block-ops 20000
+ *
+ * Options:
+ *   --notes N           notes in the generated store (default 500)
+ *   --blocks N          measured pairs of blocks (default 40)
+ *   --block-ops N       operations per block (default 20000)
+ *   --saves N           saves per 1000 operations, the rest are reads (default 0)
+ *   --max-overhead P    failure threshold in percent (default 5)
+ *   --seed N            random seed (default 42)
+ */
+public class MetricsOverhead {
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        if (new File("notes/notes_index.txt").exists() || new File("notes/notes_index.snapshot").exists()) {
+            System.err.println("./notes already holds a store; run the benchmark from an empty scratch directory.");
+            System.exit(1);
+        }
+        int noteCount = Integer.parseInt(options.getOrDefault("notes", "500"));
+        int blocks = Integer.parseInt(options.getOrDefault("blocks", "40"));
+        int blockOps = Integer.parseInt(options.getOrDefault("block-ops", "20000"));
+        int saves = Integer.parseInt(options.getOrDefault("saves", "0"));
+        double maxOverhead = Double.parseDouble(options.getOrDefault("max-overhead", "5"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        System.out.printf("NoteMetrics.record(): %.1f ns per call, System.nanoTime(): %.1f ns per call%n",
+            recordCost(), nanoTimeCost());
+
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < noteCount; i++) {
+            Note note = new Note("overhead note " + i, "body of note " + i + " with a few words to index");
+            notes.add(note);
+            FileManager.saveNote(note, false);
+        }
+
+        NoteMetrics metrics = FileManager.getMetrics();
+        // Warm up both settings before measuring
+        for (int i = 0; i < 10; i++) {
+            metrics.setEnabled(i % 2 == 0);
+            runBlock(notes, blockOps, saves, random);
+        }
+
+        List<Double> enabled = new ArrayList<>();
+        List<Double> disabled = new ArrayList<>();
+        List<Double> ratios = new ArrayList<>();
+        for (int pair = 0; pair < blocks; pair++) {
+            // Alternate which setting goes first in each pair, so drift favours neither
+            boolean enabledFirst = pair % 2 == 0;
+            metrics.setEnabled(enabledFirst);
+            double first = runBlock(notes, blockOps, saves, random);
+            metrics.setEnabled(!enabledFirst);
+            double second = runBlock(notes, blockOps, saves, random);
+            double with = enabledFirst ? first : second;
+            double without = enabledFirst ? second : first;
+            enabled.add(with);
+            disabled.add(without);
+            ratios.add(with / without);
+        }
+        metrics.setEnabled(true);
+
+        double overhead = (median(ratios) - 1) * 100;
+        System.out.printf("%d pairs of %d-operation blocks%n", blocks, blockOps);
+        System.out.printf("median: %.1f ns/op with metrics, %.1f ns/op without, overhead %.2f%% (limit %.1f%%)%n",
+            median(enabled), median(disabled), overhead, maxOverhead);
+        if (overhead > maxOverhead) {
+            System.out.println("FAIL: metrics overhead above the limit");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Run one block of operations
+     * @return Nanoseconds per operation
+     */
+    private static double runBlock(List<Note> notes, int ops, int savesPerThousand, Random random) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            Note note = notes.get(random.nextInt(notes.size()));
+            if (savesPerThousand > 0 && random.nextInt(1000) < savesPerThousand) {
+                FileManager.saveNote(note, false);
+            } else if (FileManager.findNote(note.getTitle()) == null) {
+                throw new IllegalStateException("Note not found: " + note.getTitle());
+            }
+        }
+        return (double) (System.nanoTime() - start) / ops;
+    }
+
+    private static double recordCost() {
+        NoteMetrics metrics = new NoteMetrics(true);
+        int calls = 5_000_000;
+        for (int i = 0; i < calls; i++) {
+            metrics.record(NoteMetrics.Operation.READ, metrics.start());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            metrics.record(NoteMetrics.Operation.READ, metrics.start());
+        }
+        return (double) (System.nanoTime() - start) / calls;
+    }
+
+    private static double nanoTimeCost() {
+        int calls = 5_000_000;
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            sink += System.nanoTime();
+        }
+        double cost = (double) (System.nanoTime() - start) / calls;
+        return sink == 42 ? cost + 1 : cost;
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro-benchmark harness for the notes storage hot paths, runnable with plain javac
+ * Generates a synthetic store in ./notes and measures each operation's throughput,
+ * latency percentiles, allocation rate and GC activity. The JMH suite in benchmark/jmh
+ * measures the same operations when the Maven build is available.
+ *
+ * Run from an empty scratch directory, for example:
+ *   javac -d out NotesApp/*.java NotesApp/benchmark/*.java
+ *   mkdir /tmp/bench && cd /tmp/bench
+ *   java -cp /path/to/out NotesBenchmark --notes 10000 --body-bytes 2048 --titles zipf
+ *
+ * Options:
+ *   --notes N           notes in the generated store (default 1000)
+ *   --body-bytes N      approximate body size in bytes (default 1024)
+ *   --titles MODE       uniform | zipf | prefix title distribution (default uniform)
+ *   --iterations N      measured operations per benchmark (default 2000)
+ *   --warmup N          warm-up operations per benchmark (default 500)
+ *   --only a,b          run only the named benchmarks
+ *   --seed N            random seed (default 42)
+ * Any -Dnotes.* system property (storage backend, cache size, ...) applies as usual.
+ */
+public class NotesBenchmark {
+    private static final String[] VOCABULARY = {
+        "meeting", "agenda", "action", "item", "review", "project", "deadline", "notes", "team",
+        "update", "design", "release", "bug", "fix", "customer", "budget", "plan", "sprint",
+        "retro", "demo", "owner", "status", "risk", "blocker", "follow", "up", "weekly", "daily",
+        "summary", "decision", "question", "answer", "draft", "final", "storage", "index", "cache"
+    };
+
+    interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private final int noteCount;
+    private final int bodyBytes;
+    private final String titleMode;
+    private final int iterations;
+    private final int warmup;
+    private final Random random;
+    private final List<String> titles = new ArrayList<>();
+    private final List<Note> notes = new ArrayList<>();
+    private final Map<Integer, double[]> zipfTables = new HashMap<>();
+
+    private NotesBenchmark(Map<String, String> options) {
+        this.noteCount = Integer.parseInt(options.getOrDefault("notes", "1000"));
+        this.bodyBytes = Integer.parseInt(options.getOrDefault("body-bytes", "1024"));
+        this.titleMode = options.getOrDefault("titles", "uniform");
+        this.iterations = Integer.parseInt(options.getOrDefault("iterations", "2000"));
+        this.warmup = Integer.parseInt(options.getOrDefault("warmup", "500"));
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (new File("notes/notes_index.txt").exists() || new File("notes/notes_index.snapshot").exists()) {
+            System.err.println("./notes already holds a store; run the benchmark from an empty scratch directory.");
+            System.exit(1);
+        }
+
+        NotesBenchmark benchmark = new NotesBenchmark(options);
+        List<String> only = options.containsKey("only")
+            ? Arrays.asList(options.get("only").split(","))
+            : null;
+        benchmark.run(only);
+    }
+
+    private void run(List<String> only) throws Exception {
+        System.out.println("Generating " + noteCount + " notes (" + bodyBytes + " byte bodies, " + titleMode + " titles)...");
+        generateNotes();
+        long start = System.nanoTime();
+        for (Note note : notes) {
+            FileManager.saveNote(note, false);
+        }
+        System.out.printf("Store populated in %.1f ms%n%n", (System.nanoTime() - start) / 1e6);
+
+        Map<String, Operation> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("toFileFormat", i -> notes.get(i % noteCount).toFileFormat());
+        benchmarks.put("saveNote", i -> FileManager.saveNote(notes.get(i % noteCount), false));
+        benchmarks.put("readNote", i -> FileManager.readNote(fileNameOf(titles.get(pick()))));
+        benchmarks.put("titleLookup", i -> FileManager.noteExists(titles.get(pick())));
+        benchmarks.put("titleSuggest", i -> FileManager.suggestTitles(typo(titles.get(pick())), 10));
+        benchmarks.put("searchNotes", i -> FileManager.searchNotes(word() + " " + word()));
+        benchmarks.put("searchRanked", i -> FileManager.searchRanked(word() + " " + word(), 10));
+        benchmarks.put("scanText", i -> FileManager.scanNotes(word() + " " + word(), false, true, 10));
+        benchmarks.put("scanRegex", i -> FileManager.scanNotes(word() + "\\s+\\w+\\s+" + word(), true, false, 10));
+        benchmarks.put("readAllNotes", i -> FileManager.readAllNotes());
+        benchmarks.put("listNotes", i -> FileManager.loadAllNotesLazily());
+        benchmarks.put("exportAllNotes", i -> FileManager.exportAllNotes("benchmark_export.txt"));
+
+        printHeader();
+        for (Map.Entry<String, Operation> entry : benchmarks.entrySet()) {
+            if (only == null || only.contains(entry.getKey())) {
+                // Whole-store operations get fewer iterations so a run stays reasonable
+                boolean bulk = entry.getKey().equals("readAllNotes") || entry.getKey().equals("listNotes")
+                    || entry.getKey().equals("exportAllNotes");
+                measure(entry.getKey(), entry.getValue(), bulk ? Math.max(3, warmup / 100) : warmup,
+                    bulk ? Math.max(5, iterations / 100) : iterations);
+            }
+        }
+    }
+
+    private void measure(String name, Operation operation, int warmupCount, int measuredCount) throws Exception {
+        for (int i = 0; i < warmupCount; i++) {
+            operation.run(i);
+        }
+
+        long[] latencies = new long[measuredCount];
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < measuredCount; i++) {
+            long opStart = System.nanoTime();
+            operation.run(i);
+            latencies[i] = System.nanoTime() - opStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        Arrays.sort(latencies);
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-16s %12.1f %10s %10s %10s %10s %10s %12s %10.1f %6d %6d%n",
+            name, measuredCount / seconds,
+            micros(percentile(latencies, 0.50)), micros(percentile(latencies, 0.90)),
+            micros(percentile(latencies, 0.99)), micros(percentile(latencies, 0.999)),
+            micros(latencies[latencies.length - 1]),
+            bytes(allocated / measuredCount), allocated / seconds / (1024 * 1024),
+            gcCount() - gcCountBefore, gcTimeMillis() - gcTimeBefore);
+    }
+
+    private static void printHeader() {
+        System.out.printf("%-16s %12s %10s %10s %10s %10s %10s %12s %10s %6s %6s%n",
+            "benchmark", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us",
+            "alloc/op", "alloc MB/s", "gc #", "gc ms");
+    }
+
+    private void generateNotes() {
+        for (int i = 0; i < noteCount; i++) {
+            String title;
+            switch (titleMode) {
+                case "zipf":
+                    title = VOCABULARY[zipf(VOCABULARY.length)] + " " + VOCABULARY[zipf(VOCABULARY.length)] + " " + i;
+                    break;
+                case "prefix":
+                    title = "Meeting 2024-" + String.format("%02d", 1 + i % 12) + " " + VOCABULARY[i % VOCABULARY.length] + " " + i;
+                    break;
+                default:
+                    title = "note-" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + "-" + i;
+            }
+
+            StringBuilder body = new StringBuilder(bodyBytes + 16);
+            while (body.length() < bodyBytes) {
+                body.append(word()).append(random.nextInt(12) == 0 ? "\n" : " ");
+            }
+            titles.add(title);
+            notes.add(new Note(title, body.toString().trim()));
+        }
+    }
+
+    // Reads follow the same skew as titles so caches see a realistic access pattern
+    private int pick() {
+        return titleMode.equals("uniform") ? random.nextInt(noteCount) : zipf(noteCount);
+    }
+
+    // Drops one character, the kind of slip title suggestions have to recover from
+    private String typo(String title) {
+        int position = random.nextInt(title.length());
+        return title.substring(0, position) + title.substring(position + 1);
+    }
+
+    private String word() {
+        return VOCABULARY[zipf(VOCABULARY.length)];
+    }
+
+    private int zipf(int size) {
+        double[] cdf = zipfTables.computeIfAbsent(size, NotesBenchmark::zipfCdf);
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(size - 1, index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Cumulative distribution of Zipf(s = 1) over [0, size), sampled by binary search
+     */
+    private static double[] zipfCdf(int size) {
+        double[] cdf = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / (i + 1);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static String fileNameOf(String title) {
+        return "notes/" + title.replaceAll("[^a-zA-Z0-9._-]", "_") + ".txt";
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    private static String bytes(long count) {
+        return count >= 1024 * 1024 ? String.format("%.1f MB", count / (1024.0 * 1024))
+             : count >= 1024 ? String.format("%.1f KB", count / 1024.0)
+             : count + " B";
+    }
+
+    /**
+     * Bytes allocated by all live threads, so work handed to executor threads is counted too
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        long total = 0;
+        for (long allocated : sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the HTTP API against direct FileManager calls (the console path)
+ * Both runs use the same operation mix from the same number of client threads; in the HTTP
+ * run each thread keeps one connection open to a NotesServer on 127.0.0.1. The client is a
+ * few lines of HTTP/1.1 over a socket, so its own cost stays out of the server's numbers.
+ *
+ * Run from an empty scratch directory, for example:
+ *   javac -d out NotesApp/*.java NotesApp/benchmark/*.java
+ *   mkdir /tmp/httpload && cd /tmp/httpload
+ *   java -cp /path/to/out NotesHttpLoad --clients 64 --seconds 10
+ *
+ * Options:
+ *   --notes N           notes created before the runs (default 1000)
+ *   --clients N         concurrent client threads (default 32)
+ *   --seconds N         length of each run (default 10)
+ *   --reads N           percentage of reads; the rest are updates and appends (default 80)
+ *   --url URL           load an already running server instead of starting one
+ */
+public class NotesHttpLoad {
+    interface Operation {
+        boolean run(Connection connection, String title, String text) throws Exception;
+    }
+
+    /**
+     * One keep-alive HTTP/1.1 connection
+     */
+    static class Connection implements Closeable {
+        private final String host;
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        Connection(URI base) throws IOException {
+            host = base.getHost() + ":" + base.getPort();
+            socket = new Socket(base.getHost(), base.getPort());
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        int send(String method, String path, String body) throws IOException {
+            byte[] content = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            String head = method + " " + path + " HTTP/1.1\r\nHost: " + host + "\r\n" +
+                "Content-Type: application/json\r\nContent-Length: " + content.length + "\r\n\r\n";
+            byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+            byte[] request = Arrays.copyOf(headBytes, headBytes.length + content.length);
+            System.arraycopy(content, 0, request, headBytes.length, content.length);
+            out.write(request);
+            out.flush();
+
+            int status = Integer.parseInt(readLine().split(" ")[1]);
+            int length = 0;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            in.readNBytes(length);
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c = in.read(); c != '\n'; c = in.read()) {
+                if (c < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private final int noteCount;
+    private final int clients;
+    private final long durationMillis;
+    private final int readPercent;
+    private final String url;
+
+    private NotesHttpLoad(Map<String, String> options) {
+        this.noteCount = Integer.parseInt(options.getOrDefault("notes", "1000"));
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "32"));
+        this.durationMillis = 1000L * Integer.parseInt(options.getOrDefault("seconds", "10"));
+        this.readPercent = Integer.parseInt(options.getOrDefault("reads", "80"));
+        this.url = options.get("url");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("url") && new File("notes/notes_index.txt").exists()) {
+            System.err.println("./notes already holds a store; run the load test from an empty scratch directory.");
+            System.exit(1);
+        }
+        new NotesHttpLoad(options).run();
+    }
+
+    private void run() throws Exception {
+        NotesServer server = null;
+        String base = url;
+        if (base == null) {
+            server = new NotesServer(0);
+            server.start();
+            base = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+        URI api = URI.create(base);
+
+        System.out.println("Creating " + noteCount + " notes through " + api + " ...");
+        try (Connection connection = new Connection(api)) {
+            for (int i = 0; i < noteCount; i++) {
+                connection.send("POST", "/notes",
+                    "{\"title\":" + Json.quote(title(i)) + ",\"content\":\"load test body " + i + "\"}");
+            }
+        }
+
+        System.out.printf("%-8s %12s %10s %10s %10s %8s%n", "path", "ops/s", "p50 us", "p99 us", "max us", "errors");
+        if (server != null) {
+            measure("direct", null, (connection, title, text) -> {
+                Note note = FileManager.findNote(title);
+                return note != null;
+            }, (connection, title, text) -> {
+                Note note = FileManager.findNote(title);
+                if (note == null) {
+                    return false;
+                }
+                note.setContent(text);
+                return FileManager.saveNote(note, false);
+            }, (connection, title, text) -> FileManager.saveNote(new Note(title, text), true));
+        }
+        measure("http", api, (connection, title, text) ->
+            connection.send("GET", "/notes/" + encode(title), null) == 200,
+            (connection, title, text) ->
+            connection.send("PUT", "/notes/" + encode(title), "{\"content\":" + Json.quote(text) + "}") == 200,
+            (connection, title, text) ->
+            connection.send("POST", "/notes/" + encode(title) + "/append", "{\"content\":" + Json.quote(text) + "}") == 200);
+
+        if (server != null) {
+            System.out.println();
+            System.out.print(server.getMetrics().describe());
+            server.stop(0);
+        }
+    }
+
+    private void measure(String name, URI api, Operation read, Operation update, Operation append) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long deadline = System.currentTimeMillis() + durationMillis;
+        AtomicLong errors = new AtomicLong();
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(c);
+            futures.add(pool.submit(() -> {
+                long[] latencies = new long[1 << 16];
+                int count = 0;
+                Connection connection = api != null ? new Connection(api) : null;
+                while (System.currentTimeMillis() < deadline) {
+                    String title = title(random.nextInt(noteCount));
+                    String text = "update " + random.nextInt(1_000_000);
+                    int choice = random.nextInt(100);
+                    Operation operation = choice < readPercent ? read
+                        : choice < readPercent + (100 - readPercent) * 3 / 4 ? update : append;
+                    long start = System.nanoTime();
+                    if (!operation.run(connection, title, text)) {
+                        errors.incrementAndGet();
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                if (connection != null) {
+                    connection.close();
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+
+        List<long[]> parts = new ArrayList<>();
+        int total = 0;
+        for (Future<long[]> future : futures) {
+            long[] part = future.get();
+            parts.add(part);
+            total += part.length;
+        }
+        pool.shutdown();
+
+        long[] all = new long[total];
+        int position = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, all, position, part.length);
+            position += part.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("%-8s %12.1f %10.1f %10.1f %10.1f %8d%n", name, total * 1000.0 / durationMillis,
+            percentile(all, 0.50) / 1000.0, percentile(all, 0.99) / 1000.0,
+            (all.length > 0 ? all[all.length - 1] : 0) / 1000.0, errors.get());
+    }
+
+    private static String title(int index) {
+        return "load note " + index;
+    }
+
+    private static String encode(String title) {
+        return URLEncoder.encode(title, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
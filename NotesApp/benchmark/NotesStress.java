@@ -0,0 +1,296 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrency stress run for FileManager
+ * Many threads save, append, delete, read, list and search a small set of titles while
+ * others increment counter notes with optimistic saves. Afterwards the store is checked:
+ * no counter increment was lost, versions only moved forward, every indexed note can be
+ * read and holds its own title, and the notes index on disk matches the one in memory.
+ *
+ * Run from an empty scratch directory, for example:
+ *   javac -d out NotesApp/*.java NotesApp/benchmark/*.java
+ *   mkdir /tmp/stress && cd /tmp/stress
+ *   java -cp /path/to/out NotesStress --threads 32 --seconds 20
+ *
+ * Options:
+ *   --threads N         worker threads (default 16)
+ *   --seconds N         how long to run (default 10)
+ *   --titles N          titles shared by the save/append/delete mix (default 32)
+ *   --counters N        counter notes updated with optimistic saves (default 4)
+ *   --seed N            random seed (default 42)
+ * Exits with status 1 if an invariant does not hold or the workers do not finish.
+ */
+public class NotesStress {
+    private static final int MAX_CAS_ATTEMPTS = 1000;
+
+    private final int threadCount;
+    private final long durationMillis;
+    private final int titleCount;
+    private final int counterCount;
+    private final long seed;
+    private final AtomicLongArray increments;
+    private final Map<String, AtomicLong> operations = new LinkedHashMap<>();
+    private final AtomicLong casConflicts = new AtomicLong();
+    private final List<String> violations = new ArrayList<>();
+
+    private NotesStress(Map<String, String> options) {
+        this.threadCount = Integer.parseInt(options.getOrDefault("threads", "16"));
+        this.durationMillis = 1000L * Integer.parseInt(options.getOrDefault("seconds", "10"));
+        this.titleCount = Integer.parseInt(options.getOrDefault("titles", "32"));
+        this.counterCount = Integer.parseInt(options.getOrDefault("counters", "4"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.increments = new AtomicLongArray(counterCount);
+        for (String name : new String[] {"save", "append", "delete", "read", "increment", "list", "search"}) {
+            operations.put(name, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (new File("notes/notes_index.txt").exists() || new File("notes/notes_index.snapshot").exists()) {
+            System.err.println("./notes already holds a store; run the stress test from an empty scratch directory.");
+            System.exit(1);
+        }
+        System.exit(new NotesStress(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        for (int i = 0; i < counterCount; i++) {
+            FileManager.saveNote(new Note(counterTitle(i), "0"), false);
+        }
+
+        System.out.println("Running " + threadCount + " threads for " + durationMillis / 1000 + " s over " +
+            titleCount + " titles and " + counterCount + " counters...");
+        // FileManager reports some outcomes on the console; keep them out of the run's output
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long deadline = System.currentTimeMillis() + durationMillis;
+        CountDownLatch done = new CountDownLatch(threadCount);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Random random = new Random(seed + t);
+            Thread worker = new Thread(() -> {
+                try {
+                    work(random, deadline);
+                } catch (RuntimeException e) {
+                    violation("Worker failed: " + e);
+                } finally {
+                    done.countDown();
+                }
+            }, "stress-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        boolean finished = done.await(durationMillis + 60_000, TimeUnit.MILLISECONDS);
+        System.setOut(console);
+        if (!finished) {
+            reportStuckThreads();
+            return false;
+        }
+
+        FileManager.flushWrites();
+        long total = 0;
+        for (Map.Entry<String, AtomicLong> entry : operations.entrySet()) {
+            System.out.printf("%-10s %10d ops%n", entry.getKey(), entry.getValue().get());
+            total += entry.getValue().get();
+        }
+        System.out.printf("%-10s %10d ops (%.0f ops/s), %d optimistic save conflicts%n",
+            "total", total, total * 1000.0 / durationMillis, casConflicts.get());
+
+        checkCounters();
+        checkNotes();
+        checkIndexOnDisk();
+
+        if (violations.isEmpty()) {
+            System.out.println("All invariants hold.");
+            return true;
+        }
+        for (String violation : violations) {
+            System.out.println("VIOLATION: " + violation);
+        }
+        return false;
+    }
+
+    private void work(Random random, long deadline) {
+        long[] lastVersions = new long[counterCount];
+        while (System.currentTimeMillis() < deadline) {
+            int choice = random.nextInt(100);
+            String title = workloadTitle(random.nextInt(titleCount));
+            if (choice < 20) {
+                FileManager.saveNote(new Note(title, contentFor(title, random)), false);
+                count("save");
+            } else if (choice < 30) {
+                FileManager.saveNote(new Note(title, contentFor(title, random)), true);
+                count("append");
+            } else if (choice < 38) {
+                FileManager.deleteNote(title);
+                count("delete");
+            } else if (choice < 65) {
+                Note note = FileManager.findNote(title);
+                if (note != null && !note.getTitle().equals(title)) {
+                    violation("Read " + title + " but got " + note.getTitle());
+                }
+                if (note != null && !note.getContent().startsWith(contentPrefix(title))) {
+                    violation("Note " + title + " holds another note's content");
+                }
+                count("read");
+            } else if (choice < 92) {
+                int counter = random.nextInt(counterCount);
+                increment(counter, lastVersions);
+                count("increment");
+            } else if (choice < 96) {
+                FileManager.listNotes(NoteOrderIndex.Order.TITLE, random.nextInt(titleCount), 10);
+                count("list");
+            } else {
+                FileManager.searchNotes("stress");
+                count("search");
+            }
+        }
+    }
+
+    /**
+     * Read-modify-write of a counter with an optimistic save, retried on conflict
+     */
+    private void increment(int counter, long[] lastVersions) {
+        String title = counterTitle(counter);
+        for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+            Note note = FileManager.findNote(title);
+            if (note == null) {
+                violation("Counter " + title + " disappeared");
+                return;
+            }
+            if (note.getVersion() < lastVersions[counter]) {
+                violation("Counter " + title + " went back from version " + lastVersions[counter] +
+                    " to " + note.getVersion());
+            }
+            lastVersions[counter] = note.getVersion();
+
+            note.setContent(Long.toString(Long.parseLong(note.getContent()) + 1));
+            if (FileManager.saveNoteIfUnchanged(note)) {
+                increments.incrementAndGet(counter);
+                lastVersions[counter] = note.getVersion();
+                return;
+            }
+            casConflicts.incrementAndGet();
+        }
+        violation("Counter " + title + " could not be updated in " + MAX_CAS_ATTEMPTS + " attempts");
+    }
+
+    private void checkCounters() {
+        for (int i = 0; i < counterCount; i++) {
+            Note note = FileManager.findNote(counterTitle(i));
+            if (note == null) {
+                violation("Counter " + counterTitle(i) + " is missing");
+                continue;
+            }
+            long expected = increments.get(i);
+            if (Long.parseLong(note.getContent()) != expected) {
+                violation("Counter " + counterTitle(i) + " is " + note.getContent() + " after " + expected +
+                    " successful increments (lost updates)");
+            }
+            if (note.getVersion() != expected + 1) {
+                violation("Counter " + counterTitle(i) + " has version " + note.getVersion() + ", expected " +
+                    (expected + 1));
+            }
+        }
+    }
+
+    private void checkNotes() {
+        NoteLoadResult result = FileManager.loadAllNotes();
+        for (Map.Entry<String, String> failure : result.getFailures().entrySet()) {
+            violation("Indexed note cannot be read: " + failure.getKey() + " - " + failure.getValue());
+        }
+        Set<String> seen = new HashSet<>();
+        for (Note note : result.getNotes()) {
+            if (!seen.add(note.getTitle())) {
+                violation("Title stored in more than one file: " + note.getTitle());
+            }
+        }
+        for (int i = 0; i < titleCount; i++) {
+            String title = workloadTitle(i);
+            Note note = FileManager.findNote(title);
+            if (FileManager.noteExists(title) != (note != null)) {
+                violation("Index and storage disagree about " + title);
+            }
+        }
+    }
+
+    private void checkIndexOnDisk() throws Exception {
+        NotesIndex reloaded = new NotesIndex("notes/notes_index.txt", "notes/notes_index.snapshot", "notes", 10_000);
+        reloaded.load();
+        for (int i = 0; i < titleCount; i++) {
+            String title = workloadTitle(i);
+            if ((reloaded.get(title) != null) != FileManager.noteExists(title)) {
+                violation("Notes index on disk disagrees with memory about " + title);
+            }
+        }
+        for (String fileName : reloaded.fileNames()) {
+            if (!new File(fileName).exists() && !new File("notes/segments").exists()) {
+                violation("Notes index on disk points to a missing file: " + fileName);
+            }
+        }
+    }
+
+    private void reportStuckThreads() {
+        System.out.println("VIOLATION: workers did not finish");
+        long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+        if (deadlocked != null) {
+            for (ThreadInfo info : ManagementFactory.getThreadMXBean().getThreadInfo(deadlocked, true, true)) {
+                System.out.print(info);
+            }
+        }
+    }
+
+    private void count(String operation) {
+        operations.get(operation).incrementAndGet();
+    }
+
+    private synchronized void violation(String message) {
+        if (violations.size() < 100) {
+            violations.add(message);
+        }
+    }
+
+    private static String workloadTitle(int index) {
+        return "stress note " + index;
+    }
+
+    private static String counterTitle(int index) {
+        return "counter " + index;
+    }
+
+    private static String contentPrefix(String title) {
+        return "stress body of " + title;
+    }
+
+    private static String contentFor(String title, Random random) {
+        return contentPrefix(title) + " " + random.nextInt(1_000_000);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
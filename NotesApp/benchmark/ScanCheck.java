@@ -0,0 +1,192 @@
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Checks FileManager.scanNotes() against String searches of the same notes
+ * Generates a store of notes mixing ASCII and non-ASCII words (including "Å", whose UTF-8
+ * encoding holds the byte 0x85), with line breaks, appends and a few large notes, then runs
+ * literal and regex scans and compares the notes and match counts found with String.indexOf()
+ * and java.util.regex over the decoded title and content. Every hit must have a highlight.
+ * Run it once per backend (-Dnotes.storage, -Dnotes.compression, -Dnotes.dedup,
+ * -Dnotes.scan.mapBytes) to cover the mapped, read and decoded paths.
+ *
+ * Run from an empty scratch directory, for example:
+ *   javac -d out NotesApp/*.java NotesApp/benchmark/*.java
+ *   mkdir /tmp/scancheck && cd /tmp/scancheck
+ *   java -cp /path/to/out ScanCheck --notes 400
+ *
+ * Options:
+ *   --notes N           notes in the generated store (default 400)
+ *   --seed N            random seed (default 7)
+ * Exits with status 1 if a scan disagrees with the String search.
+ */
+public class ScanCheck {
+    private static final String[] WORDS = {
+        "alpha", "Beta", "gamma", "DELTA", "café", "naïve", "foo()", "x+y", "résumé", "Groceries",
+        "milk", "Åfoo", "Ångström", "東京", "foo"
+    };
+
+    private int failures;
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        if (new File("notes/notes_index.txt").exists() || new File("notes/notes_index.snapshot").exists()) {
+            System.err.println("./notes already holds a store; run the check from an empty scratch directory.");
+            System.exit(1);
+        }
+        int noteCount = Integer.parseInt(options.getOrDefault("notes", "400"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "7"));
+        System.exit(new ScanCheck().run(noteCount, seed) ? 0 : 1);
+    }
+
+    private boolean run(int noteCount, long seed) {
+        generate(noteCount, new Random(seed));
+        List<Note> notes = FileManager.readAllNotes();
+
+        check(notes, "milk", false, false);
+        check(notes, "MILK", false, true);
+        check(notes, "café", false, false);
+        // Only ASCII letters are folded
+        check(notes, "CAFÉ", false, true);
+        check(notes, "foo()", false, false);
+        check(notes, "x+y", false, false);
+        check(notes, "Åfoo", false, false);
+        check(notes, "gamma delta", false, true);
+        check(notes, "al[a-z]+a", true, false);
+        check(notes, "^Beta", true, false);
+        check(notes, "^foo", true, false);
+        check(notes, "foo$", true, false);
+        check(notes, "milk$", true, false);
+        check(notes, "^[a-z]+ milk", true, false);
+        check(notes, "(?i)groceries\\s+milk", true, false);
+        check(notes, "d[e]lta", true, true);
+        check(notes, "café", true, false);
+        check(notes, "x\\+y", true, false);
+        check(notes, "gamma.*milk", true, false);
+        check(notes, "GAMMA.*MILK", true, true);
+        check(notes, "Note \\d+", true, false);
+        check(notes, "milk\\b", true, false);
+        check(notes, "mil?k", true, false);
+        check(notes, "ca(f|x)é", true, false);
+        check(notes, "Beta\\s+[A-Z]", true, false);
+        check(notes, "東京\\s", true, false);
+
+        try {
+            FileManager.scanNotes("(", true, false, 1);
+            fail("an invalid expression was accepted");
+        } catch (PatternSyntaxException e) {
+            System.out.println("invalid expression rejected: " + e.getDescription());
+        }
+
+        System.out.println(failures == 0 ? "All scans agree" : failures + " scan(s) disagree");
+        return failures == 0;
+    }
+
+    private void generate(int noteCount, Random random) {
+        for (int i = 0; i < noteCount; i++) {
+            StringBuilder content = new StringBuilder();
+            int words = 5 + random.nextInt(i % 50 == 0 ? 3000 : 80);
+            for (int w = 0; w < words; w++) {
+                content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(9) == 0 ? "\n" : " ");
+            }
+            String title = "Note " + i + " " + WORDS[random.nextInt(WORDS.length)];
+            FileManager.saveNote(new Note(title, content.toString()), false);
+            if (i % 13 == 0) {
+                FileManager.saveNote(new Note(title, "appended milk and café " + i), true);
+            }
+        }
+        FileManager.flushWrites();
+    }
+
+    private void check(List<Note> notes, String pattern, boolean regex, boolean ignoreCase) {
+        Map<String, Integer> expected = new TreeMap<>();
+        long expectedMatches = 0;
+        Pattern compiled = regex
+            ? Pattern.compile(pattern, Pattern.MULTILINE | Pattern.UNIX_LINES | (ignoreCase ? Pattern.CASE_INSENSITIVE : 0))
+            : null;
+        for (Note note : notes) {
+            int count = 0;
+            for (String part : new String[] {note.getTitle(), note.getContent()}) {
+                count += regex ? countMatches(compiled, part) : countLiteral(part, pattern, ignoreCase);
+            }
+            if (count > 0) {
+                expected.put(note.getTitle(), count);
+                expectedMatches += count;
+            }
+        }
+
+        ScanReport report = FileManager.scanNotes(pattern, regex, ignoreCase, Integer.MAX_VALUE);
+        if (report == null) {
+            fail("scan for '" + pattern + "' failed");
+            return;
+        }
+        Map<String, Integer> found = new TreeMap<>();
+        for (ScanHit hit : report.getHits()) {
+            found.put(hit.getTitle(), hit.getMatchCount());
+            if (hit.getSnippet().getHighlights().isEmpty()) {
+                fail("no highlight for '" + pattern + "' in " + hit.getTitle());
+            }
+        }
+        boolean agrees = found.equals(expected) && report.getMatches() == expectedMatches &&
+                         report.getNotesScanned() == notes.size() && report.getNotesFailed() == 0;
+        System.out.printf("%-24s %-7s %-11s notes %d/%d, matches %d/%d %s%n", pattern,
+            regex ? "regex" : "literal", ignoreCase ? "ignore case" : "match case", found.size(), expected.size(),
+            report.getMatches(), expectedMatches, agrees ? "ok" : "MISMATCH");
+        if (!agrees) {
+            fail("scan for '" + pattern + "' found " + found + ", expected " + expected);
+        }
+    }
+
+    private static int countMatches(Pattern pattern, String text) {
+        int count = 0;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int countLiteral(String text, String literal, boolean ignoreCase) {
+        String haystack = ignoreCase ? asciiLower(text) : text;
+        String needle = ignoreCase ? asciiLower(literal) : literal;
+        int count = 0;
+        for (int i = haystack.indexOf(needle); i >= 0; i = haystack.indexOf(needle, i + needle.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String asciiLower(String text) {
+        StringBuilder lower = new StringBuilder(text);
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                lower.setCharAt(i, (char) (c + ('a' - 'A')));
+            }
+        }
+        return lower.toString();
+    }
+
+    private void fail(String message) {
+        failures++;
+        System.out.println("FAILED: " + message);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
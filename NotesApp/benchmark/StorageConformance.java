@@ -0,0 +1,254 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that every NoteStorage backend behaves the same
+ * Runs one random sequence of writes, appends, deletes and reads against FileNoteStorage
+ * and SegmentNoteStorage side by side and compares each result with an in-memory model.
+ * The segment store is reopened now and then, so its recovery is checked too. Segments are
+ * kept small (notes.segment.maxBytes, 64 KB unless set), so the run rolls and compacts many
+ * of them. Then reader threads re-read notes that no longer change, while a writer keeps
+ * overwriting others until several more compactions have run; every read must return the
+ * note's bytes.
+ *
+ * Run from an empty scratch directory, for example:
+ *   javac -d out NotesApp/*.java NotesApp/benchmark/*.java
+ *   mkdir /tmp/conformance && cd /tmp/conformance
+ *   java -cp /path/to/out StorageConformance --operations 20000
+ *
+ * Options:
+ *   --operations N      random operations in the sequential phase (default 20000)
+ *   --keys N            distinct keys the operations pick from (default 200)
+ *   --readers N         reader threads in the concurrent phase (default 4)
+ *   --seed N            random seed (default 42)
+ * Exits with status 1 if a backend disagrees with the model.
+ */
+public class StorageConformance {
+    private static final int REOPEN_EVERY = 2500;
+    private static final int STABLE_KEYS = 50;
+    private static final int CONCURRENT_COMPACTIONS = 3;
+
+    private final int operationCount;
+    private final int keyCount;
+    private final int readerCount;
+    private final Random random;
+    private final Map<String, byte[]> model = new HashMap<>();
+    private final List<String> violations = new ArrayList<>();
+    private FileNoteStorage files;
+    private SegmentNoteStorage segments;
+    // Compactions of the segment stores closed by reopening
+    private int earlierCompactions;
+
+    private StorageConformance(Map<String, String> options) {
+        this.operationCount = Integer.parseInt(options.getOrDefault("operations", "20000"));
+        this.keyCount = Integer.parseInt(options.getOrDefault("keys", "200"));
+        this.readerCount = Integer.parseInt(options.getOrDefault("readers", "4"));
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (new File("files").exists() || new File("segments").exists()) {
+            System.err.println("./files or ./segments already exists; run the check from an empty scratch directory.");
+            System.exit(1);
+        }
+        if (System.getProperty("notes.segment.maxBytes") == null) {
+            // Small segments, so the run seals and compacts plenty of them
+            System.setProperty("notes.segment.maxBytes", String.valueOf(64 * 1024));
+        }
+        System.exit(new StorageConformance(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        new File("files").mkdirs();
+        files = new FileNoteStorage("files");
+        segments = new SegmentNoteStorage("segments");
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= operationCount && violations.size() < 20; i++) {
+            step(key(random.nextInt(keyCount)));
+            if (i % REOPEN_EVERY == 0) {
+                earlierCompactions += segments.compactions();
+                segments = new SegmentNoteStorage("segments");
+                compareAll("after reopening");
+            }
+        }
+        compareAll("at the end of the sequence");
+        System.out.printf("Sequential: %d operations in %.0f ms, %d segment(s), %d compaction(s), %d of %d bytes live%n",
+            operationCount, (System.nanoTime() - start) / 1e6, segments.fileCount(), earlierCompactions + segments.compactions(),
+            segments.liveBytes(), segments.totalBytes());
+
+        concurrentReads();
+
+        for (String violation : violations) {
+            System.out.println("VIOLATION: " + violation);
+        }
+        System.out.println(violations.isEmpty() ? "Both backends agree with the model" :
+            violations.size() + " violation(s)");
+        return violations.isEmpty();
+    }
+
+    private void step(String key) throws IOException {
+        int operation = random.nextInt(10);
+        if (operation < 4) {
+            byte[] data = randomBytes(key);
+            files.write(key, data);
+            segments.write(key, data);
+            model.put(key, data);
+        } else if (operation < 6) {
+            byte[] data = randomBytes(key);
+            files.append(key, data);
+            segments.append(key, data);
+            byte[] previous = model.getOrDefault(key, new byte[0]);
+            byte[] joined = Arrays.copyOf(previous, previous.length + data.length);
+            System.arraycopy(data, 0, joined, previous.length, data.length);
+            model.put(key, joined);
+        } else if (operation < 7) {
+            boolean existed = model.remove(key) != null;
+            check(files.delete(key) == existed, "file delete of " + key + " returned " + !existed);
+            check(segments.delete(key) == existed, "segment delete of " + key + " returned " + !existed);
+        } else {
+            compare(key, "on read");
+        }
+    }
+
+    private void compare(String key, String when) throws IOException {
+        byte[] expected = model.get(key);
+        for (NoteStorage storage : new NoteStorage[] {files, segments}) {
+            String name = storage.getName() + " " + key + " " + when;
+            check(storage.exists(key) == (expected != null), name + ": exists() is " + storage.exists(key));
+            check(storage.size(key) == (expected != null ? expected.length : 0), name + ": size() is " + storage.size(key));
+            if (expected == null) {
+                try {
+                    storage.read(key);
+                    violations.add(name + ": read() of a missing key returned data");
+                } catch (FileNotFoundException e) {
+                    // Expected
+                }
+                continue;
+            }
+            check(Arrays.equals(storage.read(key), expected), name + ": read() returned other bytes");
+            int prefix = Math.min(expected.length, 1 + random.nextInt(300));
+            check(Arrays.equals(storage.readPrefix(key, prefix), Arrays.copyOf(expected, prefix)),
+                name + ": readPrefix(" + prefix + ") returned other bytes");
+        }
+        ByteBuffer view = segments.mappedView(key);
+        if (view != null) {
+            byte[] viewed = new byte[view.remaining()];
+            view.get(viewed);
+            check(Arrays.equals(viewed, expected), "segment " + key + " " + when + ": mappedView() returned other bytes");
+        }
+    }
+
+    private void compareAll(String when) throws IOException {
+        for (int i = 0; i < keyCount; i++) {
+            compare(key(i), when);
+        }
+    }
+
+    /**
+     * Readers re-read notes that no longer change while a writer churns the others
+     */
+    private void concurrentReads() throws Exception {
+        Map<String, byte[]> stable = new HashMap<>();
+        for (int i = 0; i < STABLE_KEYS; i++) {
+            String key = "stable-" + i;
+            byte[] data = randomBytes(key);
+            segments.write(key, data);
+            stable.put(key, data);
+        }
+        List<String> stableKeys = new ArrayList<>(stable.keySet());
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        List<String> readerViolations = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < readerCount; r++) {
+            long seed = random.nextLong();
+            Thread reader = new Thread(() -> {
+                Random readerRandom = new Random(seed);
+                while (!stop.get()) {
+                    String key = stableKeys.get(readerRandom.nextInt(stableKeys.size()));
+                    try {
+                        if (!Arrays.equals(segments.read(key), stable.get(key))) {
+                            synchronized (readerViolations) {
+                                readerViolations.add("concurrent read of " + key + " returned other bytes");
+                            }
+                        }
+                    } catch (IOException e) {
+                        synchronized (readerViolations) {
+                            readerViolations.add("concurrent read of " + key + " failed: " + e.getMessage());
+                        }
+                    }
+                    reads.incrementAndGet();
+                }
+            }, "conformance-reader-" + r);
+            readers.add(reader);
+            reader.start();
+        }
+
+        long start = System.nanoTime();
+        int target = segments.compactions() + CONCURRENT_COMPACTIONS;
+        int writes = 0;
+        while (segments.compactions() < target && System.nanoTime() - start < 60_000_000_000L) {
+            String key = key(random.nextInt(keyCount));
+            segments.write(key, randomBytes(key));
+            writes++;
+        }
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        check(segments.compactions() >= target, "only " + segments.compactions() + " compaction(s) in 60 s");
+        violations.addAll(readerViolations.subList(0, Math.min(20, readerViolations.size())));
+        for (Map.Entry<String, byte[]> entry : stable.entrySet()) {
+            check(Arrays.equals(segments.read(entry.getKey()), entry.getValue()),
+                "stable note " + entry.getKey() + " changed after the concurrent phase");
+        }
+        System.out.printf("Concurrent: %d reads by %d thread(s) beside %d writes in %.0f ms%n",
+            reads.get(), readerCount, writes, (System.nanoTime() - start) / 1e6);
+    }
+
+    private byte[] randomBytes(String key) {
+        StringBuilder text = new StringBuilder(key).append(':');
+        int length = random.nextInt(8) == 0 ? 4000 + random.nextInt(8000) : random.nextInt(600);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String key(int index) {
+        return "files/note-" + index + ".txt";
+    }
+
+    private void check(boolean condition, String violation) {
+        if (!condition) {
+            violations.add(violation);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
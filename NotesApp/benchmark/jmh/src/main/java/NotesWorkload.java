@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import notes.jmh.Workload;
+
+/**
+ * The benchmarked operations, called on FileManager directly
+ * Generates the same synthetic stores as NotesBenchmark: titles drawn uniformly, from a Zipf
+ * distribution over a small vocabulary, or with a shared date prefix, and bodies of words
+ * drawn from a Zipf distribution. Reads and searches pick notes and words with the same
+ * skew, so caches see a realistic access pattern. Loaded by name from notes.jmh.NotesStore.
+ */
+public class NotesWorkload implements Workload {
+    private static final String[] VOCABULARY = {
+        "meeting", "agenda", "action", "item", "review", "project", "deadline", "notes", "team",
+        "update", "design", "release", "bug", "fix", "customer", "budget", "plan", "sprint",
+        "retro", "demo", "owner", "status", "risk", "blocker", "follow", "up", "weekly", "daily",
+        "summary", "decision", "question", "answer", "draft", "final", "storage", "index", "cache"
+    };
+    private static final String EXPORT_FILE = "benchmark_export.txt";
+
+    private final List<String> titles = new ArrayList<>();
+    private final List<Note> notes = new ArrayList<>();
+    private final Map<Integer, double[]> zipfTables = new HashMap<>();
+    private final AtomicInteger nextNote = new AtomicInteger();
+    private Random random;
+    private String titleMode;
+    private int noteCount;
+
+    @Override
+    public void generate(int noteCount, int bodyBytes, String titleMode, long seed) {
+        this.noteCount = noteCount;
+        this.titleMode = titleMode;
+        this.random = new Random(seed);
+        for (int i = 0; i < noteCount; i++) {
+            String title;
+            switch (titleMode) {
+                case "zipf":
+                    title = VOCABULARY[zipf(VOCABULARY.length)] + " " + VOCABULARY[zipf(VOCABULARY.length)] + " " + i;
+                    break;
+                case "prefix":
+                    title = "Meeting 2024-" + String.format("%02d", 1 + i % 12) + " " + VOCABULARY[i % VOCABULARY.length] + " " + i;
+                    break;
+                case "uniform":
+                    title = "note-" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + "-" + i;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown title distribution: " + titleMode);
+            }
+
+            StringBuilder body = new StringBuilder(bodyBytes + 16);
+            while (body.length() < bodyBytes) {
+                body.append(word()).append(random.nextInt(12) == 0 ? "\n" : " ");
+            }
+            titles.add(title);
+            notes.add(new Note(title, body.toString().trim()));
+        }
+        for (Note note : notes) {
+            FileManager.saveNote(note, false);
+        }
+        FileManager.flushWrites();
+    }
+
+    @Override
+    public void close() {
+        FileManager.closeWrites();
+    }
+
+    @Override
+    public Object toFileFormat() {
+        return notes.get(nextIndex()).toFileFormat();
+    }
+
+    @Override
+    public Object saveNote() {
+        return FileManager.saveNote(notes.get(nextIndex()), false);
+    }
+
+    @Override
+    public Object readNote() {
+        return FileManager.readNote(fileNameOf(titles.get(pick())));
+    }
+
+    @Override
+    public Object titleLookup() {
+        return FileManager.noteExists(titles.get(pick()));
+    }
+
+    @Override
+    public Object titleSuggest() {
+        return FileManager.suggestTitles(typo(titles.get(pick())), 10);
+    }
+
+    @Override
+    public Object searchNotes() {
+        return FileManager.searchNotes(word() + " " + word());
+    }
+
+    @Override
+    public Object searchRanked() {
+        return FileManager.searchRanked(word() + " " + word(), 10);
+    }
+
+    @Override
+    public Object scanText() {
+        return FileManager.scanNotes(word() + " " + word(), false, true, 10);
+    }
+
+    @Override
+    public Object scanRegex() {
+        return FileManager.scanNotes(word() + "\\s+\\w+\\s+" + word(), true, false, 10);
+    }
+
+    @Override
+    public Object readAllNotes() {
+        return FileManager.readAllNotes();
+    }
+
+    @Override
+    public Object listNotes() {
+        return FileManager.loadAllNotesLazily();
+    }
+
+    @Override
+    public Object exportAllNotes() {
+        return FileManager.exportAllNotes(EXPORT_FILE);
+    }
+
+    // Saves and encodes go round the notes in order
+    private int nextIndex() {
+        return Math.floorMod(nextNote.getAndIncrement(), noteCount);
+    }
+
+    private int pick() {
+        return titleMode.equals("uniform") ? random.nextInt(noteCount) : zipf(noteCount);
+    }
+
+    // Drops one character, the kind of slip title suggestions have to recover from
+    private String typo(String title) {
+        int position = random.nextInt(title.length());
+        return title.substring(0, position) + title.substring(position + 1);
+    }
+
+    private String word() {
+        return VOCABULARY[zipf(VOCABULARY.length)];
+    }
+
+    private int zipf(int size) {
+        double[] cdf;
+        synchronized (zipfTables) {
+            cdf = zipfTables.computeIfAbsent(size, NotesWorkload::zipfCdf);
+        }
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(size - 1, index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Cumulative distribution of Zipf(s = 1) over [0, size), sampled by binary search
+     */
+    private static double[] zipfCdf(int size) {
+        double[] cdf = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / (i + 1);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static String fileNameOf(String title) {
+        return "notes/" + title.replaceAll("[^a-zA-Z0-9._-]", "_") + ".txt";
+    }
+}
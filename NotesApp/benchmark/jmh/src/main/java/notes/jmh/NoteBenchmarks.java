@@ -0,0 +1,69 @@
+package notes.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-note operations: encoding, saves, reads, title lookups and searches
+ * Throughput and sampled latency (with percentiles) are both reported; add -prof gc for the
+ * allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NoteBenchmarks {
+
+    @Benchmark
+    public Object toFileFormat(NotesStore store) {
+        return store.workload.toFileFormat();
+    }
+
+    @Benchmark
+    public Object saveNote(NotesStore store) {
+        return store.workload.saveNote();
+    }
+
+    @Benchmark
+    public Object readNote(NotesStore store) {
+        return store.workload.readNote();
+    }
+
+    @Benchmark
+    public Object titleLookup(NotesStore store) {
+        return store.workload.titleLookup();
+    }
+
+    @Benchmark
+    public Object titleSuggest(NotesStore store) {
+        return store.workload.titleSuggest();
+    }
+
+    @Benchmark
+    public Object searchNotes(NotesStore store) {
+        return store.workload.searchNotes();
+    }
+
+    @Benchmark
+    public Object searchRanked(NotesStore store) {
+        return store.workload.searchRanked();
+    }
+
+    @Benchmark
+    public Object scanText(NotesStore store) {
+        return store.workload.scanText();
+    }
+
+    @Benchmark
+    public Object scanRegex(NotesStore store) {
+        return store.workload.scanRegex();
+    }
+}
@@ -0,0 +1,76 @@
+package notes.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A synthetic store in ./notes, generated once per fork
+ * FileManager keeps its store in ./notes and its state in static fields, so every trial
+ * needs a JVM of its own (forks of 1 or more) and a scratch working directory. The store
+ * is marked as generated, and a marked store left by an earlier fork is deleted first; an
+ * unmarked ./notes is never touched.
+ */
+@State(Scope.Benchmark)
+public class NotesStore {
+    private static final Path NOTES_DIRECTORY = Paths.get("notes");
+    private static final Path MARKER = NOTES_DIRECTORY.resolve(".jmh-store");
+    private static boolean generated;
+
+    @Param({"1000"})
+    public int noteCount;
+
+    @Param({"1024"})
+    public int bodyBytes;
+
+    /** uniform, zipf or prefix */
+    @Param({"uniform"})
+    public String titles;
+
+    @Param({"42"})
+    public long seed;
+
+    Workload workload;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        if (generated) {
+            throw new IllegalStateException("FileManager is already loaded in this JVM; run with -f 1 or more");
+        }
+        generated = true;
+        prepareDirectory();
+        workload = (Workload) Class.forName("NotesWorkload").getDeclaredConstructor().newInstance();
+        workload.generate(noteCount, bodyBytes, titles, seed);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        workload.close();
+    }
+
+    private static void prepareDirectory() throws IOException {
+        if (Files.exists(NOTES_DIRECTORY)) {
+            if (!Files.exists(MARKER)) {
+                throw new IllegalStateException("./notes holds a store that was not generated by the benchmarks; "
+                    + "run them from an empty scratch directory");
+            }
+            try (Stream<Path> paths = Files.walk(NOTES_DIRECTORY)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Files.createDirectories(NOTES_DIRECTORY);
+        Files.createFile(MARKER);
+    }
+}
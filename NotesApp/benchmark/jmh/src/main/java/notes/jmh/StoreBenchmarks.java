@@ -0,0 +1,38 @@
+package notes.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-store operations: full load, header-only listing and export
+ * Each call reads every note, so latency is reported in milliseconds.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmarks {
+
+    @Benchmark
+    public Object readAllNotes(NotesStore store) {
+        return store.workload.readAllNotes();
+    }
+
+    @Benchmark
+    public Object listNotes(NotesStore store) {
+        return store.workload.listNotes();
+    }
+
+    @Benchmark
+    public Object exportAllNotes(NotesStore store) {
+        return store.workload.exportAllNotes();
+    }
+}
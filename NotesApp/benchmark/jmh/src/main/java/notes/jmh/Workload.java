@@ -0,0 +1,49 @@
+package notes.jmh;
+
+/**
+ * Operations on the notes store that the benchmarks measure
+ * The app lives in the default package, which classes in a named package cannot refer to, and
+ * JMH only generates code for benchmarks in a named package. So the operations are written in
+ * NotesWorkload, in the default package, and reached through this interface. It has a single
+ * implementation, so the JIT inlines the calls and the indirection stays out of the numbers.
+ */
+public interface Workload {
+
+    /**
+     * Generate notes and save them to ./notes
+     * @param noteCount Number of notes
+     * @param bodyBytes Approximate body size in bytes
+     * @param titleMode uniform, zipf or prefix title distribution
+     * @param seed Random seed
+     */
+    void generate(int noteCount, int bodyBytes, String titleMode, long seed);
+
+    /**
+     * Commit queued saves and stop background threads
+     */
+    void close();
+
+    Object toFileFormat();
+
+    Object saveNote();
+
+    Object readNote();
+
+    Object titleLookup();
+
+    Object titleSuggest();
+
+    Object searchNotes();
+
+    Object searchRanked();
+
+    Object scanText();
+
+    Object scanRegex();
+
+    Object readAllNotes();
+
+    Object listNotes();
+
+    Object exportAllNotes();
+}